@@ -1,5 +1,6 @@
 package com.khetisetu.event.config;
 
+import com.khetisetu.event.notifications.consumer.RetryTopicRouter;
 import org.apache.kafka.clients.admin.AdminClientConfig;
 import org.apache.kafka.clients.admin.NewTopic;
 import org.springframework.beans.factory.annotation.Value;
@@ -82,6 +83,20 @@ public class KafkaTopicConfig {
                 .build();
     }
 
+    // NOTE: each retry tier is a topic of its own and counts against the 5-topic cap, so
+    // notifications.retry.tiers is empty by default and nothing is created here; failed
+    // deliveries are then retried in-process (notifications.retry.local-delays) before they
+    // go to notification-dlq. Configure tiers (e.g. 5s,30s,5m) only when the plan is upgraded.
+    @Bean
+    public KafkaAdmin.NewTopics notificationRetryTopics(RetryTopicRouter retryTopicRouter) {
+        return new KafkaAdmin.NewTopics(retryTopicRouter.topics().stream()
+                .map(name -> TopicBuilder.name(name)
+                        .partitions(topicPartitions)
+                        .replicas(topicReplicas)
+                        .build())
+                .toArray(NewTopic[]::new));
+    }
+
     @Bean
     public NewTopic userActivityAnalyticsTopic() {
         return TopicBuilder.name("user-activity-analytics")
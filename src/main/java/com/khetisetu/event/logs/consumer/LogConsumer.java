@@ -8,19 +8,25 @@ import com.khetisetu.event.notifications.model.logs.Entity;
 import com.khetisetu.event.notifications.model.logs.Log;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Component;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Kafka consumer for application log events published by the main khetisetu backend.
  * Persists log entries to the khetisetu-logs MongoDB database.
  *
- * <p>Failures are rethrown so the container's error handler (configured on
- * {@code logFactory}) retries with backoff and finally skips + logs poison messages,
- * instead of blocking the partition forever.</p>
+ * <p>Runs as a batch listener: a whole poll is mapped and written with one unordered
+ * {@code insertMany}, and offsets are committed once per batch. Documents MongoDB rejects are
+ * logged and skipped without affecting the rest of the batch; other failures (e.g. MongoDB
+ * unreachable) are rethrown so the container's error handler (configured on
+ * {@code logFactory}) retries the batch with backoff and finally skips + logs it, instead of
+ * blocking the partition forever.</p>
  */
 @Component
 @RequiredArgsConstructor
@@ -34,9 +40,23 @@ public class LogConsumer {
             groupId = "log-consumer-group",
             containerFactory = "logFactory"
     )
-    public void consumeLogEvent(LogEvent event, Acknowledgment ack) {
-        log.debug("Received log event: action={}, level={}", event.action(), event.level());
+    public void consumeLogEvents(List<ConsumerRecord<String, LogEvent>> records, Acknowledgment ack) {
+        List<Log> entries = new ArrayList<>(records.size());
+        for (ConsumerRecord<String, LogEvent> record : records) {
+            if (record.value() == null) {
+                log.warn("Skipping empty log record at offset {}", record.offset());
+                continue;
+            }
+            entries.add(toLog(record.value()));
+        }
 
+        int rejected = logService.storeAll(entries);
+        log.debug("Stored {} log events ({} rejected) from a batch of {}",
+                entries.size() - rejected, rejected, records.size());
+        ack.acknowledge();
+    }
+
+    private Log toLog(LogEvent event) {
         Log entry = new Log();
         // Prefer the producer's timestamp so the log reflects when the event actually
         // happened, not when it was consumed (consumer lag would otherwise skew it).
@@ -50,8 +70,6 @@ public class LogConsumer {
         entry.setService(event.service() != null ? event.service() : "khetisetu-core");
         entry.setTraceId(event.traceId());
         entry.setMetadata(event.metadata());
-
-        logService.store(entry);
-        ack.acknowledge();
+        return entry;
     }
 }
@@ -1,6 +1,7 @@
 package com.khetisetu.event.logs.controller;
 
 import com.khetisetu.event.logs.service.LogQueryService;
+import com.khetisetu.event.notifications.dto.CursorPage;
 import com.khetisetu.event.notifications.model.logs.Log;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -59,7 +60,7 @@ public class LogApiController {
         List<String> categories = splitParam(category);
         List<String> levels = splitParam(level);
         if (levels.isEmpty()) {
-            levels = List.of("INFO", "WARN", "ERROR", "FATAL");
+            levels = LogQueryService.DEFAULT_LEVELS;
         }
 
         Page<Log> logs = logQueryService.search(
@@ -70,6 +71,47 @@ public class LogApiController {
         return ResponseEntity.ok(logs);
     }
 
+    /**
+     * Cursor-paginated log search with the same filters as {@link #getLogs}. Pass the
+     * {@code nextCursor} of the previous response to get the next page; deep pages cost the same
+     * as the first one and no count runs unless asked for.
+     *
+     * @param cursor          continuation token, omitted for the first page
+     * @param includeTotal    whether to count the exact total, on every page
+     * @param includeEstimate whether to return a cheap estimate of the total, on the first page
+     */
+    @GetMapping("/scroll")
+    public ResponseEntity<CursorPage<Log>> scrollLogs(
+            @RequestParam(required = false) String category,
+            @RequestParam(required = false) String actionPrefix,
+            @RequestParam(required = false) String level,
+            @RequestParam(required = false) String search,
+            @RequestParam(required = false) String actorId,
+            @RequestParam(required = false) Instant from,
+            @RequestParam(required = false) Instant to,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size,
+            @RequestParam(defaultValue = "false") boolean includeTotal,
+            @RequestParam(defaultValue = "false") boolean includeEstimate) {
+
+        int safeSize = Math.min(Math.max(size, 1), MAX_PAGE_SIZE);
+        List<String> levels = splitParam(level);
+        if (levels.isEmpty()) {
+            levels = LogQueryService.DEFAULT_LEVELS;
+        }
+
+        try {
+            CursorPage<Log> logs = logQueryService.searchAfter(
+                    splitParam(category), actionPrefix, levels, search, actorId, from, to,
+                    cursor, safeSize, includeTotal, includeEstimate);
+            log.debug("Fetched {} logs after cursor {}", logs.content().size(), cursor);
+            return ResponseEntity.ok(logs);
+        } catch (IllegalArgumentException e) {
+            log.debug("Rejected log scroll: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
     /**
      * Aggregated statistics for the admin logs dashboard.
      *
@@ -0,0 +1,307 @@
+package com.khetisetu.event.logs.service;
+
+import com.khetisetu.event.notifications.model.logs.Log;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.InsertManyOptions;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Buffers {@link Log} entries in a bounded, lock-free queue and persists them from a single
+ * background thread with {@code insertMany} batches, so log persistence stays off the
+ * notification send path.
+ *
+ * <p>The flusher writes as soon as {@code logs.writer.batch-size} entries are queued, or after
+ * {@code logs.writer.max-wait-ms} otherwise. When the queue is full, {@code logs.writer.overflow}
+ * decides what happens (see {@link OverflowPolicy}); every dropped entry is counted in
+ * {@code logs.writer.dropped}. On shutdown the queue is drained synchronously.</p>
+ */
+@Component
+@Slf4j
+public class AsyncLogWriter {
+
+    /**
+     * What {@link #submit} does when the queue is full.
+     */
+    public enum OverflowPolicy {
+        /** Evict the oldest queued entry to make room (default; recent logs matter most). */
+        DROP_OLDEST,
+        /** Wait up to {@code logs.writer.block-timeout-ms} for room, then drop the new entry. */
+        BLOCK,
+        /** Keep one in {@code logs.writer.sample-rate} overflowing entries (evicting the oldest), drop the rest. */
+        SAMPLE
+    }
+
+    private static final String COLLECTION = "logs";
+
+    private final MongoTemplate mongoTemplate;
+    private final int capacity;
+    private final int batchSize;
+    private final long maxWaitMs;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutMs;
+    private final int sampleRate;
+
+    private final ConcurrentLinkedQueue<Log> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong overflowSeq = new AtomicLong();
+    private final Counter writtenCounter;
+    private final Counter droppedOverflowCounter;
+    private final Counter droppedErrorCounter;
+    private final Counter rejectedCounter;
+
+    private volatile boolean running;
+    private volatile Thread flusher;
+
+    public AsyncLogWriter(@Qualifier("logsMongoTemplate") MongoTemplate mongoTemplate,
+                          MeterRegistry meterRegistry,
+                          @Value("${logs.writer.capacity:10000}") int capacity,
+                          @Value("${logs.writer.batch-size:500}") int batchSize,
+                          @Value("${logs.writer.max-wait-ms:200}") long maxWaitMs,
+                          @Value("${logs.writer.overflow:DROP_OLDEST}") OverflowPolicy overflowPolicy,
+                          @Value("${logs.writer.block-timeout-ms:50}") long blockTimeoutMs,
+                          @Value("${logs.writer.sample-rate:10}") int sampleRate) {
+        this.mongoTemplate = mongoTemplate;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.maxWaitMs = maxWaitMs;
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutMs = blockTimeoutMs;
+        this.sampleRate = Math.max(1, sampleRate);
+
+        this.writtenCounter = Counter.builder("logs.writer.written")
+                .description("Log entries persisted by the async writer")
+                .register(meterRegistry);
+        this.droppedOverflowCounter = Counter.builder("logs.writer.dropped")
+                .tag("reason", "overflow")
+                .tag("policy", overflowPolicy.name())
+                .description("Log entries dropped by the async writer")
+                .register(meterRegistry);
+        this.droppedErrorCounter = Counter.builder("logs.writer.dropped")
+                .tag("reason", "write_error")
+                .tag("policy", overflowPolicy.name())
+                .description("Log entries dropped by the async writer")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("logs.writer.dropped")
+                .tag("reason", "rejected")
+                .tag("policy", overflowPolicy.name())
+                .description("Log entries dropped by the async writer")
+                .register(meterRegistry);
+        Gauge.builder("logs.writer.queue.size", size, AtomicInteger::get)
+                .description("Log entries waiting to be persisted")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void start() {
+        running = true;
+        Thread t = new Thread(this::runFlusher, "log-writer");
+        t.setDaemon(true);
+        flusher = t;
+        t.start();
+        log.info("Async log writer started (capacity {}, batch {}, max wait {} ms, overflow {})",
+                capacity, batchSize, maxWaitMs, overflowPolicy);
+    }
+
+    /**
+     * Queues an entry for persistence. Never throws and, except under the {@code BLOCK}
+     * policy, never waits.
+     *
+     * @return false if the entry was dropped
+     */
+    public boolean submit(Log entry) {
+        if (tryReserve()) {
+            enqueue(entry);
+            return true;
+        }
+        return switch (overflowPolicy) {
+            case DROP_OLDEST -> replaceOldest(entry);
+            case BLOCK -> offerWithTimeout(entry);
+            case SAMPLE -> overflowSeq.incrementAndGet() % sampleRate == 0 ? replaceOldest(entry) : drop();
+        };
+    }
+
+    /**
+     * Writes a batch synchronously with one unordered {@code insertMany}. Documents the server
+     * rejects (duplicate key, validation) are logged and skipped while the rest of the batch is
+     * stored; any other failure is thrown so the caller can retry the whole batch.
+     *
+     * @return the number of rejected documents
+     */
+    public int insertNow(List<Log> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        List<Document> documents = new ArrayList<>(batch.size());
+        for (Log entry : batch) {
+            Document doc = new Document();
+            mongoTemplate.getConverter().write(entry, doc);
+            if (!doc.containsKey("_id")) {
+                // Assign the ObjectId up front so the entry reflects it, as save() used to
+                ObjectId id = new ObjectId();
+                doc.put("_id", id);
+                entry.setId(id.toHexString());
+            }
+            documents.add(doc);
+        }
+        try {
+            mongoTemplate.getCollection(COLLECTION).insertMany(documents, new InsertManyOptions().ordered(false));
+        } catch (MongoBulkWriteException e) {
+            if (e.getWriteConcernError() != null || e.getWriteErrors().isEmpty()) {
+                throw e;
+            }
+            for (BulkWriteError error : e.getWriteErrors()) {
+                Log rejected = batch.get(error.getIndex());
+                log.error("Log entry rejected by MongoDB (action={}, traceId={}): {}",
+                        rejected.getAction(), rejected.getTraceId(), error.getMessage());
+            }
+            int rejectedCount = e.getWriteErrors().size();
+            rejectedCounter.increment(rejectedCount);
+            writtenCounter.increment(batch.size() - rejectedCount);
+            return rejectedCount;
+        }
+        writtenCounter.increment(batch.size());
+        return 0;
+    }
+
+    /**
+     * Number of entries currently queued.
+     */
+    public int pending() {
+        return size.get();
+    }
+
+    /**
+     * Writes everything queued so far on the calling thread.
+     */
+    public void flush() {
+        while (drainBatch() > 0) {
+            // keep going until the queue is empty
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        running = false;
+        Thread t = flusher;
+        if (t != null) {
+            LockSupport.unpark(t);
+            try {
+                t.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+        log.info("Async log writer stopped; {} entries left unwritten", size.get());
+    }
+
+    private void runFlusher() {
+        while (running) {
+            if (size.get() < batchSize) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(maxWaitMs));
+            }
+            try {
+                drainBatch();
+            } catch (Exception e) {
+                // drainBatch already accounts for failed writes; never let the thread die
+                log.error("Log writer iteration failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    private int drainBatch() {
+        List<Log> batch = new ArrayList<>(Math.min(batchSize, Math.max(size.get(), 1)));
+        Log entry;
+        while (batch.size() < batchSize && (entry = queue.poll()) != null) {
+            size.decrementAndGet();
+            batch.add(entry);
+        }
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        try {
+            insertNow(batch);
+        } catch (Exception e) {
+            droppedErrorCounter.increment(batch.size());
+            log.error("Failed to persist {} log entries: {}", batch.size(), e.getMessage());
+        }
+        return batch.size();
+    }
+
+    private boolean tryReserve() {
+        int current;
+        do {
+            current = size.get();
+            if (current >= capacity) {
+                return false;
+            }
+        } while (!size.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private void enqueue(Log entry) {
+        queue.offer(entry);
+        if (size.get() >= batchSize) {
+            Thread t = flusher;
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
+        }
+    }
+
+    private boolean replaceOldest(Log entry) {
+        if (queue.poll() != null) {
+            // the evicted entry's slot is reused by the new one, so size is unchanged
+            droppedOverflowCounter.increment();
+            enqueue(entry);
+            return true;
+        }
+        // flusher emptied the queue in the meantime
+        if (tryReserve()) {
+            enqueue(entry);
+            return true;
+        }
+        return drop();
+    }
+
+    private boolean offerWithTimeout(Log entry) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockTimeoutMs);
+        Thread t = flusher;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+        while (System.nanoTime() < deadline) {
+            if (tryReserve()) {
+                enqueue(entry);
+                return true;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return drop();
+    }
+
+    private boolean drop() {
+        droppedOverflowCounter.increment();
+        return false;
+    }
+}
@@ -1,6 +1,7 @@
 package com.khetisetu.event.logs.service;
 
 import com.khetisetu.event.logs.LogCategory;
+import com.khetisetu.event.notifications.dto.CursorPage;
 import com.khetisetu.event.notifications.model.logs.Log;
 import lombok.extern.slf4j.Slf4j;
 import org.bson.Document;
@@ -31,6 +32,12 @@ import java.util.regex.Pattern;
 @Slf4j
 public class LogQueryService {
 
+    /** Levels searched when the caller names none. */
+    public static final List<String> DEFAULT_LEVELS = List.of("INFO", "WARN", "ERROR", "FATAL");
+
+    /** Upper bound of the filtered count behind {@link CursorPage#estimatedTotal()}. */
+    static final int ESTIMATE_CAP = 10_000;
+
     private final MongoTemplate mongoTemplate;
 
     public LogQueryService(@Qualifier("logsMongoTemplate") MongoTemplate mongoTemplate) {
@@ -61,6 +68,65 @@ public class LogQueryService {
         return new PageImpl<>(content, pageable, total);
     }
 
+    /**
+     * Keyset log search: the page of logs after {@code cursor} (null for the first page), newest
+     * first by (timestamp, _id). Filters are the same as {@link #search}, but no page costs more
+     * than the first and no count runs unless asked for: {@code includeTotal} counts exactly on
+     * every page, {@code includeEstimate} estimates on the first page only. The estimate is the
+     * collection's metadata count when nothing beyond the {@link #DEFAULT_LEVELS} is filtered
+     * (an upper bound, DEBUG entries included), a count capped at {@value #ESTIMATE_CAP}
+     * otherwise.
+     *
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    public CursorPage<Log> searchAfter(List<String> categories, String actionPrefix, List<String> levels,
+                                       String search, String actorId, Instant from, Instant to,
+                                       String cursor, int size, boolean includeTotal, boolean includeEstimate) {
+        Criteria filter = buildCriteria(categories, actionPrefix, levels, search, actorId, from, to);
+        boolean firstPage = cursor == null || cursor.isBlank();
+        Query query = new Query(filter);
+        if (!firstPage) {
+            CursorPage.Position after = CursorPage.Position.decode(cursor);
+            // The filter is itself an $and, so the seek condition is nested next to it
+            query = new Query(new Criteria().andOperator(filter, new Criteria().orOperator(
+                    Criteria.where("timestamp").lt(after.time()),
+                    Criteria.where("timestamp").is(after.time()).and("id").lt(after.id()))));
+        }
+        query.with(Sort.by(Sort.Order.desc("timestamp"), Sort.Order.desc("id"))).limit(size + 1);
+
+        List<Log> content = mongoTemplate.find(query, Log.class, "logs");
+        boolean hasNext = content.size() > size;
+        String nextCursor = null;
+        if (hasNext) {
+            content = content.subList(0, size);
+            Log last = content.get(content.size() - 1);
+            nextCursor = new CursorPage.Position(last.getTimestamp(), last.getId()).encode();
+        }
+
+        Long total = includeTotal ? mongoTemplate.count(new Query(filter), "logs") : null;
+        Long estimate = null;
+        if (includeEstimate && firstPage) {
+            if (total != null) {
+                estimate = total;
+            } else if (isUnfiltered(categories, actionPrefix, levels, search, actorId, from, to)) {
+                estimate = mongoTemplate.estimatedCount("logs");
+            } else {
+                estimate = mongoTemplate.count(new Query(filter).limit(ESTIMATE_CAP), "logs");
+            }
+        }
+        return new CursorPage<>(content, nextCursor, hasNext, total, estimate);
+    }
+
+    private static boolean isUnfiltered(List<String> categories, String actionPrefix, List<String> levels,
+                                        String search, String actorId, Instant from, Instant to) {
+        return (categories == null || categories.isEmpty())
+                && (actionPrefix == null || actionPrefix.isBlank())
+                && (levels == null || levels.isEmpty() || levels.containsAll(DEFAULT_LEVELS))
+                && (search == null || search.isBlank())
+                && (actorId == null || actorId.isBlank())
+                && from == null && to == null;
+    }
+
     private Criteria buildCriteria(List<String> categories, String actionPrefix, List<String> levels,
                                    String search, String actorId, Instant from, Instant to) {
         List<Criteria> parts = new ArrayList<>();
@@ -4,41 +4,52 @@ import com.khetisetu.event.logs.LogCategory;
 import com.khetisetu.event.notifications.model.logs.Actor;
 import com.khetisetu.event.notifications.model.logs.Entity;
 import com.khetisetu.event.notifications.model.logs.Log;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.MDC;
-import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
+import java.util.List;
 
 /**
  * Service for persisting log entries to the khetisetu-logs MongoDB database.
  * Called by {@link com.khetisetu.event.logs.consumer.LogConsumer} for Kafka-consumed logs.
+ *
+ * <p>{@link #store} hands entries to {@link AsyncLogWriter}, which persists them in batches on
+ * a background thread, so internal callers never wait on MongoDB. {@link #storeAll} writes
+ * synchronously for callers that must not acknowledge their input before it is stored.</p>
  */
 @Service
+@RequiredArgsConstructor
 @Slf4j
 public class LogService {
 
-    private final MongoTemplate mongoTemplate;
+    private final AsyncLogWriter logWriter;
 
-    public LogService(@Qualifier("logsMongoTemplate") MongoTemplate mongoTemplate) {
-        this.mongoTemplate = mongoTemplate;
+    /**
+     * Fills in defaults and queues a log entry for persistence. The id is left null so
+     * MongoDB assigns a unique ObjectId (the previous "LOG" + currentTimeMillis scheme
+     * collided under concurrent writes); it is set on the entry once the batch is written.
+     */
+    public Log store(Log entry) {
+        applyDefaults(entry);
+        if (!logWriter.submit(entry)) {
+            log.debug("Log dropped by writer: action={}, level={}", entry.getAction(), entry.getLevel());
+        }
+        return entry;
     }
 
     /**
-     * Persists a fully-populated log entry. The id is left null so MongoDB assigns
-     * a unique ObjectId (the previous "LOG" + currentTimeMillis scheme collided
-     * under concurrent writes).
+     * Persists a batch synchronously with one unordered insertMany, for callers that must not
+     * acknowledge their input before it is stored (the application-logs batch listener).
+     * Documents MongoDB rejects are logged and skipped; any other failure is thrown.
+     *
+     * @return the number of rejected entries
      */
-    public Log store(Log entry) {
-        if (entry.getTimestamp() == null) entry.setTimestamp(Instant.now());
-        if (entry.getCategory() == null) entry.setCategory(LogCategory.fromAction(entry.getAction()));
-        if (entry.getService() == null) entry.setService("notification-event-service");
-        if (entry.getTraceId() == null) entry.setTraceId(MDC.get("traceId"));
-        Log saved = mongoTemplate.save(entry, "logs");
-        log.debug("Log stored: id={}, action={}, level={}", saved.getId(), entry.getAction(), entry.getLevel());
-        return saved;
+    public int storeAll(List<Log> entries) {
+        entries.forEach(this::applyDefaults);
+        return logWriter.insertNow(entries);
     }
 
     /**
@@ -48,4 +59,11 @@ public class LogService {
         Log entry = new Log(null, Instant.now(), level, actor, action, entity, logDetails);
         store(entry);
     }
+
+    private void applyDefaults(Log entry) {
+        if (entry.getTimestamp() == null) entry.setTimestamp(Instant.now());
+        if (entry.getCategory() == null) entry.setCategory(LogCategory.fromAction(entry.getAction()));
+        if (entry.getService() == null) entry.setService("notification-event-service");
+        if (entry.getTraceId() == null) entry.setTraceId(MDC.get("traceId"));
+    }
 }
@@ -3,6 +3,7 @@ package com.khetisetu.event.notifications.config;
 
 import com.khetisetu.event.logs.dto.LogEvent;
 import com.khetisetu.event.notifications.consumer.DlqHandler;
+import com.khetisetu.event.notifications.consumer.NotificationPipeline;
 import com.khetisetu.event.notifications.dto.NotificationEvent;
 import com.khetisetu.event.notifications.dto.NotificationRequestEvent;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
@@ -37,16 +38,53 @@ public class KafkaConsumerConfig {
     @Value("${kafka.sasl-mechanism:SCRAM-SHA-256}")
     private String saslMechanism;
 
+    /**
+     * Upper bound on records handed to a notification batch listener per poll.
+     */
+    @Value("${kafka.consumer.batch.max-poll-records:200}")
+    private int batchMaxPollRecords;
+
+    /**
+     * How long the broker may wait to fill a notification batch before answering a fetch.
+     */
+    @Value("${kafka.consumer.batch.fetch-max-wait-ms:500}")
+    private int batchFetchMaxWaitMs;
+
+    /**
+     * Upper bound on log events handed to the application-logs batch listener per poll.
+     */
+    @Value("${kafka.consumer.logs.max-poll-records:1000}")
+    private int logsMaxPollRecords;
+
+    /**
+     * How long the broker may wait to fill a log batch before answering a fetch.
+     */
+    @Value("${kafka.consumer.logs.fetch-max-wait-ms:1000}")
+    private int logsFetchMaxWaitMs;
+
+    /**
+     * How often completed pipeline offsets are committed while a listener receives no records.
+     */
+    @Value("${notifications.pipeline.idle-commit-ms:1000}")
+    private long pipelineIdleCommitMs;
+
+    /**
+     * Partitions per topic (see KafkaTopicConfig). Pipeline-backed listeners run one consumer per
+     * partition: more would sit idle, as parallelism comes from the pipeline's workers instead.
+     */
+    @Value("${kafka.topic.partitions:2}")
+    private int topicPartitions;
+
     private final com.khetisetu.event.config.KafkaSslConfig kafkaSslConfig;
 
     public KafkaConsumerConfig(com.khetisetu.event.config.KafkaSslConfig kafkaSslConfig) {
         this.kafkaSslConfig = kafkaSslConfig;
     }
 
-    // DIRECT: NotificationEvent
+    // DIRECT: NotificationEvent (batch listener)
     @Bean
     public ConsumerFactory<String, NotificationEvent> directConsumerFactory() {
-        Map<String, Object> props = baseProps("notification-event-group");
+        Map<String, Object> props = batchProps("notification-event-group", batchMaxPollRecords, batchFetchMaxWaitMs);
         return new DefaultKafkaConsumerFactory<>(
                 props,
                 new StringDeserializer(),
@@ -55,18 +93,21 @@ public class KafkaConsumerConfig {
     }
 
     @Bean
-    public ConcurrentKafkaListenerContainerFactory<String, NotificationEvent> directFactory() {
+    public ConcurrentKafkaListenerContainerFactory<String, NotificationEvent> directFactory(
+            DlqHandler dlqHandler, NotificationPipeline pipeline) {
         var factory = new ConcurrentKafkaListenerContainerFactory<String, NotificationEvent>();
         factory.setConsumerFactory(directConsumerFactory());
-        factory.setConcurrency(3);
-        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL_IMMEDIATE);
+        factory.setConcurrency(topicPartitions);
+        factory.setBatchListener(true);
+        pipelineCommits(factory, pipeline);
+        factory.setCommonErrorHandler(dlqHandler);
         return factory;
     }
 
-    // RULE-BASED: NotificationRequestEvent
+    // RULE-BASED: NotificationRequestEvent (batch listener)
     @Bean
     public ConsumerFactory<String, NotificationRequestEvent> ruleConsumerFactory() {
-        Map<String, Object> props = baseProps("delivery-group");
+        Map<String, Object> props = batchProps("delivery-group", batchMaxPollRecords, batchFetchMaxWaitMs);
         return new DefaultKafkaConsumerFactory<>(
                 props,
                 new StringDeserializer(),
@@ -76,11 +117,35 @@ public class KafkaConsumerConfig {
 
     @Bean
     public ConcurrentKafkaListenerContainerFactory<String, NotificationRequestEvent> ruleFactory(
-            DlqHandler dlqHandler) {
+            DlqHandler dlqHandler, NotificationPipeline pipeline) {
         var factory = new ConcurrentKafkaListenerContainerFactory<String, NotificationRequestEvent>();
         factory.setConsumerFactory(ruleConsumerFactory());
-        factory.setConcurrency(6);
-        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL_IMMEDIATE);
+        factory.setConcurrency(topicPartitions);
+        factory.setBatchListener(true);
+        pipelineCommits(factory, pipeline);
+        factory.setCommonErrorHandler(dlqHandler);
+        return factory;
+    }
+
+    // RETRIES: NotificationRequestEvent from the retry tier topics (batch listener)
+    @Bean
+    public ConsumerFactory<String, NotificationRequestEvent> retryConsumerFactory() {
+        Map<String, Object> props = batchProps("notification-retry-group", batchMaxPollRecords, batchFetchMaxWaitMs);
+        return new DefaultKafkaConsumerFactory<>(
+                props,
+                new StringDeserializer(),
+                new JsonDeserializer<>(NotificationRequestEvent.class, false)
+        );
+    }
+
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, NotificationRequestEvent> retryFactory(
+            DlqHandler dlqHandler, NotificationPipeline pipeline) {
+        var factory = new ConcurrentKafkaListenerContainerFactory<String, NotificationRequestEvent>();
+        factory.setConsumerFactory(retryConsumerFactory());
+        factory.setConcurrency(topicPartitions);
+        factory.setBatchListener(true);
+        pipelineCommits(factory, pipeline);
         factory.setCommonErrorHandler(dlqHandler);
         return factory;
     }
@@ -106,10 +171,10 @@ public class KafkaConsumerConfig {
         return factory;
     }
 
-    // LOG EVENTS: LogEvent from main backend
+    // LOG EVENTS: LogEvent from main backend (batch listener)
     @Bean
     public ConsumerFactory<String, LogEvent> logConsumerFactory() {
-        Map<String, Object> props = baseProps("log-consumer-group");
+        Map<String, Object> props = batchProps("log-consumer-group", logsMaxPollRecords, logsFetchMaxWaitMs);
         return new DefaultKafkaConsumerFactory<>(
                 props,
                 new StringDeserializer(),
@@ -122,9 +187,12 @@ public class KafkaConsumerConfig {
         var factory = new ConcurrentKafkaListenerContainerFactory<String, LogEvent>();
         factory.setConsumerFactory(logConsumerFactory());
         factory.setConcurrency(2);
+        // One insertMany and one offset commit per poll
+        factory.setBatchListener(true);
         factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL_IMMEDIATE);
-        // Retry transient persistence failures 3 times with 1s backoff, then log and
-        // skip the record so a poison message can't block the partition forever.
+        // Rejected documents are isolated by the listener itself; only whole-batch failures
+        // (MongoDB unreachable) get here. Retry 3 times with 1s backoff, then log and skip
+        // the batch so it can't block the partition forever.
         var errorHandler = new DefaultErrorHandler(
                 (record, ex) -> LoggerFactory.getLogger(KafkaConsumerConfig.class)
                         .error("Dropping unprocessable log event after retries: {}", record.value(), ex),
@@ -151,6 +219,27 @@ public class KafkaConsumerConfig {
         return factory;
     }
 
+    /**
+     * Offsets of listeners backed by the {@link NotificationPipeline} are committed by the
+     * pipeline itself once delivery completed, never by the container: at each poll, on idle
+     * events (so commits continue while the container is paused) and before a rebalance.
+     */
+    private void pipelineCommits(ConcurrentKafkaListenerContainerFactory<?, ?> factory, NotificationPipeline pipeline) {
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        factory.getContainerProperties().setIdleEventInterval(pipelineIdleCommitMs);
+        factory.getContainerProperties().setConsumerRebalanceListener(pipeline);
+    }
+
+    /**
+     * Base props plus the fetch sizing used by the batch listeners.
+     */
+    private Map<String, Object> batchProps(String groupId, int maxPollRecords, int fetchMaxWaitMs) {
+        Map<String, Object> props = baseProps(groupId);
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, maxPollRecords);
+        props.put(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG, fetchMaxWaitMs);
+        return props;
+    }
+
     private Map<String, Object> baseProps(String groupId) {
         Map<String, Object> props = new HashMap<>();
         props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
@@ -66,6 +66,8 @@ public class LogsMongoConfig {
                         new IndexOptions().name("category_ts"));
                 logs.createIndex(Indexes.compoundIndex(Indexes.ascending("level"), Indexes.descending("timestamp")),
                         new IndexOptions().name("level_ts"));
+                // Sort key of the keyset (cursor) search
+                logs.createIndex(Indexes.descending("timestamp", "_id"), new IndexOptions().name("ts_id"));
                 logs.createIndex(Indexes.ascending("action"), new IndexOptions().name("action_1"));
                 logs.createIndex(Indexes.ascending("actor.id"), new IndexOptions().name("actor_id_1"));
                 logs.createIndex(Indexes.ascending("traceId"),
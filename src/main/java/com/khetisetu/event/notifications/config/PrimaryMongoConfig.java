@@ -2,13 +2,23 @@ package com.khetisetu.event.notifications.config;
 
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationRunner;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
 
+import java.util.function.Consumer;
+
 /**
  * Primary MongoDB configuration for the main khetisetu database.
  * Provides the default {@code mongoTemplate} bean used by repositories
@@ -25,6 +35,8 @@ import org.springframework.data.mongodb.repository.config.EnableMongoRepositorie
 )
 public class PrimaryMongoConfig {
 
+    private static final Logger log = LoggerFactory.getLogger(PrimaryMongoConfig.class);
+
     @Value("${spring.data.mongodb.uri}")
     private String mongoUri;
 
@@ -40,4 +52,76 @@ public class PrimaryMongoConfig {
         // Database name is extracted from the URI (khetisetu)
         return new MongoTemplate(mongoClient(), "khetisetu");
     }
+
+    /**
+     * Ensures the indexes behind the repository queries of the primary database. Index
+     * annotations on the entities are not applied (auto index creation is off), so this is the
+     * only place they are declared. Idempotent; a collection whose indexes fail is logged and
+     * skipped.
+     */
+    @Bean
+    public ApplicationRunner primaryIndexInitializer(@Qualifier("mongoTemplate") MongoTemplate template) {
+        return args -> ensureIndexes(template);
+    }
+
+    static void ensureIndexes(MongoTemplate template) {
+        ensure(template, "notifications", notifications -> {
+            // Inbox by user, newest first (paged, projected and keyset listings)
+            notifications.createIndex(Indexes.compoundIndex(Indexes.ascending("userId"),
+                    Indexes.descending("createdAt", "_id")), new IndexOptions().name("user_created"));
+            notifications.createIndex(Indexes.compoundIndex(Indexes.ascending("userId", "type"),
+                    Indexes.descending("createdAt")), new IndexOptions().name("user_type_created"));
+            notifications.createIndex(Indexes.compoundIndex(Indexes.ascending("userId", "isRead"),
+                    Indexes.descending("createdAt")), new IndexOptions().name("user_read_created"));
+            // Legacy recipient-based queries
+            notifications.createIndex(Indexes.compoundIndex(Indexes.ascending("recipient"),
+                    Indexes.descending("createdAt")), new IndexOptions().name("recipient_created"));
+            notifications.createIndex(Indexes.ascending("recipient", "isRead", "type"),
+                    new IndexOptions().name("recipient_read_type"));
+            notifications.createIndex(Indexes.ascending("recipient", "type", "isRead"),
+                    new IndexOptions().name("recipient_type_read"));
+            // Admin listings
+            notifications.createIndex(Indexes.compoundIndex(Indexes.ascending("type"),
+                    Indexes.descending("createdAt")), new IndexOptions().name("type_created"));
+            notifications.createIndex(Indexes.compoundIndex(Indexes.ascending("status"),
+                    Indexes.descending("createdAt")), new IndexOptions().name("status_created"));
+        });
+        ensure(template, "scheduled_notifications", scheduled ->
+                scheduled.createIndex(Indexes.ascending("dueAt"), new IndexOptions().name("dueAt_1")));
+        ensure(template, "conversations", conversations -> {
+            // Same name as the @CompoundIndex on Conversation
+            conversations.createIndex(Indexes.ascending("userId", "sessionId"),
+                    new IndexOptions().name("idx_user_session").unique(true));
+            conversations.createIndex(Indexes.compoundIndex(Indexes.ascending("userId", "status"),
+                    Indexes.descending("updatedAt")), new IndexOptions().name("user_status_updated"));
+            conversations.createIndex(Indexes.compoundIndex(Indexes.ascending("userId"),
+                    Indexes.descending("updatedAt")), new IndexOptions().name("user_updated"));
+            conversations.createIndex(Indexes.ascending("status"), new IndexOptions().name("status_1"));
+        });
+        ensure(template, "conversation_messages", messages ->
+                messages.createIndex(Indexes.ascending("conversationId", "timestamp"),
+                        new IndexOptions().name("conversation_ts")));
+        ensure(template, "knowledge_base", knowledge -> {
+            // The documents' own "language" holds codes text search does not support (hi, mr),
+            // so it must not be the text index's language override
+            knowledge.createIndex(Indexes.compoundIndex(Indexes.text("title"), Indexes.text("content")),
+                    new IndexOptions().name("title_content_text")
+                            .weights(new Document("title", 3).append("content", 1))
+                            .languageOverride("textLanguage"));
+            knowledge.createIndex(Indexes.compoundIndex(Indexes.ascending("category"),
+                    Indexes.descending("createdAt")), new IndexOptions().name("category_created"));
+            knowledge.createIndex(Indexes.ascending("tags"), new IndexOptions().name("tags_1"));
+        });
+    }
+
+    private static void ensure(MongoTemplate template, String collection,
+                               Consumer<MongoCollection<Document>> indexes) {
+        try {
+            indexes.accept(template.getCollection(collection));
+            log.info("{} collection indexes ensured", collection);
+        } catch (Exception e) {
+            // Index setup must never prevent the service from starting.
+            log.error("Failed to ensure {} indexes: {}", collection, e.getMessage(), e);
+        }
+    }
 }
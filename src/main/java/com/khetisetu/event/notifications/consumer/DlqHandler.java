@@ -5,7 +5,9 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.jetbrains.annotations.NotNull;
+import org.springframework.kafka.KafkaException;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.listener.CommonErrorHandler;
 import org.springframework.kafka.listener.MessageListenerContainer;
@@ -43,6 +45,47 @@ public class DlqHandler implements CommonErrorHandler {
 
         log.error("Handling error for record offset {}: {}",
                 record.offset(), Arrays.toString(thrownException.getStackTrace()));
+        return forward(record); // true = we handled it (moved to DLQ)
+    }
+
+    /**
+     * Handles an exception thrown by a batch listener for the whole batch.
+     * Every record of the batch is forwarded to the DLQ; if any forward fails the
+     * exception is rethrown so the container redelivers the batch instead of
+     * committing past records that were never dead-lettered.
+     *
+     * @param thrownException the exception that was thrown by the batch listener
+     * @param data the records of the failed batch
+     * @param consumer the Kafka consumer instance
+     * @param container the message listener container
+     * @param invokeListener callback to re-invoke the listener (unused)
+     */
+    @Override
+    public void handleBatch(Exception thrownException, @NotNull ConsumerRecords<?, ?> data,
+                            @NotNull Consumer<?, ?> consumer, @NotNull MessageListenerContainer container,
+                            @NotNull Runnable invokeListener) {
+
+        log.error("Handling error for batch of {} records: {}",
+                data.count(), Arrays.toString(thrownException.getStackTrace()));
+        int failed = 0;
+        for (ConsumerRecord<?, ?> record : data) {
+            if (!forward(record)) {
+                failed++;
+            }
+        }
+        if (failed > 0) {
+            throw new KafkaException("Failed to forward " + failed + " records to DLQ", thrownException);
+        }
+    }
+
+    /**
+     * Forwards a single record to the 'notification-dlq' topic. Used by the error-handler
+     * callbacks and by batch listeners to dead-letter only the records that failed.
+     *
+     * @param record the Kafka ConsumerRecord to dead-letter
+     * @return true if the record was successfully sent to DLQ, false otherwise
+     */
+    public boolean forward(ConsumerRecord<?, ?> record) {
         try {
             // Forward to DLQ
             if (record.value() instanceof NotificationRequestEvent event) {
@@ -52,11 +95,11 @@ public class DlqHandler implements CommonErrorHandler {
                 kafkaTemplate.send("notification-dlq", record.value());
                 log.info("Sent raw record to DLQ");
             }
-            return true; // We handled it (moved to DLQ)
+            return true;
 
         } catch (Exception e) {
             log.error("Failed to send to DLQ {}", Arrays.toString(e.getStackTrace()));
             return false; // Failed to handle
         }
     }
-}
\ No newline at end of file
+}
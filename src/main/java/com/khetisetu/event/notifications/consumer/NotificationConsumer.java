@@ -8,28 +8,34 @@ import io.opentelemetry.api.trace.StatusCode;
 import io.opentelemetry.api.trace.Tracer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.annotation.KafkaListener;
-import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
 import java.util.UUID;
+import java.util.function.Supplier;
 
 /**
  * Kafka consumer component for processing notification events.
  *
- * This class consumes messages from two Kafka topics:
+ * This class consumes messages from these Kafka topics:
  * <ul>
  *   <li>"notifications" - Direct notification events requiring immediate processing</li>
  *   <li>"notification-requests" - Rule-based notification requests with custom logic</li>
+ *   <li>"notification-requests-retry-*" - Failed deliveries waiting for their next attempt</li>
  * </ul>
  *
- * Each message is processed with:
+ * Both listeners run in batch mode and hand each poll to the {@link NotificationPipeline},
+ * which delivers the records on its recipient-keyed lanes with:
  * <ul>
- *   <li>Distributed tracing via OpenTelemetry spans for observability</li>
+ *   <li>Distributed tracing via one OpenTelemetry span per processed batch for observability</li>
  *   <li>Contextual logging using MDC (Mapped Diagnostic Context) with traceId and eventId</li>
- *   <li>Manual acknowledgment to ensure messages are processed before offset commit</li>
- *   <li>Exception handling with error logging and span status updates</li>
+ *   <li>Offset commits only after delivery, committed on the consumer thread at the next poll</li>
+ *   <li>Partial-failure handling: only the failed records are retried via {@link RetryTopicRouter}</li>
  * </ul>
  *
  * @see NotificationProcessingService
@@ -39,40 +45,127 @@ import java.util.UUID;
 @Slf4j
 public class NotificationConsumer {
 
+    static final String DIRECT_LISTENER_ID = "direct-notifications";
+    static final String RULE_LISTENER_ID = "rule-notifications";
+    static final String RETRY_LISTENER_ID = "retry-notifications";
+
     private final NotificationProcessingService processingService;
     private final Tracer tracer;
+    private final NotificationPipeline pipeline;
+    private final RetryTopicRouter retryRouter;
+
+    /**
+     * Field of a rule-based request whose notifications are kept in order: {@code recipient}
+     * (default) or {@code userId}. Direct events only have a recipient.
+     */
+    @Value("${notifications.pipeline.ordering-key:recipient}")
+    private String orderingKey = "recipient";
 
     /**
-     * Consumes direct notification events from the "notifications" Kafka topic.
+     * Consumes batches of direct notification events from the "notifications" Kafka topic.
      *
-     * Processes each notification event by delegating to {@link NotificationProcessingService}.
-     * A unique trace ID is generated for each event and stored in MDC for distributed tracing.
-     * The message is acknowledged only after successful processing.
+     * Commits the offsets of records delivered since the last poll, then hands the batch to the
+     * pipeline and returns without waiting for delivery.
      *
-     * @param event the notification event to be processed, containing notification details
-     * @param ack manual acknowledgment handle used to commit the Kafka offset after processing
-     * @throws Exception if processing fails during service invocation or message handling
+     * @param records the notification event records polled in this batch
+     * @param consumer the consumer, used to commit completed offsets on its own thread
      */
-    @KafkaListener(topics = "notifications",
+    @KafkaListener(id = DIRECT_LISTENER_ID, idIsGroup = false,
+            topics = "notifications",
             groupId = "notification-event-group",
             containerFactory = "directFactory")
-    public void consumeDirectNotificationEvent(NotificationEvent event, Acknowledgment ack) throws Exception {
+    public void consumeDirectNotificationEvents(List<ConsumerRecord<String, NotificationEvent>> records,
+                                                Consumer<?, ?> consumer) {
+
+        log.info("RECEIVED {} NotificationEvents from Kafka topic 'notifications'", records.size());
+        pipeline.commitCompleted(consumer);
+        pipeline.dispatch(DIRECT_LISTENER_ID, records, NotificationEvent::recipient, this::processDirectBatch);
+    }
+
+    /**
+     * Consumes batches of rule-based notification requests from the "notification-requests" Kafka topic.
+     *
+     * Commits the offsets of records delivered since the last poll, then hands the batch to the
+     * pipeline and returns without waiting for delivery.
+     *
+     * @param records the notification request records polled in this batch
+     * @param consumer the consumer, used to commit completed offsets on its own thread
+     */
+    @KafkaListener(id = RULE_LISTENER_ID, idIsGroup = false,
+            topics = "notification-requests",
+            groupId = "delivery-group",
+            containerFactory = "ruleFactory")
+    public void consumeNotificationRequests(List<ConsumerRecord<String, NotificationRequestEvent>> records,
+                                            Consumer<?, ?> consumer) {
+
+        pipeline.commitCompleted(consumer);
+        pipeline.dispatch(RULE_LISTENER_ID, records, this::orderingKeyOf, this::processRuleBatch);
+    }
 
-        log.info("RECEIVED NotificationEvent from Kafka topic 'notifications': {}", event);
+    /**
+     * Consumes batches from the retry tier topics. Records that are not due yet are held back
+     * on their partition; the due ones are processed exactly like rule-based requests.
+     *
+     * @param records the retry records polled in this batch
+     * @param consumer the consumer, used to commit completed offsets and hold back early records
+     */
+    @KafkaListener(id = RETRY_LISTENER_ID, idIsGroup = false,
+            topicPattern = RetryTopicRouter.TOPIC_PREFIX + ".*",
+            groupId = "notification-retry-group",
+            containerFactory = "retryFactory")
+    public void consumeRetries(List<ConsumerRecord<String, NotificationRequestEvent>> records,
+                               Consumer<?, ?> consumer) {
+
+        pipeline.commitCompleted(consumer);
+        List<ConsumerRecord<String, NotificationRequestEvent>> due = retryRouter.releaseDue(RETRY_LISTENER_ID, records, consumer);
+        pipeline.dispatch(RETRY_LISTENER_ID, due, this::orderingKeyOf, this::processRuleBatch);
+    }
 
-        var traceId = UUID.randomUUID().toString();
+    /**
+     * Processes one lane batch of direct events; runs on a pipeline lane thread.
+     *
+     * A unique trace ID is generated for the batch and stored in MDC for distributed tracing.
+     *
+     * @return the records whose delivery failed, to be dead-lettered by the pipeline
+     */
+    List<ConsumerRecord<String, NotificationEvent>> processDirectBatch(
+            List<ConsumerRecord<String, NotificationEvent>> records) {
+        return traced("process.direct.notification.batch", records.size(),
+                () -> processingService.processDirectBatch(records));
+    }
+
+    /**
+     * Processes one lane batch of rule-based requests; runs on a pipeline lane thread.
+     *
+     * The whole batch is deduplicated, persisted and delivered by {@link NotificationProcessingService}.
+     * A unique trace ID is stored in MDC for the batch (the service adds per-event eventId).
+     *
+     * @return the records whose delivery failed, to be dead-lettered by the pipeline
+     */
+    List<ConsumerRecord<String, NotificationRequestEvent>> processRuleBatch(
+            List<ConsumerRecord<String, NotificationRequestEvent>> records) {
+        return traced("process.rule.notification.batch", records.size(),
+                () -> processingService.processBatch(records));
+    }
+
+    String orderingKeyOf(NotificationRequestEvent event) {
+        return "userId".equals(orderingKey) && event.userId() != null ? event.userId() : event.recipient();
+    }
+
+    private <R extends List<?>> R traced(String spanName, int size, Supplier<R> work) {
+        String traceId = UUID.randomUUID().toString();
         MDC.put("traceId", traceId);
-        MDC.put("eventId", null);
 
-        Span span = createSpan("process.direct.notification", event.type(), traceId, null);
+        Span span = createSpan(spanName, "BATCH", traceId, null);
+        span.setAttribute("batch.size", size);
 
         try (var scope = span.makeCurrent()) {
-            processingService.process(event);
-            ack.acknowledge();
+            R failed = work.get();
+            span.setAttribute("batch.failed", failed.size());
             span.setStatus(StatusCode.OK);
-
+            return failed;
         } catch (Exception e) {
-            log.error("Direct processing failed", e);
+            log.error("Batch processing failed ({})", spanName, e);
             span.recordException(e);
             span.setStatus(StatusCode.ERROR);
             throw e;
@@ -104,45 +197,4 @@ public class NotificationConsumer {
         }
         return spanBuilder.startSpan();
     }
-
-    /**
-     * Consumes rule-based notification requests from the "notification-requests" Kafka topic.
-     *
-     * Processes each notification request event with custom business logic via
-     * {@link NotificationProcessingService}. A unique trace ID and event ID are stored in MDC
-     * for comprehensive request tracing. The message is acknowledged only after successful processing.
-     *
-     * @param event the notification request event containing event ID and processing details
-     * @param ack manual acknowledgment handle used to commit the Kafka offset after processing
-     * @throws Exception if processing fails during service invocation or message handling
-     */
-    @KafkaListener(topics = "notification-requests",
-            groupId = "delivery-group",
-            containerFactory = "ruleFactory")
-    public void consumeNotificationRequest(NotificationRequestEvent event,
-                                           Acknowledgment ack) throws Exception {
-
-        String traceId = UUID.randomUUID().toString();
-        MDC.put("traceId", traceId);
-        MDC.put("eventId", event.eventId());
-
-        Span span = createSpan("process.rule.notification",
-                event.type(),
-                event.eventId(),
-                event.eventId());
-
-        try (var scope = span.makeCurrent()) {
-            processingService.process(event);
-            ack.acknowledge();
-            span.setStatus(StatusCode.OK);
-        } catch (Exception e) {
-            log.error("Rule processing failed", e);
-            span.recordException(e);
-            span.setStatus(StatusCode.ERROR);
-            throw e;
-        } finally {
-            MDC.clear();
-            span.end();
-        }
-    }
-}
\ No newline at end of file
+}
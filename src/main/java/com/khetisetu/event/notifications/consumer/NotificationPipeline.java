@@ -0,0 +1,443 @@
+package com.khetisetu.event.notifications.consumer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * In-process delivery pipeline between the notification listeners and
+ * {@link com.khetisetu.event.notifications.service.NotificationProcessingService}.
+ *
+ * <p>Listeners {@link #dispatch} each poll and return immediately. Records are routed to one of
+ * {@code notifications.pipeline.workers} lanes by key ({@code notifications.pipeline.ordering-key}),
+ * so one key's notifications are always delivered in order by the same lane while records of
+ * one partition run in parallel: throughput scales with the worker count, not the partition
+ * count. Each lane thread drains up to {@code notifications.pipeline.lane-batch-size} records
+ * and processes them as batches holding at most one record per key.</p>
+ *
+ * <p>Offsets are committed only after delivery: completions are tracked per partition by a
+ * {@link PartitionOffsetTracker} and the highest contiguous completed offset is committed on
+ * the consumer thread, at the next poll or idle event. Failed records are handed to the
+ * {@link RetryTopicRouter} (next retry tier, or the DLQ) before they count as completed.
+ * Without retry tiers the pipeline first redelivers a failed record itself, after each of the
+ * router's local retry delays, back into its lane; it stays in flight (and uncommitted) until a
+ * retry succeeds or it is dead-lettered.</p>
+ *
+ * <p>Backpressure: once {@code notifications.pipeline.capacity} records are in flight the
+ * listener containers are paused, and resumed when the backlog is down to half. Records of a
+ * poll that is already under way are still accepted, so capacity is a soft bound.</p>
+ */
+@Component
+@Slf4j
+public class NotificationPipeline implements SmartLifecycle, ConsumerAwareRebalanceListener {
+
+    /**
+     * Processes a batch of records and returns those whose delivery failed.
+     */
+    @FunctionalInterface
+    public interface BatchHandler<V> {
+        List<ConsumerRecord<String, V>> process(List<ConsumerRecord<String, V>> records);
+    }
+
+    private record Work(ConsumerRecord<String, ?> record, String key, BatchHandler<?> handler,
+                        PartitionOffsetTracker.Partition partition, long enqueuedAt) {
+    }
+
+    private final KafkaListenerEndpointRegistry listenerRegistry;
+    private final RetryTopicRouter retryRouter;
+    private final PartitionOffsetTracker offsets = new PartitionOffsetTracker();
+    private final int capacity;
+    private final int laneBatchSize;
+    private final long handOffRetryBackoffMs;
+    private final long shutdownTimeoutMs;
+    private final List<BlockingQueue<Work>> lanes;
+    private final List<Thread> laneThreads = new ArrayList<>();
+    private final Set<String> listenerIds = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicBoolean paused = new AtomicBoolean();
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "notification-retry-delay");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Counter dispatchedCounter;
+    private final Counter completedCounter;
+    private final Counter failedCounter;
+    private final Counter retriedCounter;
+    private final Counter pauseCounter;
+    private final Timer queueTimer;
+    private final Timer processTimer;
+
+    private volatile boolean running;
+
+    public NotificationPipeline(KafkaListenerEndpointRegistry listenerRegistry,
+                                RetryTopicRouter retryRouter,
+                                MeterRegistry meterRegistry,
+                                @Value("${notifications.pipeline.workers:8}") int workers,
+                                @Value("${notifications.pipeline.capacity:2000}") int capacity,
+                                @Value("${notifications.pipeline.lane-batch-size:100}") int laneBatchSize,
+                                @Value("${notifications.pipeline.hand-off-retry-backoff-ms:1000}") long handOffRetryBackoffMs,
+                                @Value("${notifications.pipeline.shutdown-timeout-ms:10000}") long shutdownTimeoutMs) {
+        this.listenerRegistry = listenerRegistry;
+        this.retryRouter = retryRouter;
+        this.capacity = capacity;
+        this.laneBatchSize = Math.max(1, laneBatchSize);
+        this.handOffRetryBackoffMs = handOffRetryBackoffMs;
+        this.shutdownTimeoutMs = shutdownTimeoutMs;
+        this.lanes = new ArrayList<>(workers);
+        for (int i = 0; i < Math.max(1, workers); i++) {
+            lanes.add(new LinkedBlockingQueue<>());
+        }
+
+        this.dispatchedCounter = Counter.builder("notification.pipeline.records")
+                .tag("stage", "dispatched")
+                .description("Records handed to the notification pipeline")
+                .register(meterRegistry);
+        this.completedCounter = Counter.builder("notification.pipeline.records")
+                .tag("stage", "completed")
+                .description("Records fully processed by the notification pipeline")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("notification.pipeline.records")
+                .tag("stage", "failed")
+                .description("Failed records handed to the retry topics or the DLQ")
+                .register(meterRegistry);
+        this.retriedCounter = Counter.builder("notification.pipeline.records")
+                .tag("stage", "retried")
+                .description("Failed records redelivered by the pipeline itself")
+                .register(meterRegistry);
+        this.pauseCounter = Counter.builder("notification.pipeline.pauses")
+                .description("Times the listener containers were paused for backpressure")
+                .register(meterRegistry);
+        this.queueTimer = Timer.builder("notification.pipeline.stage")
+                .tag("stage", "queue")
+                .description("Time a record waits in its lane before processing")
+                .register(meterRegistry);
+        this.processTimer = Timer.builder("notification.pipeline.stage")
+                .tag("stage", "process")
+                .description("Time to process one lane batch")
+                .register(meterRegistry);
+        Gauge.builder("notification.pipeline.in_flight", inFlight, AtomicInteger::get)
+                .description("Records dispatched and not yet completed")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Hands one poll's records to the lanes. Must be called on the consumer thread, in offset order.
+     *
+     * @param listenerId the {@code @KafkaListener} id, paused when the pipeline is full
+     * @param keyOf      ordering key of a record value (records with a null value use lane 0)
+     */
+    public <V> void dispatch(String listenerId, List<ConsumerRecord<String, V>> records,
+                             Function<V, String> keyOf, BatchHandler<V> handler) {
+        listenerIds.add(listenerId);
+        long now = System.nanoTime();
+        for (ConsumerRecord<String, V> record : records) {
+            PartitionOffsetTracker.Partition partition = offsets.register(
+                    new TopicPartition(record.topic(), record.partition()), record.offset());
+            String key = record.value() != null ? keyOf.apply(record.value()) : null;
+            lanes.get(laneOf(key)).add(new Work(record, key, handler, partition, now));
+        }
+        dispatchedCounter.increment(records.size());
+        if (inFlight.addAndGet(records.size()) >= capacity && paused.compareAndSet(false, true)) {
+            log.warn("Notification pipeline full ({} in flight), pausing listeners {}", inFlight.get(), listenerIds);
+            pauseCounter.increment();
+            listenerIds.forEach(id -> withContainer(id, MessageListenerContainer::pause));
+        }
+    }
+
+    /**
+     * Commits the offsets of every completed contiguous run of records in the consumer's
+     * partitions. Must be called on the consumer thread.
+     */
+    public void commitCompleted(Consumer<?, ?> consumer) {
+        Map<TopicPartition, OffsetAndMetadata> ready = offsets.readyToCommit(consumer.assignment());
+        if (ready.isEmpty()) {
+            return;
+        }
+        try {
+            consumer.commitSync(ready);
+            offsets.markCommitted(ready);
+        } catch (Exception e) {
+            // Retried at the next poll or idle event
+            log.warn("Failed to commit {} partitions: {}", ready.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * Commits completed offsets while the listener is idle, e.g. when it is paused.
+     */
+    @EventListener
+    public void onIdle(ListenerContainerIdleEvent event) {
+        if (event.getConsumer() != null) {
+            commitCompleted(event.getConsumer());
+        }
+    }
+
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        // Keep whatever completed; in-flight records are redelivered to the new owner
+        commitCompleted(consumer);
+        offsets.forget(partitions);
+    }
+
+    @Override
+    public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        offsets.forget(partitions);
+    }
+
+    /**
+     * Number of records dispatched and not yet completed.
+     */
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        for (int i = 0; i < lanes.size(); i++) {
+            BlockingQueue<Work> lane = lanes.get(i);
+            Thread t = new Thread(() -> runLane(lane), "notification-lane-" + i);
+            t.setDaemon(true);
+            laneThreads.add(t);
+            t.start();
+        }
+        log.info("Notification pipeline started ({} lanes, capacity {}, lane batch {})",
+                lanes.size(), capacity, laneBatchSize);
+    }
+
+    /**
+     * Stops before the listener containers (higher phase): pauses them and lets queued
+     * records finish, so their offsets are committed when the containers close. All lanes share
+     * one {@code notifications.pipeline.shutdown-timeout-ms} deadline, which has to stay well
+     * inside the platform's termination grace period.
+     */
+    @Override
+    public void stop() {
+        // Stop taking new records, then let the lanes finish what they have
+        listenerIds.forEach(id -> withContainer(id, MessageListenerContainer::pause));
+        running = false;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shutdownTimeoutMs);
+        for (Thread t : laneThreads) {
+            long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMs <= 0) {
+                break;
+            }
+            try {
+                t.join(remainingMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        laneThreads.clear();
+        // Pending local retries stay uncommitted and are redelivered by Kafka after the restart
+        retryScheduler.shutdownNow();
+        log.info("Notification pipeline stopped; {} records left in flight", inFlight.get());
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return Integer.MAX_VALUE;
+    }
+
+    private void runLane(BlockingQueue<Work> lane) {
+        List<Work> batch = new ArrayList<>(laneBatchSize);
+        while (running || !lane.isEmpty()) {
+            try {
+                Work first = lane.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                lane.drainTo(batch, laneBatchSize - 1);
+                // Process consecutive runs of the same listener's records together
+                int start = 0;
+                for (int i = 1; i <= batch.size(); i++) {
+                    if (i == batch.size() || batch.get(i).handler() != batch.get(start).handler()) {
+                        for (List<Work> wave : waves(batch.subList(start, i))) {
+                            process(wave);
+                        }
+                        start = i;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                // process() accounts for its own failures; never let a lane die
+                log.error("Notification lane iteration failed: {}", e.getMessage(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Splits a run into waves holding at most one record per key, in order: the records of a
+     * batch are delivered concurrently, so a key's second record must wait for the next wave.
+     */
+    private static List<List<Work>> waves(List<Work> run) {
+        List<List<Work>> waves = new ArrayList<>();
+        Map<String, Integer> seen = new HashMap<>();
+        for (Work work : run) {
+            int wave = work.key() == null ? 0 : seen.merge(work.key(), 1, Integer::sum) - 1;
+            if (wave == waves.size()) {
+                waves.add(new ArrayList<>());
+            }
+            waves.get(wave).add(work);
+        }
+        return waves;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void process(List<Work> run) {
+        long now = System.nanoTime();
+        List<ConsumerRecord<String, Object>> records = new ArrayList<>(run.size());
+        for (Work work : run) {
+            queueTimer.record(now - work.enqueuedAt(), TimeUnit.NANOSECONDS);
+            records.add((ConsumerRecord<String, Object>) work.record());
+        }
+
+        BatchHandler handler = run.get(0).handler();
+        List<ConsumerRecord<String, Object>> failed;
+        Timer.Sample sample = Timer.start();
+        try {
+            failed = handler.process(records);
+        } catch (Exception e) {
+            log.error("Notification batch of {} records failed, retrying all of them", records.size(), e);
+            failed = records;
+        } finally {
+            sample.stop(processTimer);
+        }
+
+        Set<ConsumerRecord<?, ?>> notForwarded = retryLocally(run, failed);
+        notForwarded.addAll(handOff(failed.stream().filter(r -> !notForwarded.contains(r)).toList()));
+        int completed = 0;
+        for (Work work : run) {
+            if (!notForwarded.contains(work.record())) {
+                work.partition().complete(work.record().offset());
+                completed++;
+            }
+        }
+        completedCounter.increment(completed);
+        if (inFlight.addAndGet(-completed) <= capacity / 2 && paused.compareAndSet(true, false)) {
+            log.info("Notification pipeline drained ({} in flight), resuming listeners", inFlight.get());
+            listenerIds.forEach(id -> withContainer(id, MessageListenerContainer::resume));
+        }
+    }
+
+    /**
+     * Schedules failed records that still have a local retry left to go back into their lane
+     * after the retry delay. They are not completed meanwhile, so their offsets hold.
+     *
+     * @return the records that are retried locally
+     */
+    private Set<ConsumerRecord<?, ?>> retryLocally(List<Work> run, List<? extends ConsumerRecord<?, ?>> failed) {
+        Set<ConsumerRecord<?, ?>> scheduled = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (failed.isEmpty()) {
+            return scheduled;
+        }
+        Map<ConsumerRecord<?, ?>, Work> byRecord = new IdentityHashMap<>();
+        run.forEach(work -> byRecord.put(work.record(), work));
+        for (ConsumerRecord<?, ?> record : failed) {
+            Duration delay = retryRouter.localRetryDelay(record);
+            Work work = byRecord.get(record);
+            if (delay == null || work == null) {
+                continue;
+            }
+            scheduled.add(record);
+            ConsumerRecord<String, ?> next = RetryTopicRouter.nextAttempt(work.record(), delay);
+            try {
+                retryScheduler.schedule(() -> lanes.get(laneOf(work.key())).add(
+                        new Work(next, work.key(), work.handler(), work.partition(), System.nanoTime())),
+                        delay.toMillis(), TimeUnit.MILLISECONDS);
+                retriedCounter.increment();
+            } catch (RejectedExecutionException e) {
+                // Stopping: left uncommitted, so Kafka redelivers it after the restart
+                log.debug("Pipeline stopping, leaving record at offset {} to be redelivered", record.offset());
+            }
+        }
+        return scheduled;
+    }
+
+    /**
+     * Hands failed records to their next retry tier (or the DLQ), retrying until it succeeds or
+     * the pipeline stops: a record is only completed (and so committed) once it was handed off.
+     *
+     * @return the records that could not be forwarded before shutdown
+     */
+    private Set<ConsumerRecord<?, ?>> handOff(List<? extends ConsumerRecord<?, ?>> failed) {
+        Set<ConsumerRecord<?, ?>> notForwarded = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (ConsumerRecord<?, ?> record : failed) {
+            boolean forwarded = retryRouter.route(record);
+            while (!forwarded && running) {
+                log.warn("Retry topics and DLQ unavailable, retrying record at offset {} in {} ms", record.offset(), handOffRetryBackoffMs);
+                try {
+                    Thread.sleep(handOffRetryBackoffMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                forwarded = retryRouter.route(record);
+            }
+            if (forwarded) {
+                failedCounter.increment();
+            } else {
+                notForwarded.add(record);
+            }
+        }
+        return notForwarded;
+    }
+
+    private int laneOf(String key) {
+        return key == null ? 0 : Math.floorMod(key.hashCode(), lanes.size());
+    }
+
+    private void withContainer(String listenerId, java.util.function.Consumer<MessageListenerContainer> action) {
+        MessageListenerContainer container = listenerRegistry.getListenerContainer(listenerId);
+        if (container != null) {
+            action.accept(container);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.khetisetu.event.notifications.consumer;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks records handed off for asynchronous processing, per partition, and works out which
+ * offset can safely be committed when they complete out of order: the commit position is the
+ * lowest offset still in flight, or one past the highest dispatched offset once all are done.
+ *
+ * <p>Records are registered on the consumer thread in offset order; completions may arrive
+ * from any thread. Each registration returns the {@link Partition} it belongs to, so a
+ * completion that arrives after the partition was revoked (and maybe reassigned) is ignored
+ * instead of moving the new owner's position.</p>
+ */
+public class PartitionOffsetTracker {
+
+    private final Map<TopicPartition, Partition> partitions = new ConcurrentHashMap<>();
+
+    /**
+     * In-flight offsets of one partition for one assignment; guarded by itself.
+     */
+    public static final class Partition {
+
+        private final TreeSet<Long> inFlight = new TreeSet<>();
+        private long nextOffset = -1;
+        private long committed = -1;
+
+        /**
+         * Marks a record as fully processed.
+         */
+        public synchronized void complete(long offset) {
+            inFlight.remove(offset);
+        }
+
+        private synchronized void register(long offset) {
+            inFlight.add(offset);
+            nextOffset = Math.max(nextOffset, offset + 1);
+        }
+
+        private synchronized long commitPosition() {
+            return inFlight.isEmpty() ? nextOffset : inFlight.first();
+        }
+
+        private synchronized int size() {
+            return inFlight.size();
+        }
+    }
+
+    /**
+     * Registers a dispatched record and returns the partition handle to complete it on.
+     */
+    public Partition register(TopicPartition topicPartition, long offset) {
+        Partition partition = partitions.computeIfAbsent(topicPartition, tp -> new Partition());
+        partition.register(offset);
+        return partition;
+    }
+
+    /**
+     * Offsets that can be committed for the given partitions and have not been committed yet.
+     */
+    public Map<TopicPartition, OffsetAndMetadata> readyToCommit(Collection<TopicPartition> assigned) {
+        Map<TopicPartition, OffsetAndMetadata> ready = new HashMap<>();
+        for (TopicPartition topicPartition : assigned) {
+            Partition partition = partitions.get(topicPartition);
+            if (partition == null) {
+                continue;
+            }
+            long position = partition.commitPosition();
+            synchronized (partition) {
+                if (position > partition.committed) {
+                    ready.put(topicPartition, new OffsetAndMetadata(position));
+                }
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * Records that the given offsets were committed successfully.
+     */
+    public void markCommitted(Map<TopicPartition, OffsetAndMetadata> offsets) {
+        offsets.forEach((topicPartition, offset) -> {
+            Partition partition = partitions.get(topicPartition);
+            if (partition != null) {
+                synchronized (partition) {
+                    partition.committed = Math.max(partition.committed, offset.offset());
+                }
+            }
+        });
+    }
+
+    /**
+     * Drops the state of revoked partitions; later completions for them are ignored.
+     */
+    public void forget(Collection<TopicPartition> revoked) {
+        revoked.forEach(partitions::remove);
+    }
+
+    /**
+     * Number of records dispatched but not completed, across all partitions.
+     */
+    public int inFlight() {
+        return partitions.values().stream().mapToInt(Partition::size).sum();
+    }
+}
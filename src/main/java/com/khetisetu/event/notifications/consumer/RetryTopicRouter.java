@@ -0,0 +1,226 @@
+package com.khetisetu.event.notifications.consumer;
+
+import com.khetisetu.event.notifications.dto.NotificationEvent;
+import com.khetisetu.event.notifications.dto.NotificationRequestEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking retries for notifications whose delivery failed.
+ *
+ * <p>Instead of sleeping on a worker thread, a failed record is republished to the retry topic
+ * of its next tier (e.g. {@code notifications.retry.tiers=5s,30s,5m} gives
+ * {@code notification-requests-retry-5s}, {@code -30s} and {@code -5m}) with the attempt number
+ * and the time it becomes due in headers. Once every tier is used up the record is handed to
+ * {@code notification-dlq}. If a retry topic cannot be written to, the record also goes to the
+ * DLQ, so failures are never dropped.</p>
+ *
+ * <p>Each tier is a topic of its own, which the current Kafka plan (capped at 5 topics) has no
+ * room for, so tiers are opt-in. With none configured (the default) the
+ * {@link NotificationPipeline} retries a failed record itself: it is redelivered after each
+ * delay of {@code notifications.retry.local-delays} in turn ({@link #localRetryDelay}), carrying
+ * the same attempt and due-at headers, and only then dead-lettered. Those retries live in
+ * memory, but the record's offset is not committed until they are over, so a restart redelivers
+ * it from Kafka.</p>
+ *
+ * <p>Retry topics are consumed like the main topics; {@link #releaseDue} holds back records that
+ * are not due yet by seeking back and pausing just that partition until they are, so healthy
+ * traffic on the main topics keeps flowing at full speed while a provider is degraded.</p>
+ */
+@Component
+@Slf4j
+public class RetryTopicRouter {
+
+    public static final String ATTEMPT_HEADER = "notification-retry-attempt";
+    public static final String DUE_AT_HEADER = "notification-retry-due-at";
+    public static final String TOPIC_PREFIX = "notification-requests-retry-";
+
+    private final KafkaTemplate<String, Object> kafkaTemplate;
+    private final DlqHandler dlqHandler;
+    private final KafkaListenerEndpointRegistry listenerRegistry;
+    private final MeterRegistry meterRegistry;
+    private final List<String> tierNames;
+    private final List<Duration> tierDelays;
+    private final List<Duration> localDelays;
+    private final long sendTimeoutMs;
+
+    private final ScheduledExecutorService resumer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "notification-retry-resumer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public RetryTopicRouter(KafkaTemplate<String, Object> kafkaTemplate,
+                            DlqHandler dlqHandler,
+                            KafkaListenerEndpointRegistry listenerRegistry,
+                            MeterRegistry meterRegistry,
+                            @Value("${notifications.retry.tiers:}") String tiers,
+                            @Value("${notifications.retry.local-delays:5s,30s,2m}") String localDelays,
+                            @Value("${notifications.retry.send-timeout-ms:10000}") long sendTimeoutMs) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.dlqHandler = dlqHandler;
+        this.listenerRegistry = listenerRegistry;
+        this.meterRegistry = meterRegistry;
+        this.tierNames = split(tiers);
+        this.tierDelays = tierNames.stream().map(DurationStyle::detectAndParse).toList();
+        this.localDelays = split(localDelays).stream().map(DurationStyle::detectAndParse).toList();
+        this.sendTimeoutMs = sendTimeoutMs;
+    }
+
+    /**
+     * Retry topic names, one per tier, in order.
+     */
+    public List<String> topics() {
+        return tierNames.stream().map(name -> TOPIC_PREFIX + name).toList();
+    }
+
+    /**
+     * Number of delivery attempts already made for a record: 0 for records from the main topics.
+     */
+    public static int attemptOf(ConsumerRecord<?, ?> record) {
+        Header header = record.headers().lastHeader(ATTEMPT_HEADER);
+        return header != null && header.value().length == Integer.BYTES ? ByteBuffer.wrap(header.value()).getInt() : 0;
+    }
+
+    /**
+     * How long to wait before the pipeline redelivers a failed record itself, or null if it is
+     * to be {@link #route routed} instead: local retries are only used without retry tiers, and
+     * only as many times as {@code notifications.retry.local-delays} has delays.
+     */
+    public Duration localRetryDelay(ConsumerRecord<?, ?> record) {
+        int attempt = attemptOf(record);
+        return tierNames.isEmpty() && attempt < localDelays.size() ? localDelays.get(attempt) : null;
+    }
+
+    /**
+     * Copy of a failed record for its next local attempt, with the attempt and due-at headers
+     * updated as {@link #route} would for a retry topic.
+     */
+    public static <K, V> ConsumerRecord<K, V> nextAttempt(ConsumerRecord<K, V> record, Duration delay) {
+        RecordHeaders headers = new RecordHeaders();
+        for (Header header : record.headers()) {
+            if (!ATTEMPT_HEADER.equals(header.key()) && !DUE_AT_HEADER.equals(header.key())) {
+                headers.add(header);
+            }
+        }
+        long dueAt = System.currentTimeMillis() + delay.toMillis();
+        headers.add(ATTEMPT_HEADER, ByteBuffer.allocate(Integer.BYTES).putInt(attemptOf(record) + 1).array());
+        headers.add(DUE_AT_HEADER, ByteBuffer.allocate(Long.BYTES).putLong(dueAt).array());
+        return new ConsumerRecord<>(record.topic(), record.partition(), record.offset(), record.timestamp(),
+                record.timestampType(), record.serializedKeySize(), record.serializedValueSize(),
+                record.key(), record.value(), headers, record.leaderEpoch());
+    }
+
+    /**
+     * Sends a failed record to its next retry tier, or to the DLQ once all tiers are used up.
+     *
+     * @return true once the record is safely handed off and its offset may be committed
+     */
+    public boolean route(ConsumerRecord<?, ?> record) {
+        int attempt = attemptOf(record) + 1;
+        if (attempt > tierNames.size()) {
+            meterRegistry.counter("notification.retry", "tier", "dlq").increment();
+            log.warn("Record at {}-{}@{} failed after {} attempts, dead-lettering",
+                    record.topic(), record.partition(), record.offset(), attempt);
+            return dlqHandler.forward(record);
+        }
+
+        String tier = tierNames.get(attempt - 1);
+        Object value = record.value() instanceof NotificationEvent event
+                // Direct events are retried as requests so every tier is consumed the same way
+                ? NotificationRequestEvent.fromDirect(event, UUID.randomUUID().toString())
+                : record.value();
+        long dueAt = System.currentTimeMillis() + tierDelays.get(attempt - 1).toMillis();
+        ProducerRecord<String, Object> retry = new ProducerRecord<>(TOPIC_PREFIX + tier, null,
+                record.key() instanceof String key ? key : null, value);
+        retry.headers().add(ATTEMPT_HEADER, ByteBuffer.allocate(Integer.BYTES).putInt(attempt).array());
+        retry.headers().add(DUE_AT_HEADER, ByteBuffer.allocate(Long.BYTES).putLong(dueAt).array());
+        try {
+            kafkaTemplate.send(retry).get(sendTimeoutMs, TimeUnit.MILLISECONDS);
+            meterRegistry.counter("notification.retry", "tier", tier).increment();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return dlqHandler.forward(record);
+        } catch (Exception e) {
+            log.error("Failed to publish retry {} to {}, dead-lettering instead: {}",
+                    attempt, retry.topic(), e.getMessage());
+            meterRegistry.counter("notification.retry", "tier", "dlq").increment();
+            return dlqHandler.forward(record);
+        }
+    }
+
+    /**
+     * Returns the records of a retry-topic poll that are due now. For each partition with a record
+     * that is not due yet, the consumer is rewound to that record and the partition is paused
+     * until it is due; the rest of the partition is not due either, as tiers have a fixed delay.
+     * Must be called on the consumer thread.
+     */
+    public <V> List<ConsumerRecord<String, V>> releaseDue(String listenerId, List<ConsumerRecord<String, V>> records,
+                                                          Consumer<?, ?> consumer) {
+        long now = System.currentTimeMillis();
+        List<ConsumerRecord<String, V>> due = new ArrayList<>(records.size());
+        Set<TopicPartition> held = new HashSet<>();
+        for (ConsumerRecord<String, V> record : records) {
+            TopicPartition tp = new TopicPartition(record.topic(), record.partition());
+            if (held.contains(tp)) {
+                continue;
+            }
+            long dueAt = dueAtOf(record);
+            if (dueAt <= now) {
+                due.add(record);
+                continue;
+            }
+            held.add(tp);
+            consumer.seek(tp, record.offset());
+            MessageListenerContainer container = listenerRegistry.getListenerContainer(listenerId);
+            if (container != null) {
+                container.pausePartition(tp);
+                resumer.schedule(() -> container.resumePartition(tp), dueAt - now, TimeUnit.MILLISECONDS);
+            }
+        }
+        return due;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        resumer.shutdownNow();
+    }
+
+    private static List<String> split(String spec) {
+        return Arrays.stream(spec.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .toList();
+    }
+
+    private static long dueAtOf(ConsumerRecord<?, ?> record) {
+        Header header = record.headers().lastHeader(DUE_AT_HEADER);
+        return header != null && header.value().length == Long.BYTES ? ByteBuffer.wrap(header.value()).getLong() : 0L;
+    }
+}
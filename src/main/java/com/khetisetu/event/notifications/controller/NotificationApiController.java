@@ -1,5 +1,6 @@
 package com.khetisetu.event.notifications.controller;
 
+import com.khetisetu.event.notifications.dto.CursorPage;
 import com.khetisetu.event.notifications.model.Notification;
 import com.khetisetu.event.notifications.service.NotificationQueryService;
 import lombok.RequiredArgsConstructor;
@@ -26,10 +27,13 @@ import java.util.Map;
 @Slf4j
 public class NotificationApiController {
 
+    private static final int MAX_SCROLL_SIZE = 100;
+
     private final NotificationQueryService queryService;
 
     /**
      * Gets paginated notifications for a user, sorted by creation date (newest first).
+     * Content and metadata are left out; fetch a single notification for its full body.
      *
      * @param userId the user ID
      * @param type   optional notification type filter (EMAIL, PUSH, SMS)
@@ -51,7 +55,34 @@ public class NotificationApiController {
     }
 
     /**
-     * Gets unread notifications for a user.
+     * Cursor-paginated variant of {@link #getUserNotifications}: pass the {@code nextCursor} of
+     * the previous response to get the next page. Deep pages cost the same as the first one.
+     *
+     * @param cursor          continuation token, omitted for the first page
+     * @param includeTotal    whether to count the exact total, on every page
+     * @param includeEstimate whether to return a cheap estimate of the total, on the first page
+     */
+    @GetMapping("/user/{userId}/scroll")
+    public ResponseEntity<CursorPage<Notification>> scrollUserNotifications(
+            @PathVariable String userId,
+            @RequestParam(required = false) String type,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size,
+            @RequestParam(defaultValue = "false") boolean includeTotal,
+            @RequestParam(defaultValue = "false") boolean includeEstimate) {
+
+        int safeSize = Math.min(Math.max(size, 1), MAX_SCROLL_SIZE);
+        try {
+            return ResponseEntity.ok(queryService.scrollUserNotifications(
+                    userId, type, cursor, safeSize, includeTotal, includeEstimate));
+        } catch (IllegalArgumentException e) {
+            log.debug("Rejected notification scroll for user {}: {}", userId, e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Gets unread notifications for a user, without content and metadata.
      */
     @GetMapping("/user/{userId}/unread")
     public ResponseEntity<List<Notification>> getUnreadNotifications(@PathVariable String userId) {
@@ -67,6 +98,14 @@ public class NotificationApiController {
         return ResponseEntity.ok(Map.of("count", count));
     }
 
+    /**
+     * Gets a single notification, including its content and metadata.
+     */
+    @GetMapping("/{notificationId}")
+    public ResponseEntity<Notification> getNotification(@PathVariable String notificationId) {
+        return ResponseEntity.of(queryService.getNotification(notificationId));
+    }
+
     /**
      * Marks a single notification as read.
      */
@@ -76,11 +115,12 @@ public class NotificationApiController {
     }
 
     /**
-     * Marks all notifications as read for a user.
+     * Marks all notifications as read for a user and returns how many were updated.
      */
     @PatchMapping("/user/{userId}/read-all")
-    public ResponseEntity<Map<String, String>> markAllAsRead(@PathVariable String userId) {
-        queryService.markAllAsRead(userId);
-        return ResponseEntity.ok(Map.of("status", "OK", "message", "All notifications marked as read"));
+    public ResponseEntity<Map<String, Object>> markAllAsRead(@PathVariable String userId) {
+        long updated = queryService.markAllAsRead(userId);
+        return ResponseEntity.ok(Map.of("status", "OK", "message", "All notifications marked as read",
+                "updated", updated));
     }
 }
@@ -1,8 +1,10 @@
 package com.khetisetu.event.notifications.controller;
 
 import com.khetisetu.event.notifications.repository.NotificationRepository;
+import com.khetisetu.event.notifications.service.NotificationTemplateRegistry;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -16,9 +18,12 @@ import java.util.Map;
 public class UtilsController {
 
     private final NotificationRepository notificationRepository;
+    private final NotificationTemplateRegistry templateRegistry;
 
-    public UtilsController(NotificationRepository notificationRepository) {
+    public UtilsController(NotificationRepository notificationRepository,
+                           NotificationTemplateRegistry templateRegistry) {
         this.notificationRepository = notificationRepository;
+        this.templateRegistry = templateRegistry;
     }
 
     @GetMapping("/hero")
@@ -46,5 +51,12 @@ public class UtilsController {
         }
     }
 
-
-}
\ No newline at end of file
+    /**
+     * Reloads notification template definitions and pre-parses every email template,
+     * e.g. right after a deploy before traffic is routed to this instance.
+     */
+    @PostMapping("/templates/warmup")
+    public ResponseEntity<NotificationTemplateRegistry.WarmupResult> warmupTemplates() {
+        return ResponseEntity.ok(templateRegistry.warmup());
+    }
+}
@@ -0,0 +1,44 @@
+package com.khetisetu.event.notifications.dto;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * One page of a keyset-paginated listing, newest first.
+ *
+ * <p>Pages are ordered by (time, id) descending and {@code nextCursor} is an opaque token for the
+ * position after the last element, so each page costs the same however deep it is. Counting is
+ * opt-in: {@code total} is only set when an exact count was asked for, {@code estimatedTotal}
+ * only on a first page that asked for an estimate (a capped count, or the collection size when
+ * unfiltered). Both are null otherwise.</p>
+ *
+ * @param nextCursor token for the next page, null on the last page
+ */
+public record CursorPage<T>(List<T> content, String nextCursor, boolean hasNext, Long total, Long estimatedTotal) {
+
+    /**
+     * Position of the last element of a page: its sort time and id.
+     */
+    public record Position(Instant time, String id) {
+
+        public String encode() {
+            String raw = time.toEpochMilli() + ":" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * @throws IllegalArgumentException if the token was not produced by {@link #encode()}
+         */
+        public static Position decode(String cursor) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int sep = raw.indexOf(':');
+                return new Position(Instant.ofEpochMilli(Long.parseLong(raw.substring(0, sep))), raw.substring(sep + 1));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+            }
+        }
+    }
+}
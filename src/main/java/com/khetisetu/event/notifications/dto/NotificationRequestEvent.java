@@ -4,6 +4,7 @@ package com.khetisetu.event.notifications.dto;
 import com.khetisetu.event.notifications.model.EmailSenderConfig;
 import lombok.Builder;
 
+import java.time.Instant;
 import java.util.Map;
 
 @Builder
@@ -19,5 +20,24 @@ public record NotificationRequestEvent(
                 String triggerId, // optional: for rule-based
                 Map<String, Object> metadata,
                 boolean sendPush,
-                boolean sendEmail) {
+                boolean sendEmail,
+                Instant deliverAt) { // optional: hold delivery until then
+
+    /**
+     * Converts a direct {@link NotificationEvent}, which carries no eventId of its own.
+     */
+    public static NotificationRequestEvent fromDirect(NotificationEvent event, String eventId) {
+        return NotificationRequestEvent.builder()
+                .eventId(eventId)
+                .userId(event.recipient())
+                .recipient(event.recipient())
+                .type(event.type())
+                .templateName(event.templateName())
+                .params(event.params())
+                .language(event.language())
+                .senderConfig(event.senderConfig())
+                .triggerId(null)
+                .metadata(Map.of("source", "direct"))
+                .build();
+    }
 }
\ No newline at end of file
@@ -18,6 +18,7 @@ public class Notification extends BaseModel {
     private String content;
     private String status; // PENDING, SENT, FAILED, SKIPPED
     private String errorMessage;
+    private String providerMessageId; // message id returned by the email provider, if any
     private String templateName;
     private int retryCount;
     private boolean isRead;
@@ -3,10 +3,15 @@ package com.khetisetu.event.notifications.model;
 
 import lombok.Data;
 
+import java.util.List;
+
 @Data
 public class NotificationTemplate {
     private String name;
     private String type;      // EMAIL, PUSH, SMS
     private String subject;
     private String content;
+    // EMAIL only: params that differ per recipient (e.g. email, notificationId). They are
+    // rendered as markers and filled in after rendering, so broadcasts render the body once.
+    private List<String> perRecipientParams;
 }
\ No newline at end of file
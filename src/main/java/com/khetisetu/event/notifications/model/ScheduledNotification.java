@@ -0,0 +1,22 @@
+package com.khetisetu.event.notifications.model;
+
+import com.khetisetu.event.notifications.dto.NotificationRequestEvent;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * A notification request held back until {@code dueAt}, either because the producer set
+ * {@code deliverAt} or because it arrived during the quiet hours of its template.
+ * The id is the request's eventId, so a redelivered request is only scheduled once.
+ */
+@EqualsAndHashCode(callSuper = true)
+@Data
+@Document(collection = "scheduled_notifications")
+public class ScheduledNotification extends BaseModel {
+    private Instant dueAt;
+    private String reason; // DELIVER_AT, QUIET_HOURS
+    private NotificationRequestEvent event;
+}
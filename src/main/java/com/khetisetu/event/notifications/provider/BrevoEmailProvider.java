@@ -2,12 +2,18 @@ package com.khetisetu.event.notifications.provider;
 
 import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
 import okhttp3.*;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.TimeUnit;
 
 @Component
@@ -18,8 +24,12 @@ public class BrevoEmailProvider implements EmailSender {
         @Value("${brevo.apikey}")
         private String API_KEY;
 
-        private static final String BASE_URL = "https://api.brevo.com/v3";
         private static final String BREVO_CB = "brevoService";
+        /** Brevo accepts up to 1000 messageVersions per transactional request. */
+        private static final int MAX_MESSAGE_VERSIONS = 1000;
+
+        @Value("${brevo.base-url:https://api.brevo.com/v3}")
+        private String baseUrl = "https://api.brevo.com/v3";
 
         private final OkHttpClient client = new OkHttpClient.Builder()
                         .connectTimeout(10, TimeUnit.SECONDS)
@@ -36,7 +46,19 @@ public class BrevoEmailProvider implements EmailSender {
         @CircuitBreaker(name = BREVO_CB, fallbackMethod = "fallbackSendEmail")
         public void sendEmail(String fromEmail, String fromName, String toEmail, String subject, String htmlBody) {
                 try {
-                        sendTransactionalEmail(fromEmail, fromName, toEmail, subject, htmlBody);
+                        sendTransactionalEmail(fromEmail, fromName, toEmail, subject, htmlBody, stripHtml(htmlBody));
+                } catch (Exception e) {
+                        throw new RuntimeException("Failed to send email via Brevo", e);
+                }
+        }
+
+        @Override
+        @CircuitBreaker(name = BREVO_CB, fallbackMethod = "fallbackSendEmail")
+        public void sendEmail(String fromEmail, String fromName, String toEmail, String subject, String htmlBody,
+                        String textBody) {
+                try {
+                        sendTransactionalEmail(fromEmail, fromName, toEmail, subject, htmlBody,
+                                        textBody != null ? textBody : stripHtml(htmlBody));
                 } catch (Exception e) {
                         throw new RuntimeException("Failed to send email via Brevo", e);
                 }
@@ -50,11 +72,114 @@ public class BrevoEmailProvider implements EmailSender {
                 throw new RuntimeException("Brevo unavailable (Circuit Breaker): " + t.getMessage(), t);
         }
 
+        public void fallbackSendEmail(String fromEmail, String fromName, String toEmail, String subject,
+                        String htmlBody, String textBody, Throwable t) {
+                fallbackSendEmail(fromEmail, fromName, toEmail, subject, htmlBody, t);
+        }
+
+        /**
+         * Sends up to 1000 emails in one {@code /smtp/email} request using {@code messageVersions}:
+         * the first email's subject and bodies are the shared defaults, and each version only
+         * carries the fields that differ. Message ids are mapped back by position. If Brevo
+         * rejects the request as invalid, the emails are resent one by one so that a single bad
+         * address does not fail the rest of the batch.
+         */
+        @Override
+        @CircuitBreaker(name = BREVO_CB, fallbackMethod = "fallbackSendBatch")
+        public List<SendResult> sendBatch(String fromEmail, String fromName, List<OutgoingEmail> emails) {
+                if (emails.size() > MAX_MESSAGE_VERSIONS) {
+                        throw new IllegalArgumentException("At most " + MAX_MESSAGE_VERSIONS + " emails per batch");
+                }
+                OutgoingEmail first = emails.get(0);
+                String firstText = first.textBody() != null ? first.textBody() : stripHtml(first.htmlBody());
+                JSONArray versions = new JSONArray();
+                for (OutgoingEmail email : emails) {
+                        JSONObject version = new JSONObject()
+                                        .put("to", new JSONArray().put(new JSONObject().put("email", email.toEmail())));
+                        if (!Objects.equals(email.subject(), first.subject())) {
+                                version.put("subject", email.subject());
+                        }
+                        if (!Objects.equals(email.htmlBody(), first.htmlBody())) {
+                                version.put("htmlContent", email.htmlBody());
+                                version.put("textContent", email.textBody() != null ? email.textBody() : stripHtml(email.htmlBody()));
+                        }
+                        versions.put(version);
+                }
+
+                JSONObject payload = new JSONObject()
+                                .put("sender", new JSONObject().put("name", fromName).put("email", fromEmail))
+                                .put("subject", first.subject())
+                                .put("htmlContent", first.htmlBody())
+                                .put("textContent", firstText)
+                                .put("messageVersions", versions);
+
+                try (Response response = client.newCall(transactionalRequest(payload)).execute()) {
+                        String responseBody = response.body() != null ? response.body().string() : "";
+                        if (response.code() == 400 && emails.size() > 1) {
+                                logger.warn("Brevo rejected batch of {} emails ({}), sending individually",
+                                                emails.size(), responseBody);
+                                return sendIndividually(fromEmail, fromName, emails);
+                        }
+                        if (!response.isSuccessful()) {
+                                logger.error("Brevo batch email failed: {}", responseBody);
+                                throw new RuntimeException("Brevo API error: " + responseBody);
+                        }
+
+                        JSONArray messageIds = responseBody.isEmpty() ? null
+                                        : new JSONObject(responseBody).optJSONArray("messageIds");
+                        List<SendResult> results = new ArrayList<>(emails.size());
+                        for (int i = 0; i < emails.size(); i++) {
+                                results.add(SendResult.sent(messageIds != null && i < messageIds.length()
+                                                ? messageIds.optString(i, null) : null));
+                        }
+                        logger.info("Transactional batch of {} emails sent successfully", emails.size());
+                        return results;
+                } catch (IOException e) {
+                        throw new UncheckedIOException("Failed to send email batch via Brevo", e);
+                }
+        }
+
+        public List<SendResult> fallbackSendBatch(String fromEmail, String fromName, List<OutgoingEmail> emails,
+                        Throwable t) {
+                logger.error("Fallback: circuit breaker open or error for Brevo batch of {}. Reason: {}",
+                                emails.size(), t.getMessage());
+                throw new RuntimeException("Brevo unavailable (Circuit Breaker): " + t.getMessage(), t);
+        }
+
+        @Override
+        public int maxBatchSize() {
+                return MAX_MESSAGE_VERSIONS;
+        }
+
+        private List<SendResult> sendIndividually(String fromEmail, String fromName, List<OutgoingEmail> emails) {
+                List<SendResult> results = new ArrayList<>(emails.size());
+                for (OutgoingEmail email : emails) {
+                        try {
+                                sendTransactionalEmail(fromEmail, fromName, email.toEmail(), email.subject(),
+                                                email.htmlBody(),
+                                                email.textBody() != null ? email.textBody() : stripHtml(email.htmlBody()));
+                                results.add(SendResult.sent(null));
+                        } catch (Exception e) {
+                                results.add(SendResult.failed(e));
+                        }
+                }
+                return results;
+        }
+
+        private Request transactionalRequest(JSONObject payload) {
+                return new Request.Builder()
+                                .url(baseUrl + "/smtp/email")
+                                .addHeader("api-key", API_KEY)
+                                .addHeader("accept", "application/json")
+                                .post(RequestBody.create(payload.toString(), MediaType.parse("application/json")))
+                                .build();
+        }
+
         /**
          * Send a transactional email directly via HTTP
          */
         private void sendTransactionalEmail(String fromEmail, String fromName, String toEmail, String subject,
-                        String htmlBody) throws Exception {
+                        String htmlBody, String textBody) throws Exception {
                 JSONObject sender = new JSONObject()
                                 .put("name", fromName)
                                 .put("email", fromEmail);
@@ -67,18 +192,9 @@ public class BrevoEmailProvider implements EmailSender {
                                 .put("to", new org.json.JSONArray().put(to))
                                 .put("subject", subject)
                                 .put("htmlContent", htmlBody)
-                                .put("textContent", stripHtml(htmlBody));
-
-                RequestBody body = RequestBody.create(MediaType.parse("application/json"), payload.toString());
+                                .put("textContent", textBody);
 
-                Request request = new Request.Builder()
-                                .url(BASE_URL + "/smtp/email")
-                                .addHeader("api-key", API_KEY)
-                                .addHeader("accept", "application/json")
-                                .post(body)
-                                .build();
-
-                try (Response response = client.newCall(request).execute()) {
+                try (Response response = client.newCall(transactionalRequest(payload)).execute()) {
                         if (!response.isSuccessful()) {
                                 String error = response.body() != null ? response.body().string() : "unknown";
                                 logger.error("Brevo transactional email failed: {}", error);
@@ -114,10 +230,10 @@ public class BrevoEmailProvider implements EmailSender {
                                 .put("recipients", recipients)
                                 .put("scheduledAt", scheduleAt); // format: "YYYY-MM-DD HH:mm:ss"
 
-                RequestBody body = RequestBody.create(MediaType.parse("application/json"), payload.toString());
+                RequestBody body = RequestBody.create(payload.toString(), MediaType.parse("application/json"));
 
                 Request request = new Request.Builder()
-                                .url(BASE_URL + "/emailCampaigns")
+                                .url(baseUrl + "/emailCampaigns")
                                 .addHeader("api-key", API_KEY)
                                 .addHeader("accept", "application/json")
                                 .post(body)
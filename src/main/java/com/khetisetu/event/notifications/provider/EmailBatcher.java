@@ -0,0 +1,139 @@
+package com.khetisetu.event.notifications.provider;
+
+import com.khetisetu.event.notifications.provider.EmailSender.OutgoingEmail;
+import com.khetisetu.event.notifications.provider.EmailSender.SendResult;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects outgoing emails that share a sender and template for a short window and hands each
+ * group to {@link EmailSender#sendBatch} as one request, so a broadcast costs one HTTP call per
+ * {@link EmailSender#maxBatchSize()} recipients instead of one per recipient.
+ *
+ * <p>A group is sent when its window ends or as soon as it is full, whichever comes first.
+ * Sends run on a small pool of daemon threads; each email's future completes with its own
+ * {@link SendResult} and never completes exceptionally, also when submitted after
+ * {@link #close()}.</p>
+ */
+@Slf4j
+class EmailBatcher implements AutoCloseable {
+
+    /**
+     * Emails are only batched together when all of these match.
+     */
+    record Key(String fromEmail, String fromName, String templateName) {
+    }
+
+    private static final class Group {
+        final List<OutgoingEmail> emails = new ArrayList<>();
+        final List<CompletableFuture<SendResult>> results = new ArrayList<>();
+    }
+
+    private final EmailSender sender;
+    private final long windowMs;
+    private final int maxSize;
+    private final Map<Key, Group> open = new HashMap<>();
+    private final ScheduledExecutorService executor;
+    private boolean closed;
+
+    EmailBatcher(EmailSender sender, long windowMs, int maxSize, int threads) {
+        this.sender = sender;
+        this.windowMs = windowMs;
+        this.maxSize = Math.max(1, Math.min(maxSize, sender.maxBatchSize()));
+        AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newScheduledThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "email-batch-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Queues one email; the future completes once the batch it joined has been sent.
+     */
+    CompletableFuture<SendResult> submit(Key key, OutgoingEmail email) {
+        CompletableFuture<SendResult> result = new CompletableFuture<>();
+        Group full = null;
+        synchronized (open) {
+            if (closed) {
+                return CompletableFuture.completedFuture(
+                        SendResult.failed(new RejectedExecutionException("Email batcher is closed")));
+            }
+            Group group = open.get(key);
+            if (group == null) {
+                group = new Group();
+                open.put(key, group);
+                Group scheduled = group;
+                executor.schedule(() -> sendIfOpen(key, scheduled), windowMs, TimeUnit.MILLISECONDS);
+            }
+            group.emails.add(email);
+            group.results.add(result);
+            if (group.emails.size() >= maxSize) {
+                open.remove(key);
+                full = group;
+            }
+        }
+        if (full != null) {
+            Group batch = full;
+            try {
+                executor.execute(() -> send(key, batch));
+            } catch (RejectedExecutionException e) {
+                // Closed since the group filled up; nobody else will send it
+                send(key, batch);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        // Send whatever is still waiting for its window
+        List<Map.Entry<Key, Group>> remaining;
+        synchronized (open) {
+            closed = true;
+            remaining = new ArrayList<>(open.entrySet());
+            open.clear();
+        }
+        remaining.forEach(e -> send(e.getKey(), e.getValue()));
+        executor.shutdown();
+    }
+
+    private void sendIfOpen(Key key, Group group) {
+        synchronized (open) {
+            // Already sent because it filled up
+            if (!open.remove(key, group)) {
+                return;
+            }
+        }
+        send(key, group);
+    }
+
+    private void send(Key key, Group group) {
+        List<SendResult> results;
+        try {
+            results = sender.sendBatch(key.fromEmail(), key.fromName(), group.emails);
+            if (results.size() != group.emails.size()) {
+                throw new IllegalStateException("Expected " + group.emails.size() + " results, got " + results.size());
+            }
+            log.info("Sent batch of {} '{}' emails via {}", group.emails.size(), key.templateName(),
+                    sender.getProviderName());
+        } catch (Exception e) {
+            log.error("Batch of {} '{}' emails failed: {}", group.emails.size(), key.templateName(), e.getMessage());
+            results = Collections.nCopies(group.emails.size(), SendResult.failed(e));
+        }
+        for (int i = 0; i < results.size(); i++) {
+            group.results.get(i).complete(results.get(i));
+        }
+    }
+}
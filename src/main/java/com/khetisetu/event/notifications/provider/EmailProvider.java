@@ -1,27 +1,23 @@
 package com.khetisetu.event.notifications.provider;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.khetisetu.event.notifications.dto.NotificationRequestEvent;
 import com.khetisetu.event.notifications.model.EmailSenderConfig;
 import com.khetisetu.event.notifications.model.Notification;
+import com.khetisetu.event.notifications.service.CompiledTemplate;
+import com.khetisetu.event.notifications.service.EmailRenderCache;
 import com.khetisetu.event.notifications.service.GlobalRateLimiter;
+import com.khetisetu.event.notifications.service.NotificationTemplateRegistry;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.ClassPathResource;
 import org.springframework.stereotype.Component;
-import org.thymeleaf.TemplateEngine;
-import org.thymeleaf.context.Context;
 
-import java.time.Instant;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 
 @Component("EMAIL")
 @RequiredArgsConstructor
@@ -29,8 +25,8 @@ import java.util.concurrent.ConcurrentHashMap;
 public class EmailProvider implements NotificationProvider {
 
     private final List<EmailSender> emailSenders;
-    private final TemplateEngine templateEngine;
-    private final ObjectMapper objectMapper;
+    private final NotificationTemplateRegistry templateRegistry;
+    private final EmailRenderCache renderCache;
     private final GlobalRateLimiter globalRateLimiter;
 
     @Value("${email.enabled:true}")
@@ -42,13 +38,22 @@ public class EmailProvider implements NotificationProvider {
     @Value("${email.provider:BREVO}")
     private String activeProviderName;
 
-    private EmailSender activeSender;
+    @Value("${email.batch.enabled:true}")
+    private boolean batchEnabled = true;
+
+    @Value("${email.batch.window-ms:200}")
+    private long batchWindowMs = 200;
+
+    @Value("${email.batch.max-size:1000}")
+    private int batchMaxSize = 1000;
+
+    @Value("${email.batch.threads:2}")
+    private int batchThreads = 2;
 
-    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter
-            .ofPattern("dd MMM yyyy, hh:mm a")
-            .withZone(ZoneId.systemDefault());
+    private EmailSender activeSender;
 
-    private final Map<String, String> subjectsCache = new ConcurrentHashMap<>();
+    // Set when the active sender can send many emails per request
+    private EmailBatcher batcher;
 
     @PostConstruct
     public void init() {
@@ -68,6 +73,19 @@ public class EmailProvider implements NotificationProvider {
             log.info("EmailProvider initialized. Active Sender: {}. Daily Limit: {}", activeSender.getProviderName(),
                     dailyLimit);
         }
+
+        if (activeSender != null && batchEnabled && activeSender.maxBatchSize() > 1) {
+            this.batcher = new EmailBatcher(activeSender, batchWindowMs, batchMaxSize, batchThreads);
+            log.info("Email batching enabled: window {} ms, up to {} recipients per request", batchWindowMs,
+                    Math.min(batchMaxSize, activeSender.maxBatchSize()));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (batcher != null) {
+            batcher.close();
+        }
     }
 
     @Override
@@ -82,6 +100,66 @@ public class EmailProvider implements NotificationProvider {
 
     @Override
     public void send(NotificationRequestEvent event, Notification notification) throws Exception {
+        EmailSender.OutgoingEmail email = prepare(event, notification);
+
+        // 4. Send via Provider (Strategy)
+        try {
+            activeSender.sendEmail(
+                    event.senderConfig().getSenderEmail(),
+                    event.senderConfig().getSenderName(),
+                    email.toEmail(),
+                    email.subject(),
+                    email.htmlBody(),
+                    email.textBody());
+            log.info("Email sent successfully to {} via {}", event.recipient(), activeSender.getProviderName());
+        } catch (Exception e) {
+            log.error("Failed to send email to {}: {}", event.recipient(), e.getMessage(), e);
+            throw e;
+        }
+    }
+
+    /**
+     * Prepares every email like {@link #send} does, then queues them on the {@link EmailBatcher}
+     * so emails sharing a sender and template go out in as few requests as possible. Each
+     * recipient's outcome, and the provider's message id, is written to its own notification.
+     */
+    @Override
+    public CompletableFuture<List<Exception>> sendAllAsync(List<SendRequest> requests) {
+        if (batcher == null) {
+            return NotificationProvider.super.sendAllAsync(requests);
+        }
+
+        List<CompletableFuture<Exception>> outcomes = new ArrayList<>(requests.size());
+        for (SendRequest request : requests) {
+            NotificationRequestEvent event = request.event();
+            Notification notification = request.notification();
+            EmailSender.OutgoingEmail email;
+            try {
+                email = prepare(event, notification);
+            } catch (Exception e) {
+                outcomes.add(CompletableFuture.completedFuture(e));
+                continue;
+            }
+            EmailBatcher.Key key = new EmailBatcher.Key(event.senderConfig().getSenderEmail(),
+                    event.senderConfig().getSenderName(), event.templateName());
+            outcomes.add(batcher.submit(key, email).thenApply(result -> {
+                if (!result.isSent()) {
+                    log.error("Failed to send email to {}: {}", event.recipient(), result.failure().getMessage());
+                    return result.failure();
+                }
+                notification.setProviderMessageId(result.messageId());
+                return null;
+            }));
+        }
+        return CompletableFuture.allOf(outcomes.toArray(CompletableFuture[]::new))
+                .thenApply(v -> outcomes.stream().map(CompletableFuture::join).toList());
+    }
+
+    /**
+     * Checks limits and sender config, renders the email and stores subject and body on the
+     * notification record.
+     */
+    private EmailSender.OutgoingEmail prepare(NotificationRequestEvent event, Notification notification) {
         if (activeSender == null) {
             throw new IllegalStateException("No active EmailSender configured");
         }
@@ -100,11 +178,12 @@ public class EmailProvider implements NotificationProvider {
             throw new IllegalArgumentException("Email sender configuration is required");
         }
 
-        // 2. Render HTML template
-        String htmlContent = renderEmailTemplate(
+        // 2. Render HTML template (once per broadcast, see EmailRenderCache)
+        EmailRenderCache.RenderedEmail rendered = renderEmailTemplate(
                 event.templateName(),
                 event.params(),
                 event.language() != null ? event.language() : "en");
+        String htmlContent = rendered.html();
 
         // 3. Resolve Subject with Placeholders
         String subject = getResolvedSubject(event);
@@ -113,43 +192,17 @@ public class EmailProvider implements NotificationProvider {
         notification.setSubject(subject);
         notification.setContent(htmlContent);
 
-        // 4. Send via Provider (Strategy)
-        try {
-            activeSender.sendEmail(
-                    senderConfig.getSenderEmail(),
-                    senderConfig.getSenderName(),
-                    event.recipient(),
-                    subject,
-                    htmlContent);
-            log.info("Email sent successfully to {} via {}", event.recipient(), activeSender.getProviderName());
-        } catch (Exception e) {
-            log.error("Failed to send email to {}: {}", event.recipient(), e.getMessage(), e);
-            throw e;
-        }
+        return new EmailSender.OutgoingEmail(event.recipient(), subject, htmlContent, rendered.text());
     }
 
-    private String renderEmailTemplate(String templateName, Map<String, String> params, String language) {
+    private EmailRenderCache.RenderedEmail renderEmailTemplate(String templateName, Map<String, String> params,
+            String language) {
         try {
             // Template path: templates/{language}/{templateName}.html
-            String templatePath = language + "/" + templateName;
-
-            // Create ThymeLeaf context
-            Context context = new Context(Locale.forLanguageTag(language));
-
-            // Add all parameters
-            if (params != null) {
-                params.forEach(context::setVariable);
-            }
-
-            // Add common variables
-            context.setVariable("createdDate", DATE_FORMATTER.format(Instant.now()));
-            context.setVariable("year", java.time.Year.now().getValue());
-
-            // Render
-            String html = templateEngine.process(templatePath, context);
-            log.debug("Rendered template: {} with {} parameters", templatePath, params != null ? params.size() : 0);
-
-            return html;
+            EmailRenderCache.RenderedEmail rendered = renderCache.render(templateName, language, params);
+            log.debug("Rendered template: {}/{} with {} parameters", language, templateName,
+                    params != null ? params.size() : 0);
+            return rendered;
         } catch (Exception e) {
             log.error("Failed to render email template: {} for language: {}", templateName, language, e);
             throw new RuntimeException("Email template rendering failed: " + templateName, e);
@@ -157,58 +210,19 @@ public class EmailProvider implements NotificationProvider {
     }
 
     private String getResolvedSubject(NotificationRequestEvent event) {
-        // Get raw subject pattern
-        String rawSubject = getRawSubject(event);
-
-        // Replace placeholders {{param}}
-        if (event.params() == null || event.params().isEmpty()) {
-            return rawSubject;
-        }
-
-        String result = rawSubject;
-        for (Map.Entry<String, String> entry : event.params().entrySet()) {
-            if (entry.getValue() != null) {
-                result = result.replace("{{" + entry.getKey() + "}}", entry.getValue());
-            }
-        }
-        return result;
-    }
-
-    private String getRawSubject(NotificationRequestEvent event) {
-        // 1. Priority: Params
+        // 1. Priority: Params (ad-hoc subject, compiled on the fly)
         if (event.params() != null && event.params().containsKey("subject")) {
-            return event.params().get("subject");
+            return CompiledTemplate.compile(event.params().get("subject")).render(event.params());
         }
 
-        // 2. Secondary: Load from notification_templates.json
-        String templateName = event.templateName();
+        // 2. Secondary: notification_templates.json (preloaded and compiled by the registry)
         String language = (event.language() != null && !event.language().isEmpty()) ? event.language() : "en";
-        String cacheKey = language + "_" + templateName;
-
-        if (subjectsCache.containsKey(cacheKey)) {
-            return subjectsCache.get(cacheKey);
-        }
-
-        try {
-            String path = "templates/" + language + "/notification_templates.json";
-            ClassPathResource resource = new ClassPathResource(path);
-            if (resource.exists()) {
-                JsonNode root = objectMapper.readTree(resource.getInputStream());
-                if (root.isArray()) {
-                    for (JsonNode node : root) {
-                        if (node.has("name") && node.get("name").asText().equals(templateName)) {
-                            String subject = node.get("subject").asText();
-                            subjectsCache.put(cacheKey, subject);
-                            return subject;
-                        }
-                    }
-                }
-            }
-        } catch (Exception e) {
-            log.warn("Failed to load subject from JSON mapping for {} (lang: {})", templateName, language);
+        NotificationTemplateRegistry.Entry template = templateRegistry.find(event.templateName(), language);
+        if (template != null && template.definition().getSubject() != null) {
+            return template.subject().render(event.params());
         }
 
         // 3. Fallback: Pretty print template name
-        return "Kheti Setu: " + templateName.replace("_", " ");
+        return "Kheti Setu: " + event.templateName().replace("_", " ");
     }
 }
@@ -1,7 +1,69 @@
 package com.khetisetu.event.notifications.provider;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public interface EmailSender {
     void sendEmail(String fromEmail, String fromName, String toEmail, String subject, String htmlBody);
 
+    /**
+     * Sends an email with a precomputed plain-text alternative. Senders that build their own
+     * text body (or send HTML only) can rely on the default, which ignores it.
+     */
+    default void sendEmail(String fromEmail, String fromName, String toEmail, String subject, String htmlBody,
+            String textBody) {
+        sendEmail(fromEmail, fromName, toEmail, subject, htmlBody);
+    }
+
+    /**
+     * Sends emails sharing a sender, at most {@link #maxBatchSize()} at once. Senders whose API
+     * accepts many recipients per request override this; the default sends them one by one.
+     *
+     * @return one result per email, in order
+     */
+    default List<SendResult> sendBatch(String fromEmail, String fromName, List<OutgoingEmail> emails) {
+        List<SendResult> results = new ArrayList<>(emails.size());
+        for (OutgoingEmail email : emails) {
+            try {
+                sendEmail(fromEmail, fromName, email.toEmail(), email.subject(), email.htmlBody(), email.textBody());
+                results.add(SendResult.sent(null));
+            } catch (Exception e) {
+                results.add(SendResult.failed(e));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Largest number of emails {@link #sendBatch} accepts in one call.
+     */
+    default int maxBatchSize() {
+        return 1;
+    }
+
     String getProviderName();
+
+    /**
+     * One recipient's email of a batch.
+     */
+    record OutgoingEmail(String toEmail, String subject, String htmlBody, String textBody) {
+    }
+
+    /**
+     * Outcome of one email of a batch: the provider's message id (if it returns one) or the failure.
+     */
+    record SendResult(String messageId, Exception failure) {
+
+        public static SendResult sent(String messageId) {
+            return new SendResult(messageId, null);
+        }
+
+        public static SendResult failed(Exception failure) {
+            return new SendResult(null, failure);
+        }
+
+        public boolean isSent() {
+            return failure == null;
+        }
+    }
 }
@@ -3,8 +3,46 @@ package com.khetisetu.event.notifications.provider;
 import com.khetisetu.event.notifications.dto.NotificationRequestEvent;
 import com.khetisetu.event.notifications.model.Notification;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 public interface NotificationProvider {
     String getType();
     void send(NotificationRequestEvent event, Notification notification) throws Exception;
     boolean isEnabled();
-}
\ No newline at end of file
+
+    /**
+     * Sends many notifications at once. Providers that can batch on the wire override this;
+     * the default simply calls {@link #send} for each request.
+     *
+     * @return one entry per request, in order: {@code null} if it was sent, otherwise the failure
+     */
+    default List<Exception> sendAll(List<SendRequest> requests) {
+        List<Exception> failures = new ArrayList<>(requests.size());
+        for (SendRequest request : requests) {
+            try {
+                send(request.event(), request.notification());
+                failures.add(null);
+            } catch (Exception e) {
+                failures.add(e);
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Non-blocking form of {@link #sendAll}. Providers backed by an async client override this;
+     * the default runs {@link #sendAll} on the calling thread and returns a completed future.
+     * The future completes with the same per-request outcomes and never completes exceptionally.
+     */
+    default CompletableFuture<List<Exception>> sendAllAsync(List<SendRequest> requests) {
+        return CompletableFuture.completedFuture(sendAll(requests));
+    }
+
+    /**
+     * One notification to send, together with the record its outcome is written to.
+     */
+    record SendRequest(NotificationRequestEvent event, Notification notification) {
+    }
+}
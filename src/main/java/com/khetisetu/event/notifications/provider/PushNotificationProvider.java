@@ -1,27 +1,56 @@
 package com.khetisetu.event.notifications.provider;
 
+import com.google.api.core.ApiFuture;
 import com.google.firebase.messaging.*;
 import com.khetisetu.event.notifications.dto.NotificationRequestEvent;
 import com.khetisetu.event.notifications.service.NotificationTemplateService;
 import com.khetisetu.event.notifications.service.UserTokenService;
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * Sends push notifications through FCM.
+ *
+ * <p>{@link #sendAll} is the dispatch engine used by the batch listeners: requests whose rendered
+ * payload is identical (same template, language and params) are merged across users into
+ * multicast messages of up to {@value #FCM_BATCH_LIMIT} tokens, and the remaining single-token
+ * messages are pooled into {@code sendEach} calls of up to {@value #FCM_BATCH_LIMIT} messages.
+ * Every response is mapped back to the token and {@link com.khetisetu.event.notifications.model.Notification}
+ * it came from, so stale-token cleanup and the SENT / FAILED_UNREGISTERED outcome stay per user.</p>
+ *
+ * <p>All FCM calls use the non-blocking {@code ApiFuture} variants. At most
+ * {@code push.fcm.max-in-flight} batch calls are outstanding at once; a caller that would exceed
+ * the cap waits for a permit, which is what pushes back on the Kafka consumer.</p>
+ */
 @Component("PUSH")
 @Slf4j
 public class PushNotificationProvider implements NotificationProvider {
 
+    /** FCM accepts at most 500 tokens per multicast and 500 messages per sendEach. */
+    static final int FCM_BATCH_LIMIT = 500;
+
     private final UserTokenService userTokenService;
     private final com.khetisetu.event.notifications.service.NotificationTemplateService templateService;
     private final Counter successCounter;
     private final Counter staleCounter;
     private final Counter transientFailCounter;
     private final Counter skippedCounter;
+    private final Semaphore inFlight;
 
     /**
      * FCM error codes that indicate the token is permanently invalid.
@@ -33,9 +62,14 @@ public class PushNotificationProvider implements NotificationProvider {
 
     public PushNotificationProvider(UserTokenService userTokenService,
             com.khetisetu.event.notifications.service.NotificationTemplateService templateService,
-            MeterRegistry meterRegistry) {
+            MeterRegistry meterRegistry,
+            @Value("${push.fcm.max-in-flight:32}") int maxInFlight) {
         this.userTokenService = userTokenService;
         this.templateService = templateService;
+        this.inFlight = new Semaphore(maxInFlight);
+        Gauge.builder("push.send.in_flight", inFlight, sem -> maxInFlight - sem.availablePermits())
+                .description("FCM batch calls currently awaiting a response")
+                .register(meterRegistry);
         this.successCounter = Counter.builder("push.send")
                 .tag("result", "success")
                 .description("FCM messages sent successfully")
@@ -67,21 +101,214 @@ public class PushNotificationProvider implements NotificationProvider {
     @Override
     public void send(NotificationRequestEvent event,
             com.khetisetu.event.notifications.model.Notification notificationRecord) {
-        List<String> tokens = userTokenService.getFcmTokens(event.recipient());
+        Exception failure = sendAll(List.of(new SendRequest(event, notificationRecord))).get(0);
+        if (failure instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        }
+        if (failure != null) {
+            throw new RuntimeException(failure);
+        }
+    }
+
+    @Override
+    public List<Exception> sendAll(List<SendRequest> requests) {
+        return sendAllAsync(requests).join();
+    }
+
+    /**
+     * Starts every FCM batch call for the given requests without waiting for responses. Each
+     * response is recorded as it arrives; the returned future completes once all of them have,
+     * with one entry per request (null = delivered). It never completes exceptionally.
+     */
+    @Override
+    public CompletableFuture<List<Exception>> sendAllAsync(List<SendRequest> requests) {
+        List<Exception> failures = new ArrayList<>(Collections.nCopies(requests.size(), null));
+
+        // Load all recipients' tokens with one query; the lookups below are then served from cache
+        userTokenService.prefetch(requests.stream().map(request -> request.event().recipient()).toList());
+
+        // Resolve tokens and render each payload, grouping identical payloads across users
+        List<Target> targets = new ArrayList<>(requests.size());
+        Map<Map<String, String>, List<Target>> byPayload = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            SendRequest request = requests.get(i);
+            List<String> tokens = userTokenService.getFcmTokens(request.event().recipient());
+            if (tokens.isEmpty()) {
+                log.warn("No FCM tokens found for user: {}. Skipping push.", request.event().recipient());
+                request.notification().setStatus("SKIPPED");
+                request.notification().setErrorMessage("No FCM token found");
+                skippedCounter.increment();
+                continue;
+            }
+            Target target = new Target(i, request, tokens, render(request.event(), request.notification()));
+            targets.add(target);
+            byPayload.computeIfAbsent(target.payload.data(), k -> new ArrayList<>()).add(target);
+        }
+        if (targets.isEmpty()) {
+            return CompletableFuture.completedFuture(failures);
+        }
+
+        FirebaseMessaging messaging = FirebaseMessaging.getInstance();
+        List<CompletableFuture<Void>> calls = new ArrayList<>();
+        List<TokenRef> singles = new ArrayList<>();
+        for (List<Target> group : byPayload.values()) {
+            List<TokenRef> refs = new ArrayList<>();
+            group.forEach(t -> t.tokens.forEach(token -> refs.add(new TokenRef(t, token))));
+            if (refs.size() == 1) {
+                singles.add(refs.get(0));
+            } else {
+                for (int from = 0; from < refs.size(); from += FCM_BATCH_LIMIT) {
+                    calls.add(sendMulticast(messaging, group.get(0).payload,
+                            refs.subList(from, Math.min(from + FCM_BATCH_LIMIT, refs.size()))));
+                }
+            }
+        }
+        for (int from = 0; from < singles.size(); from += FCM_BATCH_LIMIT) {
+            calls.add(sendEach(messaging, singles.subList(from, Math.min(from + FCM_BATCH_LIMIT, singles.size()))));
+        }
+
+        return CompletableFuture.allOf(calls.toArray(CompletableFuture[]::new)).thenApply(done -> {
+            for (Target target : targets) {
+                failures.set(target.index, target.finish());
+            }
+            return failures;
+        });
+    }
+
+    private CompletableFuture<Void> sendMulticast(FirebaseMessaging messaging, PushPayload payload, List<TokenRef> chunk) {
+        MulticastMessage message = MulticastMessage.builder()
+                .addAllTokens(chunk.stream().map(TokenRef::token).toList())
+                .putAllData(payload.data())
+                .setWebpushConfig(payload.webpush())
+                .setAndroidConfig(payload.android())
+                .build();
+        return submit("multicast", chunk, () -> messaging.sendEachForMulticastAsync(message));
+    }
+
+    private CompletableFuture<Void> sendEach(FirebaseMessaging messaging, List<TokenRef> chunk) {
+        List<Message> messages = new ArrayList<>(chunk.size());
+        for (TokenRef ref : chunk) {
+            PushPayload payload = ref.target().payload;
+            messages.add(Message.builder()
+                    .setToken(ref.token())
+                    .putAllData(payload.data())
+                    .setWebpushConfig(payload.webpush())
+                    .setAndroidConfig(payload.android())
+                    .build());
+        }
+        return submit("sendEach", chunk, () -> messaging.sendEachAsync(messages));
+    }
+
+    /**
+     * Takes an in-flight permit (waiting if the cap is reached), starts the call and records its
+     * outcome on completion. The returned future completes after the responses are recorded.
+     */
+    private CompletableFuture<Void> submit(String kind, List<TokenRef> chunk,
+            Supplier<ApiFuture<BatchResponse>> call) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            recordCallFailure(chunk, e);
+            done.complete(null);
+            return done;
+        }
+
+        ApiFuture<BatchResponse> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            inFlight.release();
+            recordCallFailure(chunk, e);
+            done.complete(null);
+            return done;
+        }
+
+        future.addListener(() -> {
+            try {
+                BatchResponse response = future.get();
+                log.info("FCM {} result: tokens={}, success={}, failures={}",
+                        kind, chunk.size(), response.getSuccessCount(), response.getFailureCount());
+                recordResponses(chunk, response);
+            } catch (ExecutionException e) {
+                recordCallFailure(chunk, e.getCause() instanceof Exception cause ? cause : e);
+            } catch (Exception e) {
+                recordCallFailure(chunk, e);
+            } finally {
+                inFlight.release();
+                done.complete(null);
+            }
+        }, Runnable::run);
+        return done;
+    }
+
+    /**
+     * Maps each per-token response back to its user: counts successes, invalidates stale tokens
+     * and remembers transient errors.
+     */
+    private void recordResponses(List<TokenRef> chunk, BatchResponse batchResponse) {
+        List<SendResponse> responses = batchResponse.getResponses();
+        for (int i = 0; i < responses.size() && i < chunk.size(); i++) {
+            SendResponse resp = responses.get(i);
+            TokenRef ref = chunk.get(i);
+            Target target = ref.target();
+            String recipient = target.request.event().recipient();
+            if (resp.isSuccessful()) {
+                synchronized (target) {
+                    target.successCount++;
+                }
+                successCounter.increment();
+                continue;
+            }
 
-        if (tokens.isEmpty()) {
-            log.warn("No FCM tokens found for user: {}. Skipping push.", event.recipient());
-            notificationRecord.setStatus("SKIPPED");
-            notificationRecord.setErrorMessage("No FCM token found");
-            skippedCounter.increment();
-            return;
+            FirebaseMessagingException ex = resp.getException();
+            MessagingErrorCode errorCode = ex != null ? ex.getMessagingErrorCode() : null;
+            if (errorCode != null && STALE_TOKEN_ERRORS.contains(errorCode)) {
+                String staleToken = ref.token();
+                log.warn("Stale token for user {} (token: {}...): {}",
+                        recipient,
+                        staleToken.substring(0, Math.min(10, staleToken.length())),
+                        errorCode);
+                userTokenService.invalidateToken(recipient, staleToken);
+                synchronized (target) {
+                    target.staleCount++;
+                }
+                staleCounter.increment();
+            } else {
+                log.error("Transient FCM error for user {}: {}",
+                        recipient, ex != null ? ex.getMessage() : "unknown");
+                synchronized (target) {
+                    target.lastTransientError = ex;
+                }
+                transientFailCounter.increment();
+            }
         }
+    }
+
+    private void recordCallFailure(List<TokenRef> chunk, Exception e) {
+        log.error("FCM batch call failed for {} tokens: {}", chunk.size(), e.getMessage());
+        transientFailCounter.increment(chunk.size());
+        for (TokenRef ref : chunk) {
+            synchronized (ref.target()) {
+                ref.target().callFailure = e;
+            }
+        }
+    }
+
+    /**
+     * Renders the data-only payload plus webpush/android configs for one request and stores the
+     * resolved title/body on the notification record.
+     */
+    private PushPayload render(NotificationRequestEvent event,
+            com.khetisetu.event.notifications.model.Notification notificationRecord) {
+        Map<String, String> params = event.params() != null ? event.params() : Map.of();
 
         // Prefer explicit title/body in params (direct/custom pushes). Otherwise
         // render the named template (e.g. "new_job") so trigger-based pushes carry
         // proper, localized text instead of a generic "Notification".
-        String title = event.params().get("title");
-        String body = event.params().get("body");
+        String title = params.get("title");
+        String body = params.get("body");
         if (title == null || title.isBlank() || body == null || body.isBlank()) {
             NotificationTemplateService.Content resolved = templateService.resolve(
                     event.templateName(), event.language(), event.params());
@@ -109,30 +336,25 @@ public class PushNotificationProvider implements NotificationProvider {
         // to silently drop or misroute notifications. Instead, we put everything
         // in the 'data' payload and let the service worker (sw.js) handle display.
 
-        String image = event.params().get("image");
-        String clickUrl = event.params().get("clickUrl");
-        String tag = event.params().get("tag");
-
-        // Build multicast message with data-only payload
-        MulticastMessage.Builder multicastBuilder = MulticastMessage.builder()
-                .addAllTokens(tokens);
+        String image = params.get("image");
+        String clickUrl = params.get("clickUrl");
+        String tag = params.get("tag");
 
         // Add all params as data payload (for sw.js push handler)
-        if (event.params() != null) {
-            event.params().forEach((k, v) -> {
-                if (v != null)
-                    multicastBuilder.putData(k, String.valueOf(v));
-            });
-        }
+        Map<String, String> data = new LinkedHashMap<>();
+        params.forEach((k, v) -> {
+            if (v != null)
+                data.put(k, String.valueOf(v));
+        });
 
         // Ensure title, body, and url are always in data payload
-        multicastBuilder.putData("title", title);
-        multicastBuilder.putData("body", body);
+        data.put("title", title);
+        data.put("body", body);
         if (clickUrl != null) {
-            multicastBuilder.putData("url", clickUrl);
+            data.put("url", clickUrl);
         }
         if (image != null && !image.isBlank()) {
-            multicastBuilder.putData("image", image);
+            data.put("image", image);
         }
 
         // Webpush Config — controls how the browser receives the push
@@ -140,14 +362,14 @@ public class PushNotificationProvider implements NotificationProvider {
                 .setTitle(title)
                 .setBody(body);
 
-        String icon = event.params().get("icon");
+        String icon = params.get("icon");
         if (icon != null && !icon.isBlank()) {
             webpushNotif.setIcon(icon);
         } else {
             webpushNotif.setIcon("/icons/icon-192x192.png");
         }
 
-        String badge = event.params().get("badge");
+        String badge = params.get("badge");
         if (badge != null && !badge.isBlank()) {
             webpushNotif.setBadge(badge);
         }
@@ -156,11 +378,11 @@ public class PushNotificationProvider implements NotificationProvider {
             webpushNotif.setTag(tag);
         }
 
-        multicastBuilder.setWebpushConfig(WebpushConfig.builder()
+        WebpushConfig webpush = WebpushConfig.builder()
                 .setNotification(webpushNotif.build())
                 .putHeader("Urgency", "high") // High urgency for immediate delivery
                 .setFcmOptions(WebpushFcmOptions.withLink(clickUrl != null ? clickUrl : "/"))
-                .build());
+                .build();
 
         // Android Config — HIGH priority with notification payload for native Android apps.
         // Native Android apps need a 'notification' payload to auto-display push notifications.
@@ -180,64 +402,67 @@ public class PushNotificationProvider implements NotificationProvider {
             androidNotifBuilder.setTag(tag);
         }
 
-        multicastBuilder.setAndroidConfig(AndroidConfig.builder()
+        AndroidConfig android = AndroidConfig.builder()
                 .setPriority(AndroidConfig.Priority.HIGH)
                 .setNotification(androidNotifBuilder.build())
-                .build());
+                .build();
 
-        try {
-            BatchResponse batchResponse = FirebaseMessaging.getInstance()
-                    .sendEachForMulticast(multicastBuilder.build());
-
-            int successCount = batchResponse.getSuccessCount();
-            int failureCount = batchResponse.getFailureCount();
-
-            log.info("FCM multicast result for user {}: success={}, failures={}",
-                    event.recipient(), successCount, failureCount);
-            successCounter.increment(successCount);
-
-            // Process individual failures
-            if (failureCount > 0) {
-                List<SendResponse> responses = batchResponse.getResponses();
-                int staleCount = 0;
-                Exception lastTransientError = null;
-
-                for (int i = 0; i < responses.size(); i++) {
-                    SendResponse resp = responses.get(i);
-                    if (!resp.isSuccessful()) {
-                        FirebaseMessagingException ex = resp.getException();
-                        MessagingErrorCode errorCode = ex != null ? ex.getMessagingErrorCode() : null;
-
-                        if (errorCode != null && STALE_TOKEN_ERRORS.contains(errorCode)) {
-                            String staleToken = tokens.get(i);
-                            log.warn("Stale token for user {} (token: {}...): {}",
-                                    event.recipient(),
-                                    staleToken.substring(0, Math.min(10, staleToken.length())),
-                                    errorCode);
-                            userTokenService.invalidateToken(event.recipient(), staleToken);
-                            staleCount++;
-                            staleCounter.increment();
-                        } else {
-                            log.error("Transient FCM error for user {}: {}",
-                                    event.recipient(), ex != null ? ex.getMessage() : "unknown");
-                            lastTransientError = ex;
-                            transientFailCounter.increment();
-                        }
-                    }
-                }
+        return new PushPayload(data, webpush, android);
+    }
 
-                if (successCount == 0 && staleCount == tokens.size()) {
-                    notificationRecord.setStatus("FAILED_UNREGISTERED");
-                    notificationRecord.setErrorMessage(
-                            "All " + staleCount + " FCM tokens stale. Removed.");
-                } else if (successCount == 0 && lastTransientError != null) {
-                    throw new RuntimeException("FCM Send Failed (transient)", lastTransientError);
-                }
+    /**
+     * Rendered push content. The data map fully determines the webpush/android configs, so it
+     * doubles as the grouping key for multicast batching.
+     */
+    private record PushPayload(Map<String, String> data, WebpushConfig webpush, AndroidConfig android) {
+    }
+
+    private record TokenRef(Target target, String token) {
+    }
+
+    /**
+     * Per-request send state, accumulated across every batch its tokens went out in. Batch
+     * callbacks may run concurrently, so updates synchronize on the target.
+     */
+    private static final class Target {
+        final int index;
+        final SendRequest request;
+        final List<String> tokens;
+        final PushPayload payload;
+        int successCount;
+        int staleCount;
+        Exception lastTransientError;
+        Exception callFailure;
+
+        Target(int index, SendRequest request, List<String> tokens, PushPayload payload) {
+            this.index = index;
+            this.request = request;
+            this.tokens = tokens;
+            this.payload = payload;
+        }
+
+        /**
+         * Applies the per-user outcome to the notification record.
+         *
+         * @return the failure to report, or null if the push counts as delivered
+         */
+        synchronized Exception finish() {
+            if (successCount > 0) {
+                return null;
+            }
+            if (staleCount == tokens.size()) {
+                request.notification().setStatus("FAILED_UNREGISTERED");
+                request.notification().setErrorMessage(
+                        "All " + staleCount + " FCM tokens stale. Removed.");
+                return null;
+            }
+            if (callFailure != null) {
+                return new RuntimeException("FCM Send Failed", callFailure);
+            }
+            if (lastTransientError != null) {
+                return new RuntimeException("FCM Send Failed (transient)", lastTransientError);
             }
-        } catch (FirebaseMessagingException e) {
-            log.error("FCM multicast call failed for user {}: {}", event.recipient(), e.getMessage());
-            transientFailCounter.increment(tokens.size());
-            throw new RuntimeException("FCM Send Failed", e);
+            return null;
         }
     }
 }
@@ -4,6 +4,7 @@ import com.khetisetu.event.notifications.model.Notification;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 
 import java.util.Collection;
 import java.util.List;
@@ -14,6 +15,9 @@ import java.util.List;
  */
 public interface NotificationRepository extends MongoRepository<Notification, String> {
 
+    /** Projection for inbox lists: everything but the (HTML) body and metadata. */
+    String SUMMARY_FIELDS = "{ 'content': 0, 'metadata': 0 }";
+
     List<Notification> findByRecipient(String recipient);
 
     // --- Paginated queries ---
@@ -67,4 +71,15 @@ public interface NotificationRepository extends MongoRepository<Notification, St
     List<Notification> findByUserIdAndIsReadFalse(String userId);
 
     Long countByUserIdAndIsReadFalse(String userId);
+
+    // --- Inbox list queries, without content and metadata (see SUMMARY_FIELDS) ---
+
+    @Query(value = "{ 'userId': ?0 }", fields = SUMMARY_FIELDS)
+    Page<Notification> findSummariesByUserId(String userId, Pageable pageable);
+
+    @Query(value = "{ 'userId': ?0, 'type': ?1 }", fields = SUMMARY_FIELDS)
+    Page<Notification> findSummariesByUserIdAndType(String userId, String type, Pageable pageable);
+
+    @Query(value = "{ 'userId': ?0, 'isRead': false }", fields = SUMMARY_FIELDS)
+    List<Notification> findUnreadSummariesByUserId(String userId);
 }
\ No newline at end of file
@@ -0,0 +1,269 @@
+package com.khetisetu.event.notifications.repository;
+
+import com.khetisetu.event.notifications.model.Notification;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind store for {@link Notification} documents on the delivery hot path.
+ *
+ * <p>New records are buffered and status transitions are recorded as targeted {@code $set}
+ * updates, coalesced per document. Every flush sends all buffered writes as one unordered
+ * {@code bulkWrite}, with one write per document: an insert is an upsert on {@code _id} whose
+ * fields are only set on insert ({@code $setOnInsert}), and any status change buffered for it
+ * rides along as a {@code $set}, so the usual PENDING → SENT/FAILED pair is a single write. A
+ * flush retried after the server applied part of it therefore neither fails on duplicate keys
+ * nor overwrites fields changed in between (read flags, digest status). Flushes run every
+ * {@code max-latency-ms}, as soon as {@code max-batch-size} writes are buffered, and once more
+ * on shutdown.</p>
+ *
+ * <p>Reads and the inbox read/unread updates keep going through {@link NotificationRepository}.</p>
+ */
+@Component
+@Slf4j
+public class NotificationWriteBehindStore {
+
+    /** Fields a delivery attempt may change after the record was created. */
+    private static final List<String> STATUS_FIELDS = List.of(
+            "status", "errorMessage", "retryCount", "subject", "content", "providerMessageId", "updatedAt");
+
+    private final MongoTemplate mongoTemplate;
+    private final String collectionName;
+    private final Counter insertCounter;
+    private final Counter updateCounter;
+    private final Counter errorCounter;
+
+    @Value("${notifications.write-behind.max-latency-ms:250}")
+    private long maxLatencyMs;
+
+    @Value("${notifications.write-behind.max-batch-size:500}")
+    private int maxBatchSize;
+
+    // id -> full document snapshot / id -> pending $set fields; guarded by "this"
+    private Map<String, Document> pendingInserts = new LinkedHashMap<>();
+    private Map<String, Document> pendingUpdates = new LinkedHashMap<>();
+
+    private final Object flushLock = new Object();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "notification-store-flusher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public NotificationWriteBehindStore(MongoTemplate mongoTemplate, MeterRegistry meterRegistry) {
+        this.mongoTemplate = mongoTemplate;
+        this.collectionName = mongoTemplate.getCollectionName(Notification.class);
+        this.insertCounter = Counter.builder("notification.store.writes")
+                .tag("op", "insert")
+                .description("Notification inserts flushed via bulkWrite")
+                .register(meterRegistry);
+        this.updateCounter = Counter.builder("notification.store.writes")
+                .tag("op", "update")
+                .description("Notification status updates flushed via bulkWrite")
+                .register(meterRegistry);
+        this.errorCounter = Counter.builder("notification.store.errors")
+                .description("Notification writes rejected by MongoDB")
+                .register(meterRegistry);
+        Gauge.builder("notification.store.pending", this, NotificationWriteBehindStore::pendingCount)
+                .description("Notification writes buffered and not yet flushed")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void start() {
+        flusher.scheduleWithFixedDelay(this::flush, maxLatencyMs, maxLatencyMs, TimeUnit.MILLISECONDS);
+        log.info("Notification write-behind store started (max latency {} ms, max batch {})",
+                maxLatencyMs, maxBatchSize);
+    }
+
+    /**
+     * Buffers a new notification. An id is assigned immediately so callers can reference
+     * the record (logs, analytics) before it reaches MongoDB.
+     */
+    public Notification insert(Notification notification) {
+        if (notification.getId() == null) {
+            notification.setId(new ObjectId().toHexString());
+        }
+        Document snapshot = toDocument(notification);
+        int pending;
+        synchronized (this) {
+            pendingInserts.put(notification.getId(), snapshot);
+            pending = pendingInserts.size() + pendingUpdates.size();
+        }
+        afterWrite(pending);
+        return notification;
+    }
+
+    /**
+     * Buffers many new notifications; see {@link #insert}.
+     */
+    public void insertAll(List<Notification> notifications) {
+        notifications.forEach(this::insert);
+    }
+
+    /**
+     * Records the current status fields of a notification previously passed to {@link #insert}.
+     */
+    public void updateStatus(Notification notification) {
+        Document snapshot = toDocument(notification);
+        Document set = new Document();
+        STATUS_FIELDS.forEach(field -> set.put(field, snapshot.get(field)));
+        int pending;
+        synchronized (this) {
+            pendingUpdates.merge(notification.getId(), set, (older, newer) -> {
+                older.putAll(newer);
+                return older;
+            });
+            pending = pendingInserts.size() + pendingUpdates.size();
+        }
+        afterWrite(pending);
+    }
+
+    /**
+     * Records the status fields of many notifications; see {@link #updateStatus}.
+     */
+    public void updateStatusAll(List<Notification> notifications) {
+        notifications.forEach(this::updateStatus);
+    }
+
+    /**
+     * Writes everything buffered so far with a single unordered bulkWrite. Never throws:
+     * on a transport failure the writes are put back and retried on the next flush;
+     * documents rejected by the server are logged and dropped.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            Map<String, Document> inserts;
+            Map<String, Document> updates;
+            synchronized (this) {
+                if (pendingInserts.isEmpty() && pendingUpdates.isEmpty()) {
+                    return;
+                }
+                inserts = pendingInserts;
+                updates = pendingUpdates;
+                pendingInserts = new LinkedHashMap<>();
+                pendingUpdates = new LinkedHashMap<>();
+            }
+
+            List<WriteModel<Document>> models = new ArrayList<>(inserts.size() + updates.size());
+            inserts.forEach((id, doc) -> models.add(upsert(doc, updates.get(id))));
+            updates.forEach((id, set) -> {
+                if (!inserts.containsKey(id)) {
+                    models.add(new UpdateOneModel<>(Filters.eq("_id", toObjectId(id)), new Document("$set", set)));
+                }
+            });
+
+            try {
+                BulkWriteResult result = mongoTemplate.getCollection(collectionName)
+                        .bulkWrite(models, new BulkWriteOptions().ordered(false));
+                record(result);
+                log.debug("Flushed {} notification inserts and {} updates", inserts.size(), updates.size());
+            } catch (MongoBulkWriteException e) {
+                record(e.getWriteResult());
+                errorCounter.increment(e.getWriteErrors().size());
+                for (BulkWriteError error : e.getWriteErrors()) {
+                    log.error("Notification write rejected (index {} of {}): {}",
+                            error.getIndex(), models.size(), error.getMessage());
+                }
+            } catch (Exception e) {
+                log.error("Failed to flush {} notification writes, will retry: {}", models.size(), e.getMessage());
+                requeue(inserts, updates);
+            }
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        int left = pendingCount();
+        if (left > 0) {
+            log.error("{} notification writes could not be flushed on shutdown", left);
+        }
+    }
+
+    private void afterWrite(int pending) {
+        if (pending >= maxBatchSize * 4) {
+            // Flusher is falling behind (e.g. MongoDB is slow): push back on the caller
+            flush();
+        } else if (pending >= maxBatchSize && !flusher.isShutdown()) {
+            flusher.execute(this::flush);
+        }
+    }
+
+    private void record(BulkWriteResult result) {
+        if (result.wasAcknowledged()) {
+            insertCounter.increment(result.getUpserts().size());
+            updateCounter.increment(result.getModifiedCount());
+        }
+    }
+
+    private synchronized void requeue(Map<String, Document> inserts, Map<String, Document> updates) {
+        // Anything buffered since the failed flush is newer and wins
+        inserts.forEach(pendingInserts::putIfAbsent);
+        updates.forEach((id, set) -> pendingUpdates.merge(id, set, (newer, older) -> {
+            older.putAll(newer);
+            return older;
+        }));
+    }
+
+    /**
+     * An insert that is a no-op if the document already exists, e.g. because the flush being
+     * retried reached the server; only the buffered status fields, if any, are applied then.
+     */
+    private UpdateOneModel<Document> upsert(Document doc, Document set) {
+        Document onInsert = new Document(doc);
+        onInsert.remove("_id");
+        Document update = new Document("$setOnInsert", onInsert);
+        if (set != null) {
+            // A field can't be in both operators; the $set value is the newer one
+            set.keySet().forEach(onInsert::remove);
+            update.append("$set", set);
+        }
+        return new UpdateOneModel<>(Filters.eq("_id", doc.get("_id")), update, new UpdateOptions().upsert(true));
+    }
+
+    private synchronized int pendingCount() {
+        return pendingInserts.size() + pendingUpdates.size();
+    }
+
+    private Document toDocument(Notification notification) {
+        Document doc = new Document();
+        mongoTemplate.getConverter().write(notification, doc);
+        return doc;
+    }
+
+    private Object toObjectId(String id) {
+        return ObjectId.isValid(id) ? new ObjectId(id) : id;
+    }
+}
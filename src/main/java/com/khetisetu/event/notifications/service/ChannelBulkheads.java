@@ -0,0 +1,103 @@
+package com.khetisetu.event.notifications.service;
+
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.ThreadPoolBulkhead;
+import io.github.resilience4j.bulkhead.ThreadPoolBulkheadConfig;
+import io.github.resilience4j.bulkhead.ThreadPoolBulkheadRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One resilience4j thread-pool bulkhead per delivery channel, so channels are sent concurrently
+ * and a slow provider only ever uses up its own channel's threads. Both the single-event path
+ * (one send per task) and the Kafka batch path (one provider batch per task) go through it.
+ *
+ * <p>PUSH and EMAIL have their own limits ({@code notifications.channel.push.max-concurrency},
+ * {@code notifications.channel.email.max-concurrency}); other channels use
+ * {@code notifications.channel.default.max-concurrency}. Each bulkhead queues up to
+ * {@code notifications.channel.queue-capacity} sends and rejects the rest. Bulkheads come from
+ * the shared registry, so they are exported as {@code resilience4j.bulkhead.*} metrics.</p>
+ */
+@Component
+@Slf4j
+public class ChannelBulkheads {
+
+    private final ThreadPoolBulkheadRegistry registry;
+    private final Map<String, ThreadPoolBulkhead> bulkheads = new ConcurrentHashMap<>();
+
+    @Value("${notifications.channel.push.max-concurrency:16}")
+    private int pushConcurrency = 16;
+
+    @Value("${notifications.channel.email.max-concurrency:8}")
+    private int emailConcurrency = 8;
+
+    @Value("${notifications.channel.default.max-concurrency:4}")
+    private int defaultConcurrency = 4;
+
+    @Value("${notifications.channel.queue-capacity:100}")
+    private int queueCapacity = 100;
+
+    public ChannelBulkheads(ThreadPoolBulkheadRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Runs a send on its channel's bulkhead. The caller's MDC is carried over to the bulkhead
+     * thread; a rejected send completes the future with {@link BulkheadFullException}.
+     */
+    public <T> CompletableFuture<T> submit(String channel, Callable<T> send) {
+        Map<String, String> mdc = MDC.getCopyOfContextMap();
+        Callable<T> task = () -> {
+            if (mdc != null) {
+                MDC.setContextMap(mdc);
+            }
+            try {
+                return send.call();
+            } finally {
+                MDC.clear();
+            }
+        };
+        try {
+            return bulkhead(channel).executeCallable(task).toCompletableFuture();
+        } catch (BulkheadFullException e) {
+            log.warn("{} bulkhead full, rejecting send", channel);
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        bulkheads.values().forEach(bulkhead -> {
+            try {
+                bulkhead.close();
+            } catch (Exception e) {
+                log.warn("Failed to close bulkhead {}: {}", bulkhead.getName(), e.getMessage());
+            }
+        });
+    }
+
+    private ThreadPoolBulkhead bulkhead(String channel) {
+        return bulkheads.computeIfAbsent(channel, c -> {
+            int concurrency = switch (c) {
+                case "PUSH" -> pushConcurrency;
+                case "EMAIL" -> emailConcurrency;
+                default -> defaultConcurrency;
+            };
+            ThreadPoolBulkheadConfig config = ThreadPoolBulkheadConfig.custom()
+                    .coreThreadPoolSize(concurrency)
+                    .maxThreadPoolSize(concurrency)
+                    .queueCapacity(queueCapacity)
+                    .build();
+            return registry.bulkhead("notification-" + c.toLowerCase(Locale.ROOT), config);
+        });
+    }
+}
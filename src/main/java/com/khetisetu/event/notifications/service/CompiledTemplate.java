@@ -0,0 +1,92 @@
+package com.khetisetu.event.notifications.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@code {{placeholder}}} text template tokenized once into literal and variable segments,
+ * so rendering is a single pass into a presized {@link StringBuilder}.
+ *
+ * <p>Placeholders whose key is missing from the params (or maps to null) are left in the output
+ * unchanged, exactly as written. Substituted values are never scanned for placeholders again.
+ * An unterminated {@code {{} is treated as literal text.</p>
+ */
+public final class CompiledTemplate {
+
+    private static final String OPEN = "{{";
+    private static final String CLOSE = "}}";
+    /** Expected length of a substituted value, used to presize the output. */
+    private static final int VALUE_LENGTH_HINT = 16;
+
+    public static final CompiledTemplate EMPTY = new CompiledTemplate(new String[]{""}, new String[0]);
+
+    // literals.length == keys.length + 1; output is literals[0] keys[0] literals[1] ... literals[n]
+    private final String[] literals;
+    private final String[] keys;
+    private final int literalLength;
+
+    private CompiledTemplate(String[] literals, String[] keys) {
+        this.literals = literals;
+        this.keys = keys;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * Tokenizes the given text; null is treated as empty.
+     */
+    public static CompiledTemplate compile(String text) {
+        if (text == null || text.isEmpty()) {
+            return EMPTY;
+        }
+        List<String> literals = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        int pos = 0;
+        int literalStart = 0;
+        while (true) {
+            int open = text.indexOf(OPEN, pos);
+            int close = open < 0 ? -1 : text.indexOf(CLOSE, open + OPEN.length());
+            if (close < 0) {
+                break;
+            }
+            literals.add(text.substring(literalStart, open));
+            keys.add(text.substring(open + OPEN.length(), close));
+            literalStart = close + CLOSE.length();
+            pos = literalStart;
+        }
+        literals.add(text.substring(literalStart));
+        return new CompiledTemplate(literals.toArray(String[]::new), keys.toArray(String[]::new));
+    }
+
+    /**
+     * Whether the template contains at least one placeholder.
+     */
+    public boolean hasPlaceholders() {
+        return keys.length > 0;
+    }
+
+    /**
+     * Renders the template with the given params; see the class docs for missing keys.
+     */
+    public String render(Map<String, String> params) {
+        if (keys.length == 0) {
+            return literals[0];
+        }
+        StringBuilder out = new StringBuilder(literalLength + keys.length * VALUE_LENGTH_HINT);
+        out.append(literals[0]);
+        for (int i = 0; i < keys.length; i++) {
+            String value = params != null ? params.get(keys[i]) : null;
+            if (value != null) {
+                out.append(value);
+            } else {
+                out.append(OPEN).append(keys[i]).append(CLOSE);
+            }
+            out.append(literals[i + 1]);
+        }
+        return out.toString();
+    }
+}
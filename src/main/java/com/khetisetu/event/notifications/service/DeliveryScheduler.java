@@ -0,0 +1,384 @@
+package com.khetisetu.event.notifications.service;
+
+import com.khetisetu.event.notifications.dto.NotificationRequestEvent;
+import com.khetisetu.event.notifications.model.ScheduledNotification;
+import com.mongodb.bulk.BulkWriteError;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds notification requests back until they are due: requests with a {@code deliverAt} in the
+ * future, and requests arriving during the quiet hours of their template
+ * ({@code notifications.schedule.quiet-hours}, e.g. {@code job_created=21:00-06:00}, evaluated in
+ * {@code notifications.schedule.zone}).
+ *
+ * <p>Held requests are stored in the {@code scheduled_notifications} collection before their
+ * Kafka offset is committed, so nothing is lost on a restart. Requests due within
+ * {@code notifications.schedule.preload-ms} are also kept in a {@link TimingWheel}; a periodic
+ * scan (run once at startup for recovery) loads the rest into the wheel as they get close.
+ * Due requests are republished to {@code notification-requests} in batches, marked with
+ * {@link #RELEASED_HEADER} so they are delivered right away, and then removed from MongoDB.
+ * A request released twice (e.g. by two instances) is dropped by the admission dedup on its
+ * eventId.</p>
+ */
+@Component
+@Slf4j
+public class DeliveryScheduler {
+
+    public static final String RELEASED_HEADER = "notification-scheduled-release";
+    static final String RELEASE_TOPIC = "notification-requests";
+
+    /**
+     * Daily window during which a template's notifications are held; may wrap past midnight.
+     */
+    record QuietHours(LocalTime start, LocalTime end) {
+
+        static QuietHours parse(String spec) {
+            String[] bounds = spec.trim().split("-");
+            if (bounds.length != 2) {
+                throw new IllegalArgumentException("Invalid quiet hours '" + spec + "', expected HH:mm-HH:mm");
+            }
+            return new QuietHours(LocalTime.parse(bounds[0].trim()), LocalTime.parse(bounds[1].trim()));
+        }
+
+        /**
+         * End of the window {@code time} falls in, or null if it is outside the quiet hours.
+         */
+        ZonedDateTime endAfter(ZonedDateTime time) {
+            LocalTime t = time.toLocalTime();
+            ZonedDateTime endToday = time.with(end);
+            if (start.isBefore(end)) {
+                return !t.isBefore(start) && t.isBefore(end) ? endToday : null;
+            }
+            if (!t.isBefore(start)) {
+                return endToday.plusDays(1);
+            }
+            return t.isBefore(end) ? endToday : null;
+        }
+    }
+
+    private final MongoTemplate mongoTemplate;
+    private final KafkaTemplate<String, Object> kafkaTemplate;
+    private final Map<String, QuietHours> quietHours;
+    private final ZoneId zone;
+    private final long tickMs;
+    private final TimingWheel<ScheduledNotification> wheel;
+    // ids in the wheel or being released, so a scan does not load them twice
+    private final Set<String> loaded = ConcurrentHashMap.newKeySet();
+    private final Counter scheduledCounter;
+    private final Counter releasedCounter;
+    private final Counter failedCounter;
+
+    @Value("${notifications.schedule.preload-ms:300000}")
+    private long preloadMs = 300_000;
+
+    @Value("${notifications.schedule.scan-interval-ms:60000}")
+    private long scanIntervalMs = 60_000;
+
+    @Value("${notifications.schedule.scan-limit:5000}")
+    private int scanLimit = 5000;
+
+    @Value("${notifications.schedule.release-batch-size:500}")
+    private int releaseBatchSize = 500;
+
+    @Value("${notifications.schedule.send-timeout-ms:10000}")
+    private long sendTimeoutMs = 10_000;
+
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "notification-scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public DeliveryScheduler(MongoTemplate mongoTemplate,
+                             KafkaTemplate<String, Object> kafkaTemplate,
+                             MeterRegistry meterRegistry,
+                             @Value("${notifications.schedule.quiet-hours:}") String quietHours,
+                             @Value("${notifications.schedule.zone:Asia/Kolkata}") String zone,
+                             @Value("${notifications.schedule.tick-ms:100}") long tickMs) {
+        this.mongoTemplate = mongoTemplate;
+        this.kafkaTemplate = kafkaTemplate;
+        this.quietHours = parseQuietHours(quietHours);
+        this.zone = ZoneId.of(zone);
+        this.tickMs = tickMs;
+        // 3 levels of 64 buckets: 6.4 s, 6.8 min and 7.3 h with the default tick
+        this.wheel = new TimingWheel<>(tickMs, 64, 3, System.currentTimeMillis());
+
+        this.scheduledCounter = Counter.builder("notification.schedule")
+                .tag("result", "scheduled")
+                .description("Notification requests held for later delivery")
+                .register(meterRegistry);
+        this.releasedCounter = Counter.builder("notification.schedule")
+                .tag("result", "released")
+                .description("Held notification requests republished once due")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("notification.schedule")
+                .tag("result", "failed")
+                .description("Held notification requests that could not be stored or republished")
+                .register(meterRegistry);
+        Gauge.builder("notification.schedule.wheel", this, DeliveryScheduler::wheelSize)
+                .description("Held notification requests waiting in the in-memory timing wheel")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void start() {
+        ticker.scheduleWithFixedDelay(() -> tick(System.currentTimeMillis()),
+                tickMs, tickMs, TimeUnit.MILLISECONDS);
+        // The first scan recovers whatever was scheduled before a restart
+        ticker.scheduleWithFixedDelay(() -> scan(System.currentTimeMillis()),
+                0, scanIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("Delivery scheduler started (quiet hours {} in {}, preload {} ms)", quietHours, zone, preloadMs);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        // Anything still in the wheel is in MongoDB and recovered by the next startup scan
+        ticker.shutdownNow();
+    }
+
+    /**
+     * True for records republished by the scheduler, which must not be held again.
+     */
+    public static boolean isRelease(ConsumerRecord<?, ?> record) {
+        return record.headers().lastHeader(RELEASED_HEADER) != null;
+    }
+
+    /**
+     * Time until which an event must be held, or null to deliver it now.
+     */
+    public Instant holdUntil(NotificationRequestEvent event) {
+        return holdUntil(event, Instant.now());
+    }
+
+    Instant holdUntil(NotificationRequestEvent event, Instant now) {
+        Instant due = event.deliverAt() != null && event.deliverAt().isAfter(now) ? event.deliverAt() : null;
+        QuietHours quiet = event.templateName() != null ? quietHours.get(event.templateName()) : null;
+        if (quiet != null) {
+            // Quiet hours apply at the time the event would otherwise go out
+            ZonedDateTime end = quiet.endAfter((due != null ? due : now).atZone(zone));
+            if (end != null) {
+                due = end.toInstant();
+            }
+        }
+        return due;
+    }
+
+    /**
+     * Stores held events with one unordered bulk insert and puts the near-term ones in the wheel.
+     * Events already scheduled by an earlier delivery of the same record count as scheduled.
+     *
+     * @param held each event and the time it is due
+     * @return the events that could not be stored and must be retried
+     */
+    public Set<NotificationRequestEvent> scheduleAll(Map<NotificationRequestEvent, Instant> held) {
+        Set<NotificationRequestEvent> failed = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (held.isEmpty()) {
+            return failed;
+        }
+        Instant now = Instant.now();
+        List<ScheduledNotification> docs = new ArrayList<>(held.size());
+        held.forEach((event, dueAt) -> {
+            ScheduledNotification doc = new ScheduledNotification();
+            doc.setId(event.eventId() != null ? event.eventId() : new ObjectId().toHexString());
+            doc.setDueAt(dueAt);
+            doc.setReason(dueAt.equals(event.deliverAt()) ? "DELIVER_AT" : "QUIET_HOURS");
+            doc.setEvent(event);
+            doc.setCreatedAt(now);
+            docs.add(doc);
+        });
+
+        Set<Integer> rejected = new HashSet<>();
+        try {
+            BulkOperations ops = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ScheduledNotification.class);
+            ops.insert(docs);
+            ops.execute();
+        } catch (BulkOperationException e) {
+            for (BulkWriteError error : e.getErrors()) {
+                if (error.getCode() != 11000) { // duplicate key: already scheduled
+                    log.error("Failed to schedule {}: {}", docs.get(error.getIndex()).getId(), error.getMessage());
+                    rejected.add(error.getIndex());
+                }
+            }
+        } catch (Exception e) {
+            log.error("Failed to schedule {} notification requests: {}", docs.size(), e.getMessage());
+            failed.addAll(held.keySet());
+            failedCounter.increment(docs.size());
+            return failed;
+        }
+
+        long horizon = System.currentTimeMillis() + preloadMs;
+        List<ScheduledNotification> dueNow = new ArrayList<>();
+        for (int i = 0; i < docs.size(); i++) {
+            ScheduledNotification doc = docs.get(i);
+            if (rejected.contains(i)) {
+                failed.add(doc.getEvent());
+                continue;
+            }
+            if (doc.getDueAt().toEpochMilli() <= horizon && !load(doc)) {
+                dueNow.add(doc);
+            }
+        }
+        if (!dueNow.isEmpty() && !ticker.isShutdown()) {
+            ticker.execute(() -> release(dueNow));
+        }
+        scheduledCounter.increment(docs.size() - rejected.size());
+        failedCounter.increment(rejected.size());
+        log.info("Held {} notification requests for later delivery", docs.size() - rejected.size());
+        return failed;
+    }
+
+    /**
+     * Releases whatever became due in the wheel.
+     */
+    void tick(long nowMs) {
+        List<ScheduledNotification> due;
+        synchronized (wheel) {
+            due = wheel.advance(nowMs);
+        }
+        release(due);
+    }
+
+    /**
+     * Loads the requests due within the preload window from MongoDB into the wheel; overdue ones
+     * (e.g. held across a restart) are released right away.
+     */
+    void scan(long nowMs) {
+        try {
+            Query query = Query.query(Criteria.where("dueAt").lt(Instant.ofEpochMilli(nowMs + preloadMs)))
+                    .with(Sort.by("dueAt"))
+                    .limit(scanLimit);
+            List<ScheduledNotification> overdue = new ArrayList<>();
+            for (ScheduledNotification doc : mongoTemplate.find(query, ScheduledNotification.class)) {
+                if (!loaded.contains(doc.getId()) && !load(doc)) {
+                    overdue.add(doc);
+                }
+            }
+            release(overdue);
+        } catch (Exception e) {
+            log.error("Scheduled notification scan failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Puts a stored request in the wheel.
+     *
+     * @return false if it is already due and must be released by the caller
+     */
+    private boolean load(ScheduledNotification doc) {
+        if (!loaded.add(doc.getId())) {
+            return true;
+        }
+        boolean added;
+        synchronized (wheel) {
+            added = wheel.add(doc, doc.getDueAt().toEpochMilli());
+        }
+        if (!added) {
+            loaded.remove(doc.getId());
+        }
+        return added;
+    }
+
+    /**
+     * Republishes due requests in batches and deletes the ones Kafka acknowledged. Requests that
+     * could not be sent stay in MongoDB and are picked up again by the next scan.
+     */
+    private void release(List<ScheduledNotification> due) {
+        for (int from = 0; from < due.size(); from += releaseBatchSize) {
+            List<ScheduledNotification> batch = due.subList(from, Math.min(from + releaseBatchSize, due.size()));
+            Map<String, CompletableFuture<?>> sends = new HashMap<>(batch.size());
+            for (ScheduledNotification doc : batch) {
+                NotificationRequestEvent event = doc.getEvent();
+                ProducerRecord<String, Object> record = new ProducerRecord<>(RELEASE_TOPIC, event.recipient(), event);
+                record.headers().add(RELEASED_HEADER, doc.getReason().getBytes(StandardCharsets.UTF_8));
+                try {
+                    sends.put(doc.getId(), kafkaTemplate.send(record));
+                } catch (Exception e) {
+                    log.error("Failed to release scheduled notification {}: {}", doc.getId(), e.getMessage());
+                }
+            }
+
+            List<String> released = new ArrayList<>(sends.size());
+            long deadline = System.currentTimeMillis() + sendTimeoutMs;
+            sends.forEach((id, send) -> {
+                try {
+                    send.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    released.add(id);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    log.error("Failed to release scheduled notification {}: {}", id, e.getMessage());
+                }
+            });
+
+            if (!released.isEmpty()) {
+                try {
+                    mongoTemplate.remove(Query.query(Criteria.where("_id").in(released)), ScheduledNotification.class);
+                } catch (Exception e) {
+                    // Released again by a later scan; the admission dedup drops the copy
+                    log.error("Failed to delete {} released notifications: {}", released.size(), e.getMessage());
+                }
+            }
+            batch.forEach(doc -> loaded.remove(doc.getId()));
+            releasedCounter.increment(released.size());
+            failedCounter.increment(batch.size() - released.size());
+            log.info("Released {} of {} due notification requests", released.size(), batch.size());
+        }
+    }
+
+    private int wheelSize() {
+        synchronized (wheel) {
+            return wheel.size();
+        }
+    }
+
+    private static Map<String, QuietHours> parseQuietHours(String spec) {
+        Map<String, QuietHours> rules = new HashMap<>();
+        for (String entry : spec.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int eq = entry.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Invalid quiet hours rule '" + entry + "', expected template=HH:mm-HH:mm");
+            }
+            rules.put(entry.substring(0, eq).trim(), QuietHours.parse(entry.substring(eq + 1)));
+        }
+        return rules;
+    }
+}
@@ -0,0 +1,243 @@
+package com.khetisetu.event.notifications.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.util.HtmlUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Renders email bodies once per distinct (template, language, shared params) and reuses the
+ * result for every recipient of a broadcast.
+ *
+ * <p>Params listed in the template's {@code perRecipientParams} (notification_templates.json)
+ * are left out of the cache key: they are rendered as unique markers, and each recipient's
+ * values are HTML-escaped and spliced in afterwards, as {@code th:text} would have done. The
+ * key also holds the render minute, since {@code createdDate} is shown with minute precision.
+ * The cache is a bounded LRU ({@code email.render-cache.max-size}, 0 disables it); concurrent
+ * misses for the same key wait for a single render. Hits and misses are counted in
+ * {@code email.render.cache}.</p>
+ */
+@Component
+public class EmailRenderCache {
+
+    private static final Pattern HTML_TAG = Pattern.compile("<[^>]*>");
+
+    private final NotificationTemplateRegistry templateRegistry;
+    private final int maxSize;
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    // Letters and digits only, so markers survive HTML, attribute and URL escaping untouched
+    private final String markerPrefix = "rcpt" + Long.toHexString(ThreadLocalRandom.current().nextLong()) + "q";
+
+    private final LinkedHashMap<String, CompletableFuture<Skeleton>> cache = new LinkedHashMap<>(64, 0.75f, true);
+
+    /**
+     * A rendered email: HTML body plus the tag-stripped text body.
+     */
+    public record RenderedEmail(String html, String text) {
+    }
+
+    private record Skeleton(Segments html, Segments text) {
+    }
+
+    /** Literal text interleaved with per-recipient field slots. */
+    private record Segments(String[] literals, int[] fields, int literalLength) {
+
+        String render(String[] values) {
+            if (fields.length == 0) {
+                return literals[0];
+            }
+            StringBuilder out = new StringBuilder(literalLength + fields.length * 32);
+            out.append(literals[0]);
+            for (int i = 0; i < fields.length; i++) {
+                out.append(values[fields[i]]).append(literals[i + 1]);
+            }
+            return out.toString();
+        }
+    }
+
+    public EmailRenderCache(NotificationTemplateRegistry templateRegistry,
+                            MeterRegistry meterRegistry,
+                            @Value("${email.render-cache.max-size:256}") int maxSize) {
+        this.templateRegistry = templateRegistry;
+        this.maxSize = maxSize;
+        this.hitCounter = Counter.builder("email.render.cache")
+                .tag("result", "hit")
+                .description("Email bodies served from the render cache")
+                .register(meterRegistry);
+        this.missCounter = Counter.builder("email.render.cache")
+                .tag("result", "miss")
+                .description("Email bodies rendered by Thymeleaf")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Renders {@code templates/{language}/{templateName}.html} for one recipient.
+     */
+    public RenderedEmail render(String templateName, String language, Map<String, String> params) {
+        Instant renderedAt = Instant.now().truncatedTo(ChronoUnit.MINUTES);
+        if (maxSize <= 0) {
+            missCounter.increment();
+            String html = templateRegistry.renderHtml(templateName, language, params, renderedAt);
+            return new RenderedEmail(html, stripHtml(html));
+        }
+
+        // Split params into the shared part (cache key) and the per-recipient part (markers)
+        List<String> recipientFields = new ArrayList<>();
+        Map<String, String> shared = new TreeMap<>();
+        NotificationTemplateRegistry.Entry template = templateRegistry.find(templateName, language);
+        List<String> declared = template != null ? template.definition().getPerRecipientParams() : null;
+        if (params != null) {
+            params.forEach((name, value) -> {
+                if (declared != null && declared.contains(name) && value != null) {
+                    recipientFields.add(name);
+                } else {
+                    shared.put(name, value);
+                }
+            });
+        }
+        recipientFields.sort(null);
+
+        String key = cacheKey(templateName, language, renderedAt, shared, recipientFields);
+        Skeleton skeleton = skeleton(key, () -> {
+            Map<String, String> renderParams = new LinkedHashMap<>(shared);
+            for (int i = 0; i < recipientFields.size(); i++) {
+                renderParams.put(recipientFields.get(i), marker(i));
+            }
+            String html = templateRegistry.renderHtml(templateName, language, renderParams, renderedAt);
+            return new Skeleton(split(html, recipientFields.size()), split(stripHtml(html), recipientFields.size()));
+        });
+
+        String[] values = new String[recipientFields.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = HtmlUtils.htmlEscape(params.get(recipientFields.get(i)));
+        }
+        return new RenderedEmail(skeleton.html().render(values), skeleton.text().render(values));
+    }
+
+    /**
+     * Same tag stripping the email senders apply to build the plain-text alternative.
+     */
+    public static String stripHtml(String html) {
+        return HTML_TAG.matcher(html).replaceAll("");
+    }
+
+    private Skeleton skeleton(String key, Supplier<Skeleton> renderer) {
+        CompletableFuture<Skeleton> future;
+        boolean owner = false;
+        synchronized (cache) {
+            future = cache.get(key);
+            if (future == null) {
+                future = new CompletableFuture<>();
+                cache.put(key, future);
+                owner = true;
+                if (cache.size() > maxSize) {
+                    Iterator<String> eldest = cache.keySet().iterator();
+                    eldest.next();
+                    eldest.remove();
+                }
+            }
+        }
+        if (!owner) {
+            hitCounter.increment();
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException re ? re : e;
+            }
+        }
+
+        missCounter.increment();
+        try {
+            Skeleton skeleton = renderer.get();
+            future.complete(skeleton);
+            return skeleton;
+        } catch (RuntimeException e) {
+            synchronized (cache) {
+                cache.remove(key, future);
+            }
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private String marker(int index) {
+        return markerPrefix + index + "q";
+    }
+
+    private Segments split(String text, int fieldCount) {
+        List<String> literals = new ArrayList<>();
+        List<Integer> fields = new ArrayList<>();
+        int literalLength = 0;
+        int start = 0;
+        while (true) {
+            // Next marker of any field
+            int next = -1;
+            int field = -1;
+            for (int i = 0; i < fieldCount; i++) {
+                int pos = text.indexOf(marker(i), start);
+                if (pos >= 0 && (next < 0 || pos < next)) {
+                    next = pos;
+                    field = i;
+                }
+            }
+            if (next < 0) {
+                break;
+            }
+            literals.add(text.substring(start, next));
+            literalLength += next - start;
+            fields.add(field);
+            start = next + marker(field).length();
+        }
+        literals.add(text.substring(start));
+        literalLength += text.length() - start;
+        return new Segments(literals.toArray(String[]::new),
+                fields.stream().mapToInt(Integer::intValue).toArray(), literalLength);
+    }
+
+    private static String cacheKey(String templateName, String language, Instant renderedAt,
+                                   Map<String, String> shared, List<String> recipientFields) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        update(digest, templateName);
+        update(digest, language);
+        update(digest, Long.toString(renderedAt.getEpochSecond()));
+        shared.forEach((name, value) -> {
+            update(digest, name);
+            update(digest, value);
+        });
+        recipientFields.forEach(name -> update(digest, "*" + name));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        // Length-prefixed so ("ab","c") and ("a","bc") hash differently; -1 marks null
+        byte[] bytes = value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        int length = value != null ? bytes.length : -1;
+        digest.update(new byte[]{(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+        digest.update(bytes);
+    }
+}
@@ -0,0 +1,202 @@
+package com.khetisetu.event.notifications.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reusable rate limiter based on the generic cell rate algorithm (GCRA): each key stores a
+ * single "theoretical arrival time" in Redis, updated atomically by a Lua script that reads the
+ * server clock, so checks from every replica are race-free and a key expires as soon as its
+ * window has fully closed.
+ *
+ * <p>Many checks are decided in one {@code EVALSHA} through {@link #tryAcquireAll}. If Redis is
+ * unavailable, the same algorithm runs against an in-memory table instead, so limits still
+ * apply (per instance) rather than letting everything through.</p>
+ */
+@Component
+@Slf4j
+public class GcraRateLimiter {
+
+    /**
+     * Lua function shared with scripts that combine GCRA with other checks. Returns 1 if a
+     * request on {@code key} is allowed now (and records it), 0 otherwise.
+     */
+    static final String GCRA_FUNCTION = """
+            local function gcra(key, now, interval, tolerance)
+                local tat = tonumber(redis.call('GET', key)) or now
+                if tat < now then tat = now end
+                if tat - now > tolerance then
+                    return 0
+                end
+                local next_tat = tat + interval
+                redis.call('SET', key, tostring(next_tat), 'PX', math.max(1, math.ceil(next_tat - now)))
+                return 1
+            end
+            local function now_ms()
+                local t = redis.call('TIME')
+                return tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000)
+            end
+            """;
+
+    /** Result type of the scripts that return one number per key. */
+    static final Class<List<Object>> LIST_RESULT = listResultType();
+
+    // KEYS = one key per check, ARGV = interval and tolerance (ms) per check
+    static final RedisScript<List<Object>> BATCH_SCRIPT = RedisScript.of(GCRA_FUNCTION + """
+            local now = now_ms()
+            local result = {}
+            for i = 1, #KEYS do
+                result[i] = gcra(KEYS[i], now, tonumber(ARGV[2 * i - 1]), tonumber(ARGV[2 * i]))
+            end
+            return result
+            """, LIST_RESULT);
+
+    @SuppressWarnings("unchecked")
+    private static Class<List<Object>> listResultType() {
+        // Redis returns the script's table as a List; there is no Class for the generic type
+        return (Class<List<Object>>) (Class<?>) List.class;
+    }
+
+    private static final Pattern POLICY_SPEC = Pattern.compile("(\\d+)/(\\d*)(ms|s|m|h|d)(?:\\+(\\d+))?");
+
+    private final StringRedisTemplate redisTemplate;
+    private final int localMaxKeys;
+
+    // Fallback state: key -> theoretical arrival time (ms), least recently used evicted first
+    private final LinkedHashMap<String, Long> local = new LinkedHashMap<>(256, 0.75f, true);
+
+    /**
+     * {@code rate} requests per {@code period}, of which up to {@code burst} may be sent
+     * back to back.
+     */
+    public record Policy(String name, int rate, Duration period, int burst) {
+
+        public Policy {
+            if (rate <= 0 || burst <= 0 || period.isZero() || period.isNegative()) {
+                throw new IllegalArgumentException("Invalid rate limit policy " + name);
+            }
+        }
+
+        /**
+         * Parses {@code <rate>/<period>[+<burst>]}, e.g. {@code 5/1m} or {@code 100/1h+20}.
+         * The burst defaults to the rate.
+         */
+        public static Policy parse(String name, String spec) {
+            Matcher m = POLICY_SPEC.matcher(spec.trim());
+            if (!m.matches()) {
+                throw new IllegalArgumentException("Invalid rate limit policy '" + spec + "' for " + name);
+            }
+            int rate = Integer.parseInt(m.group(1));
+            long amount = m.group(2).isEmpty() ? 1 : Long.parseLong(m.group(2));
+            Duration period = switch (m.group(3)) {
+                case "ms" -> Duration.ofMillis(amount);
+                case "s" -> Duration.ofSeconds(amount);
+                case "m" -> Duration.ofMinutes(amount);
+                case "h" -> Duration.ofHours(amount);
+                default -> Duration.ofDays(amount);
+            };
+            int burst = m.group(4) != null ? Integer.parseInt(m.group(4)) : rate;
+            return new Policy(name, rate, period, burst);
+        }
+
+        /** Time one request "costs": the period spread over the rate. */
+        public double intervalMs() {
+            return (double) period.toMillis() / rate;
+        }
+
+        /** How far ahead of schedule a key may get: room for {@code burst} requests at once. */
+        public double toleranceMs() {
+            return intervalMs() * (burst - 1);
+        }
+    }
+
+    /**
+     * One request to admit on {@code key} under {@code policy}.
+     */
+    public record Check(String key, Policy policy) {
+    }
+
+    public GcraRateLimiter(StringRedisTemplate redisTemplate,
+                           @Value("${rate-limit.local.max-keys:100000}") int localMaxKeys) {
+        this.redisTemplate = redisTemplate;
+        this.localMaxKeys = localMaxKeys;
+    }
+
+    public boolean tryAcquire(Check check) {
+        return tryAcquireAll(List.of(check)).get(0);
+    }
+
+    /**
+     * Decides every check with one script call. Results are in check order; checks on the
+     * same key are applied one after another.
+     */
+    public List<Boolean> tryAcquireAll(List<Check> checks) {
+        if (checks.isEmpty()) {
+            return List.of();
+        }
+        List<String> keys = new ArrayList<>(checks.size());
+        Object[] args = new Object[checks.size() * 2];
+        for (int i = 0; i < checks.size(); i++) {
+            Check check = checks.get(i);
+            keys.add(check.key());
+            args[2 * i] = String.valueOf(check.policy().intervalMs());
+            args[2 * i + 1] = String.valueOf(check.policy().toleranceMs());
+        }
+        try {
+            List<Object> result = redisTemplate.execute(BATCH_SCRIPT, keys, args);
+            if (result == null || result.size() != checks.size()) {
+                throw new IllegalStateException("Unexpected rate limit script result: " + result);
+            }
+            return result.stream().map(v -> v instanceof Number n && n.longValue() == 1).toList();
+        } catch (Exception e) {
+            log.warn("Redis unavailable for {} rate limit checks, using local limits: {}", checks.size(), e.getMessage());
+            return tryAcquireLocally(checks);
+        }
+    }
+
+    /**
+     * Same algorithm against this instance's memory; used when Redis cannot be reached.
+     */
+    public List<Boolean> tryAcquireLocally(List<Check> checks) {
+        double now = System.currentTimeMillis();
+        List<Boolean> results = new ArrayList<>(checks.size());
+        synchronized (local) {
+            for (Check check : checks) {
+                double tat = Math.max(local.getOrDefault(check.key(), (long) now), now);
+                if (tat - now > check.policy().toleranceMs()) {
+                    results.add(false);
+                    continue;
+                }
+                local.put(check.key(), (long) Math.ceil(tat + check.policy().intervalMs()));
+                results.add(true);
+            }
+            evictLocal((long) now);
+        }
+        return results;
+    }
+
+    private void evictLocal(long now) {
+        if (local.size() <= localMaxKeys) {
+            return;
+        }
+        // Drop windows that already closed, then the least recently used
+        local.values().removeIf(tat -> tat <= now);
+        Iterator<Map.Entry<String, Long>> it = local.entrySet().iterator();
+        while (local.size() > localMaxKeys && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+}
@@ -1,42 +1,169 @@
 package com.khetisetu.event.notifications.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Daily per-type caps shared by every replica, counted in Redis under
+ * {@code global:rate:<type>:<date>}.
+ *
+ * <p>With {@code global-rate-limit.lease-size} above 1 (the default), an instance does not
+ * count each permit in Redis: it atomically reserves a block of permits and hands them out
+ * locally. The reservation never goes past the cap, so the daily total stays exact; at most
+ * one unused block per instance is held back from the others. Unused permits are returned
+ * at day rollover and on shutdown. Scripts are built once, so Spring runs them by SHA
+ * ({@code EVALSHA}) and only sends the source after a {@code NOSCRIPT}.</p>
+ */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class GlobalRateLimiter {
 
     private final StringRedisTemplate redisTemplate;
+    private final MeterRegistry meterRegistry;
     private static final DateTimeFormatter DATES = DateTimeFormatter.ISO_DATE;
     private static final String KEY_PREFIX = "global:rate:";
+    // Expire in 25 hours (seconds)
+    private static final String EXPIRE_SECONDS = String.valueOf(25 * 3600);
 
     // Lua script for atomic increment and expire
-    private static final String RATE_LIMIT_SCRIPT = "local current = redis.call('incr', KEYS[1]) " +
+    private static final RedisScript<Long> RATE_LIMIT_SCRIPT = RedisScript.of(
+            "local current = redis.call('incr', KEYS[1]) " +
             "if current == 1 then " +
             "   redis.call('expire', KEYS[1], ARGV[1]) " +
             "end " +
-            "return current";
+            "return current", Long.class);
+
+    // Reserves up to ARGV[1] permits without going past the limit ARGV[2]; returns the number granted
+    static final RedisScript<Long> LEASE_SCRIPT = RedisScript.of(
+            "local used = tonumber(redis.call('get', KEYS[1]) or '0') " +
+            "local grant = math.min(tonumber(ARGV[1]), tonumber(ARGV[2]) - used) " +
+            "if grant <= 0 then return 0 end " +
+            "redis.call('incrby', KEYS[1], grant) " +
+            "if redis.call('ttl', KEYS[1]) < 0 then " +
+            "   redis.call('expire', KEYS[1], ARGV[3]) " +
+            "end " +
+            "return grant", Long.class);
+
+    // Gives back up to ARGV[1] unused permits; returns the number returned
+    static final RedisScript<Long> RETURN_SCRIPT = RedisScript.of(
+            "local used = tonumber(redis.call('get', KEYS[1]) or '0') " +
+            "local give = math.min(tonumber(ARGV[1]), used) " +
+            "if give > 0 then redis.call('decrby', KEYS[1], give) end " +
+            "return give", Long.class);
+
+    @Value("${global-rate-limit.lease-size:20}")
+    private int leaseSize = 20;
+
+    // How long an exhausted cap is trusted before asking Redis again (others may return permits)
+    @Value("${global-rate-limit.exhausted-recheck-ms:5000}")
+    private long exhaustedRecheckMs = 5000;
+
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+
+    /**
+     * Permits reserved from one day's counter and not handed out yet.
+     */
+    private static final class Lease {
+        final String key;
+        final AtomicLong remaining = new AtomicLong();
+        volatile long exhaustedUntil;
+
+        Lease(String key) {
+            this.key = key;
+        }
+
+        boolean take() {
+            long current;
+            do {
+                current = remaining.get();
+                if (current <= 0) {
+                    return false;
+                }
+            } while (!remaining.compareAndSet(current, current - 1));
+            return true;
+        }
+    }
 
     public boolean tryAcquire(String type, int limit) {
+        if (leaseSize <= 1) {
+            return acquireOne(type, limit);
+        }
         String key = getKey(type);
+        Lease lease = currentLease(type, key);
+        if (lease.take()) {
+            return true;
+        }
+        synchronized (lease) {
+            // Another thread may have refilled the lease meanwhile
+            if (lease.take()) {
+                return true;
+            }
+            if (leases.get(type) != lease) {
+                // Replaced at day rollover while we waited
+                return tryAcquire(type, limit);
+            }
+            if (System.currentTimeMillis() < lease.exhaustedUntil) {
+                return false;
+            }
+            try {
+                Long granted = redisTemplate.execute(LEASE_SCRIPT, Collections.singletonList(key),
+                        String.valueOf(leaseSize), String.valueOf(limit), EXPIRE_SECONDS);
+                if (granted == null || granted <= 0) {
+                    meterRegistry.counter("global.rate.lease", "type", type, "result", "exhausted").increment();
+                    lease.exhaustedUntil = System.currentTimeMillis() + exhaustedRecheckMs;
+                    return false;
+                }
+                meterRegistry.counter("global.rate.lease", "type", type, "result", "granted").increment();
+                lease.remaining.addAndGet(granted - 1);
+                return true;
+            } catch (Exception e) {
+                log.error("Failed to access Redis for rate limiting", e);
+                // Open fallback: allow if redis fails to avoid outage
+                return true;
+            }
+        }
+    }
+
+    public long getUsage(String type) {
         try {
-            DefaultRedisScript<Long> redisScript = new DefaultRedisScript<>();
-            redisScript.setScriptText(RATE_LIMIT_SCRIPT);
-            redisScript.setResultType(Long.class);
+            String val = redisTemplate.opsForValue().get(getKey(type));
+            long reserved = val != null ? Long.parseLong(val) : 0;
+            // Permits this instance reserved but has not handed out yet
+            Lease lease = leases.get(type);
+            long unused = lease != null && lease.key.equals(getKey(type)) ? lease.remaining.get() : 0;
+            return Math.max(0, reserved - unused);
+        } catch (Exception e) {
+            return 0;
+        }
+    }
 
-            // Expire in 25 hours (seconds)
-            String expireSeconds = String.valueOf(25 * 3600);
+    /**
+     * Returns every unused leased permit so other instances can use them today.
+     */
+    @PreDestroy
+    public void releaseLeases() {
+        leases.values().forEach(this::giveBack);
+        leases.clear();
+    }
 
-            Long current = redisTemplate.execute(redisScript, Collections.singletonList(key), expireSeconds);
+    private boolean acquireOne(String type, int limit) {
+        String key = getKey(type);
+        try {
+            Long current = redisTemplate.execute(RATE_LIMIT_SCRIPT, Collections.singletonList(key), EXPIRE_SECONDS);
 
             if (current == null)
                 return false;
@@ -52,12 +179,30 @@ public class GlobalRateLimiter {
         }
     }
 
-    public long getUsage(String type) {
+    private Lease currentLease(String type, String key) {
+        Lease lease = leases.computeIfAbsent(type, t -> new Lease(key));
+        if (lease.key.equals(key)) {
+            return lease;
+        }
+        // Day rollover: start a fresh lease, hand back what was left of yesterday's
+        Lease fresh = new Lease(key);
+        if (leases.replace(type, lease, fresh)) {
+            giveBack(lease);
+            return fresh;
+        }
+        return leases.get(type);
+    }
+
+    private void giveBack(Lease lease) {
+        long unused = lease.remaining.getAndSet(0);
+        if (unused <= 0) {
+            return;
+        }
         try {
-            String val = redisTemplate.opsForValue().get(getKey(type));
-            return val != null ? Long.parseLong(val) : 0;
+            redisTemplate.execute(RETURN_SCRIPT, Collections.singletonList(lease.key), String.valueOf(unused));
+            log.debug("Returned {} unused permits to {}", unused, lease.key);
         } catch (Exception e) {
-            return 0;
+            log.warn("Failed to return {} unused permits to {}: {}", unused, lease.key, e.getMessage());
         }
     }
 
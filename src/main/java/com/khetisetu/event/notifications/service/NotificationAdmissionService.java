@@ -0,0 +1,286 @@
+package com.khetisetu.event.notifications.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides, in one Redis round trip per event, whether a notification may be delivered:
+ * the event's idempotency key is claimed with SET NX and a per-recipient GCRA limit (see
+ * {@link GcraRateLimiter}) is applied for every requested channel, all inside a single Lua
+ * script so concurrent consumer threads can neither double-process an event nor overdraw
+ * a limit.
+ *
+ * <p>Limits come from policies: {@code notifications.rate-limit.default} applies to every
+ * channel unless {@code notifications.rate-limit.channels} (e.g. {@code PUSH=10/1m,EMAIL=5/1m})
+ * or, most specific, {@code notifications.rate-limit.templates} (e.g.
+ * {@code otp_email=3/1m+3,weekly_digest=2/1d+1}) overrides it. Policies are written as
+ * {@code <rate>/<period>[+<burst>]}. A template policy gets its own counter, so marketing
+ * sends never use up a recipient's OTP allowance.</p>
+ *
+ * <p>Batch callers submit all events of a poll through {@link #admitAll}, which sends the
+ * scripts in one pipeline. If Redis is unavailable, idempotency cannot be checked and every
+ * event is treated as new, but rate limits still apply from the limiter's in-memory fallback.</p>
+ */
+@Service
+@Slf4j
+public class NotificationAdmissionService {
+
+    private final StringRedisTemplate redisTemplate;
+    private final GcraRateLimiter rateLimiter;
+    private final GcraRateLimiter.Policy defaultPolicy;
+    private final Map<String, GcraRateLimiter.Policy> channelPolicies;
+    private final Map<String, GcraRateLimiter.Policy> templatePolicies;
+
+    private static final String IDEMPOTENCY_KEY = "idempotency:notif:%s";
+    private static final String RATE_KEY = "rate:gcra:%s:%s:%s";
+    private static final long IDEMPOTENCY_TTL_SECONDS = TimeUnit.HOURS.toSeconds(24);
+
+    /**
+     * KEYS[1] = idempotency key, KEYS[2..n] = one rate key per channel.
+     * ARGV = claim flag, idempotency TTL (s), then GCRA interval and tolerance (ms) per channel.
+     * Returns {-1} for a duplicate, otherwise {1, allowed_1, ..., allowed_n}.
+     */
+    private static final String ADMISSION_SCRIPT = GcraRateLimiter.GCRA_FUNCTION + """
+            if ARGV[1] == '1' and not redis.call('SET', KEYS[1], '1', 'NX', 'EX', ARGV[2]) then
+                return {-1}
+            end
+            local now = now_ms()
+            local result = {1}
+            for i = 2, #KEYS do
+                result[i] = gcra(KEYS[i], now, tonumber(ARGV[2 * i - 1]), tonumber(ARGV[2 * i]))
+            end
+            return result
+            """;
+
+    private static final DefaultRedisScript<List<Object>> SCRIPT =
+            new DefaultRedisScript<>(ADMISSION_SCRIPT, GcraRateLimiter.LIST_RESULT);
+    private static final byte[] SCRIPT_SHA = SCRIPT.getSha1().getBytes(StandardCharsets.UTF_8);
+
+    public NotificationAdmissionService(StringRedisTemplate redisTemplate,
+                                        GcraRateLimiter rateLimiter,
+                                        @Value("${notifications.rate-limit.default:5/1m}") String defaultPolicy,
+                                        @Value("${notifications.rate-limit.channels:}") String channelPolicies,
+                                        @Value("${notifications.rate-limit.templates:}") String templatePolicies) {
+        this.redisTemplate = redisTemplate;
+        this.rateLimiter = rateLimiter;
+        this.defaultPolicy = GcraRateLimiter.Policy.parse("default", defaultPolicy);
+        this.channelPolicies = parsePolicies(channelPolicies);
+        this.templatePolicies = parsePolicies(templatePolicies);
+    }
+
+    /**
+     * An event asking to be delivered on the given channels.
+     */
+    public record AdmissionRequest(String eventId, String recipient, List<String> channels, String templateName) {
+
+        public AdmissionRequest(String eventId, String recipient, List<String> channels) {
+            this(eventId, recipient, channels, null);
+        }
+    }
+
+    /**
+     * Outcome for one {@link AdmissionRequest}: either a duplicate, or the subset of channels that
+     * are within their rate limit.
+     */
+    public record Admission(boolean duplicate, Set<String> allowedChannels) {
+
+        static Admission allowAll(AdmissionRequest request) {
+            return new Admission(false, new LinkedHashSet<>(request.channels()));
+        }
+    }
+
+    /**
+     * Admits a single event (one EVALSHA).
+     */
+    public Admission admit(AdmissionRequest request) {
+        return admitAll(List.of(request)).get(0);
+    }
+
+    /**
+     * Admits many events with one pipelined round trip. Results are in request order.
+     */
+    public List<Admission> admitAll(List<AdmissionRequest> requests) {
+        if (requests.isEmpty()) {
+            return List.of();
+        }
+        try {
+            List<Object> results;
+            try {
+                results = runPipeline(requests);
+            } catch (Exception e) {
+                if (!isNoScript(e)) {
+                    throw e;
+                }
+                // Script cache was flushed (restart/failover): load once and retry
+                redisTemplate.execute((RedisCallback<String>) c ->
+                        c.scriptingCommands().scriptLoad(ADMISSION_SCRIPT.getBytes(StandardCharsets.UTF_8)));
+                results = runPipeline(requests);
+            }
+
+            List<Admission> admissions = new ArrayList<>(requests.size());
+            for (int i = 0; i < requests.size(); i++) {
+                Object result = i < results.size() ? results.get(i) : null;
+                admissions.add(toAdmission(requests.get(i), result));
+            }
+            return admissions;
+        } catch (Exception e) {
+            log.warn("Redis unavailable for admission of {} events. Using local rate limits.", requests.size());
+            return admitLocally(requests);
+        }
+    }
+
+    /**
+     * Releases the idempotency claim of an event whose delivery failed, so a redelivery
+     * (retry or DLQ replay) is not treated as a duplicate.
+     */
+    public void release(String eventId) {
+        releaseAll(List.of(eventId));
+    }
+
+    /**
+     * Batched form of {@link #release}: one DEL for every claim.
+     */
+    public void releaseAll(Collection<String> eventIds) {
+        List<String> keys = eventIds.stream()
+                .filter(id -> id != null)
+                .map(id -> String.format(IDEMPOTENCY_KEY, id))
+                .toList();
+        if (keys.isEmpty()) {
+            return;
+        }
+        try {
+            redisTemplate.delete(keys);
+        } catch (Exception e) {
+            log.warn("Redis unavailable for releasing {} idempotency claims. Skipping.", keys.size());
+        }
+    }
+
+    private List<Object> runPipeline(List<AdmissionRequest> requests) {
+        return redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (AdmissionRequest request : requests) {
+                evalSha(connection, request);
+            }
+            return null;
+        });
+    }
+
+    private void evalSha(RedisConnection connection, AdmissionRequest request) {
+        List<String> channels = request.channels();
+        List<GcraRateLimiter.Check> checks = rateChecks(request);
+        byte[][] keysAndArgs = new byte[1 + channels.size() + 2 + 2 * channels.size()][];
+        int i = 0;
+        keysAndArgs[i++] = bytes(String.format(IDEMPOTENCY_KEY, request.eventId()));
+        for (GcraRateLimiter.Check check : checks) {
+            keysAndArgs[i++] = bytes(check.key());
+        }
+        keysAndArgs[i++] = bytes(request.eventId() != null ? "1" : "0");
+        keysAndArgs[i++] = bytes(String.valueOf(IDEMPOTENCY_TTL_SECONDS));
+        for (GcraRateLimiter.Check check : checks) {
+            keysAndArgs[i++] = bytes(String.valueOf(check.policy().intervalMs()));
+            keysAndArgs[i++] = bytes(String.valueOf(check.policy().toleranceMs()));
+        }
+        connection.scriptingCommands().evalSha(SCRIPT_SHA, ReturnType.MULTI, 1 + channels.size(), keysAndArgs);
+    }
+
+    /**
+     * The policy that applies to a channel of an event: template, then channel, then default.
+     */
+    GcraRateLimiter.Policy policyFor(String channel, String templateName) {
+        GcraRateLimiter.Policy policy = templateName != null ? templatePolicies.get(templateName) : null;
+        if (policy != null) {
+            return policy;
+        }
+        return channelPolicies.getOrDefault(channel, defaultPolicy);
+    }
+
+    private List<GcraRateLimiter.Check> rateChecks(AdmissionRequest request) {
+        List<GcraRateLimiter.Check> checks = new ArrayList<>(request.channels().size());
+        for (String channel : request.channels()) {
+            GcraRateLimiter.Policy policy = policyFor(channel, request.templateName());
+            checks.add(new GcraRateLimiter.Check(
+                    String.format(RATE_KEY, request.recipient(), channel, policy.name()), policy));
+        }
+        return checks;
+    }
+
+    private List<Admission> admitLocally(List<AdmissionRequest> requests) {
+        List<GcraRateLimiter.Check> checks = new ArrayList<>();
+        requests.forEach(request -> checks.addAll(rateChecks(request)));
+        List<Boolean> allowed = rateLimiter.tryAcquireLocally(checks);
+
+        List<Admission> admissions = new ArrayList<>(requests.size());
+        int c = 0;
+        for (AdmissionRequest request : requests) {
+            Set<String> channels = new LinkedHashSet<>();
+            for (String channel : request.channels()) {
+                if (allowed.get(c++)) {
+                    channels.add(channel);
+                }
+            }
+            admissions.add(new Admission(false, channels));
+        }
+        return admissions;
+    }
+
+    private static Map<String, GcraRateLimiter.Policy> parsePolicies(String specs) {
+        Map<String, GcraRateLimiter.Policy> policies = new HashMap<>();
+        for (String entry : specs.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            String[] parts = entry.split("=", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid rate limit policy entry '" + entry + "'");
+            }
+            String name = parts[0].trim();
+            policies.put(name, GcraRateLimiter.Policy.parse(name, parts[1]));
+        }
+        return Map.copyOf(policies);
+    }
+
+    private Admission toAdmission(AdmissionRequest request, Object result) {
+        if (!(result instanceof List<?> values) || values.isEmpty()) {
+            return Admission.allowAll(request);
+        }
+        if (((Number) values.get(0)).longValue() < 0) {
+            return new Admission(true, Set.of());
+        }
+        Set<String> allowed = new LinkedHashSet<>();
+        for (int c = 0; c < request.channels().size(); c++) {
+            Object flag = c + 1 < values.size() ? values.get(c + 1) : null;
+            if (flag instanceof Number n && n.longValue() == 1) {
+                allowed.add(request.channels().get(c));
+            }
+        }
+        return new Admission(false, allowed);
+    }
+
+    private boolean isNoScript(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t.getMessage() != null && t.getMessage().contains("NOSCRIPT")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,316 @@
+package com.khetisetu.event.notifications.service;
+
+import com.khetisetu.event.notifications.dto.NotificationRequestEvent;
+import com.khetisetu.event.notifications.model.Notification;
+import com.khetisetu.event.notifications.provider.NotificationProvider;
+import com.khetisetu.event.notifications.repository.NotificationWriteBehindStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges bursts of notifications to the same user into one digest.
+ *
+ * <p>Templates are grouped by {@code notifications.digest.groups}
+ * (e.g. {@code jobs=job_created_email|job_updated_email|new_job}). The first notification of a
+ * group for a (recipient, channel) goes out right away and opens a window of
+ * {@code notifications.digest.window-ms}; the ones arriving while it is open are held. When the
+ * window closes a single held notification is sent as is, several are sent as one
+ * {@code notifications.digest.template} push or email listing their titles. The individual
+ * {@link Notification} records are stored as usual for the inbox and get the digest's outcome.
+ * A digest is in the recipient's language when the digest template exists in it, in English
+ * otherwise.</p>
+ *
+ * <p>Held notifications only live in memory and their Kafka records are already committed:
+ * open windows are flushed on shutdown, but a crash loses at most one window of digests (the
+ * inbox records remain, with status COALESCED). A window of 0 (the default) disables coalescing.</p>
+ */
+@Component
+@Slf4j
+public class NotificationCoalescer {
+
+    static final String COALESCED = "COALESCED";
+    /** Language the digest template is always available in. */
+    static final String DEFAULT_LANGUAGE = "en";
+    /** Titles listed in a digest; the rest are summed up in {@code more}. */
+    static final int MAX_DIGEST_ITEMS = 5;
+
+    private record Key(String recipient, String type, String group) {
+    }
+
+    private record Held(NotificationRequestEvent event, Notification notification) {
+    }
+
+    private static final class Window {
+        final long closesAt;
+        final List<Held> held = new ArrayList<>();
+
+        Window(long closesAt) {
+            this.closesAt = closesAt;
+        }
+    }
+
+    private final Map<String, NotificationProvider> providers;
+    private final NotificationWriteBehindStore notificationStore;
+    private final NotificationTemplateService templateService;
+    private final NotificationTemplateRegistry templateRegistry;
+    private final long windowMs;
+    private final String digestTemplate;
+    private final Map<String, String> groupOfTemplate;
+    private final Counter heldCounter;
+    private final Counter digestCounter;
+    private final Counter failedCounter;
+
+    // guarded by "this"
+    private final Map<Key, Window> windows = new HashMap<>();
+
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "notification-digest");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public NotificationCoalescer(Map<String, NotificationProvider> providers,
+                                 NotificationWriteBehindStore notificationStore,
+                                 NotificationTemplateService templateService,
+                                 NotificationTemplateRegistry templateRegistry,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${notifications.digest.window-ms:0}") long windowMs,
+                                 @Value("${notifications.digest.groups:}") String groups,
+                                 @Value("${notifications.digest.template:notification_digest}") String digestTemplate) {
+        this.providers = providers;
+        this.notificationStore = notificationStore;
+        this.templateService = templateService;
+        this.templateRegistry = templateRegistry;
+        this.windowMs = windowMs;
+        this.digestTemplate = digestTemplate;
+        this.groupOfTemplate = parseGroups(groups);
+
+        this.heldCounter = Counter.builder("notification.digest")
+                .tag("result", "held")
+                .description("Notifications held to be merged into a digest")
+                .register(meterRegistry);
+        this.digestCounter = Counter.builder("notification.digest")
+                .tag("result", "sent")
+                .description("Digests sent in place of several notifications")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("notification.digest")
+                .tag("result", "failed")
+                .description("Digests (or single held notifications) whose send failed")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void start() {
+        if (isEnabled()) {
+            long sweepMs = Math.max(100, windowMs / 10);
+            sweeper.scheduleWithFixedDelay(() -> flush(System.currentTimeMillis()), sweepMs, sweepMs, TimeUnit.MILLISECONDS);
+            log.info("Notification digests enabled ({} ms window, groups {})", windowMs, groupOfTemplate);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        sweeper.shutdownNow();
+        flush(Long.MAX_VALUE);
+    }
+
+    public boolean isEnabled() {
+        return windowMs > 0 && !groupOfTemplate.isEmpty();
+    }
+
+    /**
+     * Offers a stored notification about to be sent. Returns false if it must be sent now (and
+     * opens a window when it belongs to a digest group); true if it was held for the open
+     * window, in which case the coalescer owns its send and status updates.
+     */
+    public boolean hold(NotificationRequestEvent event, String type, Notification notification) {
+        String group = isEnabled() && event.templateName() != null ? groupOfTemplate.get(event.templateName()) : null;
+        if (group == null || event.recipient() == null) {
+            return false;
+        }
+        Key key = new Key(event.recipient(), type, group);
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Window window = windows.get(key);
+            if (window == null || window.closesAt <= now) {
+                // Leading edge: a lone notification is never delayed
+                windows.put(key, new Window(now + windowMs));
+                return false;
+            }
+            notification.setStatus(COALESCED);
+            window.held.add(new Held(event, notification));
+        }
+        heldCounter.increment();
+        return true;
+    }
+
+    /**
+     * Closes every window due by {@code nowMs} and sends its held notifications, one provider
+     * call per channel.
+     */
+    void flush(long nowMs) {
+        Map<Key, List<Held>> closed = new LinkedHashMap<>();
+        synchronized (this) {
+            windows.entrySet().removeIf(entry -> {
+                if (entry.getValue().closesAt > nowMs) {
+                    return false;
+                }
+                if (!entry.getValue().held.isEmpty()) {
+                    closed.put(entry.getKey(), entry.getValue().held);
+                }
+                return true;
+            });
+        }
+        if (closed.isEmpty()) {
+            return;
+        }
+
+        Map<String, List<NotificationProvider.SendRequest>> requests = new LinkedHashMap<>();
+        Map<String, List<List<Held>>> covered = new LinkedHashMap<>();
+        closed.forEach((key, held) -> {
+            NotificationProvider.SendRequest request = held.size() == 1
+                    ? new NotificationProvider.SendRequest(held.get(0).event(), held.get(0).notification())
+                    : digestRequest(key, held);
+            requests.computeIfAbsent(key.type(), k -> new ArrayList<>()).add(request);
+            covered.computeIfAbsent(key.type(), k -> new ArrayList<>()).add(held);
+        });
+
+        requests.forEach((type, batch) -> {
+            List<Exception> outcomes = send(type, batch);
+            List<Notification> updated = new ArrayList<>();
+            for (int i = 0; i < batch.size(); i++) {
+                Exception failure = outcomes.get(i);
+                Notification sent = batch.get(i).notification();
+                List<Held> held = covered.get(type).get(i);
+                if (held.size() > 1) {
+                    digestCounter.increment();
+                }
+                if (failure != null) {
+                    failedCounter.increment();
+                    log.error("Failed to send {} digest of {} notifications to {}: {}",
+                            type, held.size(), batch.get(i).event().recipient(), failure.getMessage());
+                }
+                for (Held h : held) {
+                    Notification n = h.notification();
+                    String status = failure != null ? "FAILED"
+                            : "PENDING".equals(sent.getStatus()) || COALESCED.equals(sent.getStatus()) ? "SENT" : sent.getStatus();
+                    n.setStatus(status);
+                    n.setErrorMessage(failure != null ? failure.getMessage() : sent.getErrorMessage());
+                    n.setProviderMessageId(sent.getProviderMessageId());
+                    n.setUpdatedAt(Instant.now());
+                    updated.add(n);
+                }
+            }
+            notificationStore.updateStatusAll(updated);
+        });
+    }
+
+    private List<Exception> send(String type, List<NotificationProvider.SendRequest> batch) {
+        NotificationProvider provider = providers.get(type);
+        if (provider == null) {
+            return Collections.nCopies(batch.size(), new IllegalStateException("No provider: " + type));
+        }
+        try {
+            return provider.sendAllAsync(batch).join();
+        } catch (Exception e) {
+            return Collections.nCopies(batch.size(), e);
+        }
+    }
+
+    /**
+     * One digest request for several held notifications; its record is not stored, the held
+     * ones take its outcome.
+     */
+    private NotificationProvider.SendRequest digestRequest(Key key, List<Held> held) {
+        NotificationRequestEvent last = held.get(held.size() - 1).event();
+        Map<String, String> params = new HashMap<>();
+        params.put("count", String.valueOf(held.size()));
+        params.put("group", key.group());
+        List<String> titles = new ArrayList<>();
+        for (int i = 0; i < Math.min(held.size(), MAX_DIGEST_ITEMS); i++) {
+            NotificationRequestEvent event = held.get(i).event();
+            String title = templateService.resolve(event.templateName(), event.language(), event.params()).title();
+            titles.add(title);
+            params.put("item" + (i + 1), title);
+        }
+        params.put("summary", String.join("\n", titles));
+        params.put("more", String.valueOf(Math.max(0, held.size() - MAX_DIGEST_ITEMS)));
+
+        NotificationRequestEvent digest = NotificationRequestEvent.builder()
+                .eventId("digest-" + UUID.randomUUID())
+                .userId(last.userId())
+                .recipient(key.recipient())
+                .type(key.type())
+                .templateName(digestTemplate)
+                .params(params)
+                .language(digestLanguage(key.type(), last.language()))
+                .senderConfig(last.senderConfig())
+                .metadata(Map.of("source", "digest", "group", key.group()))
+                .sendPush("PUSH".equals(key.type()))
+                .sendEmail("EMAIL".equals(key.type()))
+                .build();
+
+        Notification record = new Notification();
+        record.setEventId(digest.eventId());
+        record.setUserId(digest.userId());
+        record.setType(key.type());
+        record.setRecipient(key.recipient());
+        record.setTemplateName(digestTemplate);
+        record.setStatus("PENDING");
+        return new NotificationProvider.SendRequest(digest, record);
+    }
+
+    /**
+     * The recipient's language if the digest template exists in it (its definition, and for
+     * email its HTML too), otherwise {@value #DEFAULT_LANGUAGE}: a digest is never left to fail
+     * on a missing template, since its held notifications can't be redelivered.
+     */
+    private String digestLanguage(String type, String language) {
+        if (language == null || language.isBlank() || DEFAULT_LANGUAGE.equals(language)) {
+            return DEFAULT_LANGUAGE;
+        }
+        boolean available = templateRegistry.find(digestTemplate, language) != null
+                && (!"EMAIL".equals(type) || templateRegistry.hasHtml(digestTemplate, language));
+        if (!available) {
+            log.debug("No {} template for language {}, sending the digest in {}", digestTemplate, language, DEFAULT_LANGUAGE);
+        }
+        return available ? language : DEFAULT_LANGUAGE;
+    }
+
+    private static Map<String, String> parseGroups(String spec) {
+        Map<String, String> groupOfTemplate = new HashMap<>();
+        for (String entry : spec.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int eq = entry.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Invalid digest group '" + entry + "', expected group=template|template");
+            }
+            String group = entry.substring(0, eq).trim();
+            for (String template : entry.substring(eq + 1).split("\\|")) {
+                if (!template.isBlank()) {
+                    groupOfTemplate.put(template.trim(), group);
+                }
+            }
+        }
+        return groupOfTemplate;
+    }
+}
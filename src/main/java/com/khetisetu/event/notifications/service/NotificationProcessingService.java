@@ -2,6 +2,7 @@ package com.khetisetu.event.notifications.service;
 
 
 import com.khetisetu.event.logs.service.LogService;
+import com.khetisetu.event.notifications.consumer.RetryTopicRouter;
 import com.khetisetu.event.notifications.dto.NotificationAnalyticsEvent;
 import com.khetisetu.event.notifications.dto.NotificationEvent;
 import com.khetisetu.event.notifications.dto.NotificationRequestEvent;
@@ -9,24 +10,31 @@ import com.khetisetu.event.notifications.model.Notification;
 import com.khetisetu.event.notifications.model.logs.Actor;
 import com.khetisetu.event.notifications.model.logs.Entity;
 import com.khetisetu.event.notifications.provider.NotificationProvider;
-import com.khetisetu.event.notifications.repository.NotificationRepository;
+import com.khetisetu.event.notifications.repository.NotificationWriteBehindStore;
+import com.khetisetu.event.notifications.service.NotificationAdmissionService.Admission;
+import com.khetisetu.event.notifications.service.NotificationAdmissionService.AdmissionRequest;
 import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.slf4j.MDC;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.kafka.core.KafkaTemplate;
-import org.springframework.retry.annotation.Backoff;
-import org.springframework.retry.annotation.Retryable;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static com.khetisetu.event.constants.EntityConstants.*;
 import static com.khetisetu.event.constants.LogLevel.*;
@@ -36,20 +44,20 @@ import static com.khetisetu.event.constants.LogLevel.*;
 @Slf4j
 public class NotificationProcessingService {
 
-    private final NotificationRepository notificationRepository;
+    private final NotificationWriteBehindStore notificationStore;
     private final Map<String, NotificationProvider> providers;
     private final KafkaTemplate<String, Object> kafkaTemplate;
-    private final RedisTemplate<String, String> redisTemplate;
+    private final NotificationAdmissionService admissionService;
     private final MeterRegistry meterRegistry;
+    private final ChannelBulkheads channelBulkheads;
+    private final DeliveryScheduler deliveryScheduler;
+    private final NotificationCoalescer coalescer;
+    private final UnreadCounterService unreadCounters;
 
     @Autowired
     LogService logService;
 
-    private static final String IDEMPOTENCY_KEY = "idempotency:notif:%s";
-
     // === PROCESS DIRECT EVENT ===
-    @Async
-    @Retryable(maxAttempts = 4, backoff = @Backoff(delay = 1000, multiplier = 2))
     public void process(NotificationEvent event) throws Exception {
         String eventId = UUID.randomUUID().toString();
         String userId = event.recipient();
@@ -61,21 +69,26 @@ public class NotificationProcessingService {
 
         log.info("Processing direct notification");
 
-        if (isAlreadyProcessed(eventId)) {
+        NotificationRequestEvent req = NotificationRequestEvent.fromDirect(event, eventId);
+        Admission admission = admissionService.admit(
+                new AdmissionRequest(eventId, req.recipient(), channelsOf(req), req.templateName()));
+        if (admission.duplicate()) {
             log.info("Duplicate direct event");
             MDC.clear();
             return;
         }
 
-        NotificationRequestEvent req = toRequestEvent(event, eventId, userId);
-        processRequest(req);
-        markAsProcessed(eventId);
-        MDC.clear();
+        try {
+            processRequest(req, admission.allowedChannels());
+        } catch (Exception e) {
+            admissionService.release(eventId);
+            throw e;
+        } finally {
+            MDC.clear();
+        }
     }
 
     // === PROCESS RULE-BASED EVENT ===
-    @Async
-    @Retryable(maxAttempts = 4, backoff = @Backoff(delay = 1000, multiplier = 2))
     public void process(NotificationRequestEvent event) throws Exception {
         String traceId = event.triggerId() != null ? event.triggerId() : event.eventId();
 
@@ -86,47 +99,221 @@ public class NotificationProcessingService {
 
         log.info("Processing rule-based notification");
 
-        if (isAlreadyProcessed(event.eventId())) {
+        Admission admission = admissionService.admit(
+                new AdmissionRequest(event.eventId(), event.recipient(), channelsOf(event), event.templateName()));
+        if (admission.duplicate()) {
             log.info("Duplicate rule event");
             MDC.clear();
             return;
         }
 
-        processRequest(event);
-        markAsProcessed(event.eventId());
-        MDC.clear();
+        try {
+            processRequest(event, admission.allowedChannels());
+        } catch (Exception e) {
+            admissionService.release(event.eventId());
+            throw e;
+        } finally {
+            MDC.clear();
+        }
     }
 
-    private void processRequest(NotificationRequestEvent event) throws Exception {
-        boolean pushAttempted = false;
-        boolean emailAttempted = false;
-        Exception lastException = null;
+    // === PROCESS BATCHES (batch listeners) ===
+
+    /**
+     * Processes one poll's worth of direct events. Each event gets a fresh eventId, exactly
+     * as {@link #process(NotificationEvent)} does.
+     *
+     * @return the records whose delivery failed and should be dead-lettered
+     */
+    public List<ConsumerRecord<String, NotificationEvent>> processDirectBatch(
+            List<ConsumerRecord<String, NotificationEvent>> records) {
+        Map<ConsumerRecord<String, NotificationEvent>, NotificationRequestEvent> events = new LinkedHashMap<>();
+        for (ConsumerRecord<String, NotificationEvent> record : records) {
+            NotificationEvent event = record.value();
+            if (event == null) {
+                log.warn("Skipping empty record at offset {}", record.offset());
+                continue;
+            }
+            events.put(record, NotificationRequestEvent.fromDirect(event, UUID.randomUUID().toString()));
+        }
+        Set<NotificationRequestEvent> failed = processEvents(List.copyOf(events.values()), Map.of(), Set.of());
+        return events.entrySet().stream()
+                .filter(e -> failed.contains(e.getValue()))
+                .map(Map.Entry::getKey)
+                .toList();
+    }
 
-        if (event.sendPush()) {
-            pushAttempted = true;
-            try {
-                sendToProvider(event, "PUSH");
-            } catch (Exception e) {
-                log.error("Failed to send PUSH for event {}: {} {}", event.eventId(), e.getMessage(), Arrays.toString(e.getStackTrace()));
-                lastException = e;
+    /**
+     * Processes one poll's worth of rule-based requests: duplicates are dropped (within the
+     * batch and against Redis), PENDING records are inserted together, and the idempotency
+     * claims of failed events are released in a single call. Records from the retry topics
+     * carry their attempt number, which is recorded as the notification's retryCount.
+     * Events that are not due yet are handed to the {@link DeliveryScheduler}, except those
+     * it released itself.
+     *
+     * @return the records whose delivery failed and should be dead-lettered
+     */
+    public List<ConsumerRecord<String, NotificationRequestEvent>> processBatch(
+            List<ConsumerRecord<String, NotificationRequestEvent>> records) {
+        List<NotificationRequestEvent> events = new ArrayList<>(records.size());
+        Map<NotificationRequestEvent, Integer> attempts = new IdentityHashMap<>();
+        Set<NotificationRequestEvent> released = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (ConsumerRecord<String, NotificationRequestEvent> record : records) {
+            if (record.value() == null) {
+                log.warn("Skipping empty record at offset {}", record.offset());
+                continue;
+            }
+            events.add(record.value());
+            int attempt = RetryTopicRouter.attemptOf(record);
+            if (attempt > 0) {
+                attempts.put(record.value(), attempt);
+            }
+            if (DeliveryScheduler.isRelease(record)) {
+                released.add(record.value());
             }
         }
+        Set<NotificationRequestEvent> failed = processEvents(events, attempts, released);
+        return records.stream()
+                .filter(r -> r.value() != null && failed.contains(r.value()))
+                .toList();
+    }
 
-        if (event.sendEmail()) {
-            emailAttempted = true;
-            try {
-                sendToProvider(event, "EMAIL");
-            } catch (Exception e) {
-                log.error("Failed to send EMAIL for event {}: {} , {}", event.eventId(), e.getMessage(), Arrays.toString(e.getStackTrace()));
-                lastException = e;
+    private Set<NotificationRequestEvent> processEvents(List<NotificationRequestEvent> events,
+                                                        Map<NotificationRequestEvent, Integer> attempts,
+                                                        Set<NotificationRequestEvent> released) {
+        // 1. Drop in-batch duplicates and hold back events that are not due yet, then claim
+        //    every remaining event and take its rate-limit tokens in one pipelined round trip
+        Set<String> seen = new HashSet<>();
+        List<NotificationRequestEvent> unique = new ArrayList<>(events.size());
+        Map<NotificationRequestEvent, Instant> held = new IdentityHashMap<>();
+        for (NotificationRequestEvent event : events) {
+            if (event.eventId() != null && !seen.add(event.eventId())) {
+                log.info("Duplicate event {} within batch", event.eventId());
+                continue;
+            }
+            Instant holdUntil = released.contains(event) ? null : deliveryScheduler.holdUntil(event);
+            if (holdUntil != null) {
+                held.put(event, holdUntil);
+            } else {
+                unique.add(event);
+            }
+        }
+        Set<NotificationRequestEvent> notScheduled = deliveryScheduler.scheduleAll(held);
+        List<Admission> admissions = admissionService.admitAll(unique.stream()
+                .map(e -> new AdmissionRequest(e.eventId(), e.recipient(), channelsOf(e), e.templateName()))
+                .toList());
+
+        // 2. Build every admitted PENDING record and buffer their inserts
+        List<NotificationRequestEvent> fresh = new ArrayList<>(unique.size());
+        List<Delivery> deliveries = new ArrayList<>();
+        for (int i = 0; i < unique.size(); i++) {
+            NotificationRequestEvent event = unique.get(i);
+            Admission admission = admissions.get(i);
+            if (admission.duplicate()) {
+                log.info("Skipping already-processed event {}", event.eventId());
+                continue;
+            }
+            fresh.add(event);
+            for (String type : channelsOf(event)) {
+                if (!admission.allowedChannels().contains(type)) {
+                    log.warn("Rate limit exceeded for {} (eventId={})", type, event.eventId());
+                    publishAnalytics(event, "RATE_LIMITED", null);
+                    continue;
+                }
+                deliveries.add(new Delivery(event, type,
+                        createNotification(event, type, attempts.getOrDefault(event, 0))));
+            }
+        }
+        List<Notification> created = deliveries.stream().map(Delivery::notification).toList();
+        notificationStore.insertAll(created);
+        unreadCounters.onCreated(created);
+
+        // 3. Start every channel's sends without blocking on the provider; each outcome is
+        //    recorded by a completion callback, failures isolated to the event they belong to.
+        //    The batch (and so the Kafka ack) completes only after every callback has run.
+        Set<NotificationRequestEvent> failed = Collections.synchronizedSet(
+                Collections.newSetFromMap(new IdentityHashMap<>()));
+        Map<String, List<Delivery>> byType = new LinkedHashMap<>();
+        for (Delivery d : deliveries) {
+            // Held ones go out later as part of a digest; their records are already stored
+            if (!coalescer.hold(d.event(), d.type(), d.notification())) {
+                byType.computeIfAbsent(d.type(), k -> new ArrayList<>()).add(d);
             }
         }
+        List<CompletableFuture<Void>> completions = new ArrayList<>(byType.size());
+        byType.forEach((type, group) -> completions.add(
+                sendAllAsync(type, group).thenAccept(outcomes -> recordOutcomes(type, group, outcomes, failed))));
+        CompletableFuture.allOf(completions.toArray(CompletableFuture[]::new)).join();
+
+        // 4. Record final statuses and release the claims of failed events
+        notificationStore.updateStatusAll(created);
+        admissionService.releaseAll(failed.stream().map(NotificationRequestEvent::eventId).toList());
+        failed.addAll(notScheduled); // never claimed
+
+        log.info("Processed batch: {} records, {} held, {} new, {} deliveries, {} failed",
+                events.size(), held.size(), fresh.size(), deliveries.size(), failed.size());
+        return failed;
+    }
+
+    private List<String> channelsOf(NotificationRequestEvent event) {
+        List<String> channels = new ArrayList<>(2);
+        if (event.sendPush()) {
+            channels.add("PUSH");
+        }
+        if (event.sendEmail()) {
+            channels.add("EMAIL");
+        }
+        // Fallback or legacy behavior if neither flag is explicit, rely on 'type'
+        if (channels.isEmpty() && event.type() != null) {
+            channels.add(event.type());
+        }
+        return channels;
+    }
+
+    private record Delivery(NotificationRequestEvent event, String type, Notification notification) {
+    }
+
+    /**
+     * Sends every flagged channel of one event concurrently, each on its own channel's bulkhead,
+     * and waits for all of them. A failing channel does not stop the others; the last failure
+     * (EMAIL over PUSH) is rethrown once every channel finished.
+     */
+    private void processRequest(NotificationRequestEvent event, Set<String> allowedChannels) throws Exception {
+        Map<String, CompletableFuture<Void>> sends = new LinkedHashMap<>(2);
+        if (event.sendPush()) {
+            sends.put("PUSH", channelBulkheads.submit("PUSH", () -> {
+                sendToProvider(event, "PUSH", allowedChannels);
+                return null;
+            }));
+        }
+        if (event.sendEmail()) {
+            sends.put("EMAIL", channelBulkheads.submit("EMAIL", () -> {
+                sendToProvider(event, "EMAIL", allowedChannels);
+                return null;
+            }));
+        }
 
         // Fallback or legacy behavior if neither flag is explicit, rely on 'type' if
         // present
-        if (!pushAttempted && !emailAttempted && event.type() != null) {
-            sendToProvider(event, event.type());
-        } else if (lastException != null) {
+        if (sends.isEmpty()) {
+            if (event.type() != null) {
+                sendToProvider(event, event.type(), allowedChannels);
+            }
+            return;
+        }
+
+        Exception lastException = null;
+        for (Map.Entry<String, CompletableFuture<Void>> send : sends.entrySet()) {
+            try {
+                send.getValue().join();
+            } catch (CompletionException e) {
+                Exception cause = e.getCause() instanceof Exception ex ? ex : e;
+                log.error("Failed to send {} for event {}: {} {}", send.getKey(), event.eventId(),
+                        cause.getMessage(), Arrays.toString(cause.getStackTrace()));
+                lastException = cause;
+            }
+        }
+        if (lastException != null) {
             // If both were attempted and at least one failed, we might want to propagate if
             // we want Kafka retry.
             // But if one SUCCEEDED, a retry would duplicate the success.
@@ -135,16 +322,34 @@ public class NotificationProcessingService {
         }
     }
 
-    private void sendToProvider(NotificationRequestEvent event, String type) throws Exception {
-        if (!canSend(event.recipient(), type)) {
+    private void sendToProvider(NotificationRequestEvent event, String type, Set<String> allowedChannels)
+            throws Exception {
+        if (!allowedChannels.contains(type)) {
             log.warn("Rate limit exceeded for {}", type);
             publishAnalytics(event, "RATE_LIMITED", null);
             return;
         }
 
-        Notification notification = createNotification(event, type);
-        notification = notificationRepository.save(notification);
+        Notification notification = notificationStore.insert(createNotification(event, type, 0));
+        unreadCounters.onCreated(List.of(notification));
+        if (coalescer.hold(event, type, notification)) {
+            notificationStore.updateStatus(notification);
+            return;
+        }
+
+        try {
+            dispatch(event, type, notification);
+        } finally {
+            notificationStore.updateStatus(notification);
+        }
+    }
 
+    /**
+     * Sends an already-buffered notification through its provider and records the outcome
+     * (status, logs, analytics, metrics) on the in-memory record. Persisting the final status
+     * is left to the caller so batches can write all statuses together.
+     */
+    private void dispatch(NotificationRequestEvent event, String type, Notification notification) throws Exception {
         try {
             NotificationProvider provider = providers.get(type);
             if (provider == null) {
@@ -153,98 +358,120 @@ public class NotificationProcessingService {
             }
 
             provider.send(event, notification);
-            updateStatus(notification, "SENT", null);
-            publishAnalytics(event, "SENT", null);
-            meterRegistry.counter("notification.sent", "type", type).increment();
-
-            // Enriched log: show who received what via which provider
-            String title = event.params() != null ? event.params().getOrDefault("title", "N/A") : "N/A";
-            String body = event.params() != null ? event.params().getOrDefault("body", "") : "";
-            String bodyPreview = body.length() > 60 ? body.substring(0, 60) + "..." : body;
-
-            Actor actor = new Actor(event.recipient(), event.recipient());
-            Entity entity = new Entity(notification.getId(), type + " → " + event.recipient());
-            String details = String.format("[%s] Sent to %s | Title: \"%s\" | Body: \"%s\" | Template: %s | EventId: %s",
-                    type, event.recipient(), title, bodyPreview,
-                    event.templateName() != null ? event.templateName() : "none",
-                    event.eventId());
-            logService.storeLog(actor, event.type() + NOTIFICATION, entity, details, INFO);
-
+            recordSuccess(event, type, notification);
         } catch (Exception e) {
             log.error("Send failed processing event {} for type {}", event.eventId(), type, e);
-
-            String title = event.params() != null ? event.params().getOrDefault("title", "N/A") : "N/A";
-            Actor actor = new Actor(event.recipient(), event.recipient());
-            Entity entity = new Entity(notification.getId(), type + " → " + event.recipient());
-            String details = String.format("[%s] FAILED for %s | Title: \"%s\" | Error: %s | EventId: %s",
-                    type, event.recipient(), title,
-                    e.getMessage() != null ? e.getMessage() : "Unknown error",
-                    event.eventId());
-            logService.storeLog(actor, event.type() + NOTIFICATION, entity, details, ERROR);
-
-            updateStatus(notification, "FAILED", e.getMessage());
-            try {
-                publishAnalytics(event, "FAILED", e.getMessage());
-            } catch (Exception analyticsEx) {
-                logService.storeLog(actor, "ANALYTICS_EVENT", entity, "Failed to publish analytics: " + analyticsEx.getMessage(), ERROR);
-                log.error("Failed to publish failure analytics for event {}", event.eventId(), analyticsEx);
-            }
-            meterRegistry.counter("notification.failed", "type", type).increment();
+            recordFailure(event, type, notification, e);
             throw e;
         }
     }
 
-    private NotificationRequestEvent toRequestEvent(NotificationEvent event, String eventId, String userId) {
-        return NotificationRequestEvent.builder()
-                .eventId(eventId)
-                .userId(userId)
-                .recipient(event.recipient())
-                .type(event.type())
-                .templateName(event.templateName())
-                .params(event.params())
-                .language(event.language())
-                .senderConfig(event.senderConfig())
-                .triggerId(null)
-                .metadata(Map.of("source", "direct"))
-                .build();
+    /**
+     * Batch counterpart of {@link #dispatch}'s send step: hands every delivery of one channel
+     * to the provider at once, on that channel's bulkhead, so the batches of a slow channel
+     * only queue up behind each other and never take another channel's capacity. Outcomes
+     * arrive in delivery order (null = sent); the future never completes exceptionally, a
+     * rejected batch fails every delivery in it.
+     */
+    private CompletableFuture<List<Exception>> sendAllAsync(String type, List<Delivery> group) {
+        NotificationProvider provider = providers.get(type);
+        if (provider == null) {
+            log.warn("No provider found for type: {}", type);
+            Exception missing = new IllegalStateException("No provider: " + type);
+            return CompletableFuture.completedFuture(Collections.nCopies(group.size(), missing));
+        }
+        List<NotificationProvider.SendRequest> requests = group.stream()
+                .map(d -> new NotificationProvider.SendRequest(d.event(), d.notification()))
+                .toList();
+        // The bulkhead thread waits for the provider, which is what bounds the channel
+        return channelBulkheads.submit(type, () -> provider.sendAllAsync(requests).join())
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    log.error("Batch send failed for {} {} deliveries", group.size(), type, cause);
+                    return Collections.nCopies(group.size(),
+                            cause instanceof Exception ex ? ex : new RuntimeException(cause));
+                });
     }
 
-    private boolean isAlreadyProcessed(String eventId) {
-        try {
-            return redisTemplate.hasKey(String.format(IDEMPOTENCY_KEY, eventId));
-        } catch (Exception e) {
-            log.warn("Redis unavailable for idempotency check (eventId={}). Proceeding anyway.", eventId);
-            return false; // Allow processing when Redis is down
+    /**
+     * Completion callback for one channel's batch: records status, logs, analytics and metrics
+     * for every delivery and collects the events that failed.
+     */
+    private void recordOutcomes(String type, List<Delivery> group, List<Exception> outcomes,
+                                Set<NotificationRequestEvent> failed) {
+        for (int i = 0; i < group.size(); i++) {
+            Delivery delivery = group.get(i);
+            NotificationRequestEvent event = delivery.event();
+            MDC.put("eventId", event.eventId());
+            MDC.put("userId", event.userId());
+            MDC.put("type", type);
+            try {
+                Exception failure = outcomes.get(i);
+                if (failure == null) {
+                    try {
+                        recordSuccess(event, type, delivery.notification());
+                    } catch (Exception e) {
+                        failure = e;
+                    }
+                }
+                if (failure != null) {
+                    recordFailure(event, type, delivery.notification(), failure);
+                    log.error("Failed to send {} for event {}: {}", type, event.eventId(), failure.getMessage());
+                    failed.add(event);
+                }
+            } finally {
+                MDC.remove("eventId");
+                MDC.remove("userId");
+                MDC.remove("type");
+            }
         }
     }
 
-    private void markAsProcessed(String eventId) {
-        try {
-            redisTemplate.opsForValue().set(String.format(IDEMPOTENCY_KEY, eventId), "1", 24, TimeUnit.HOURS);
-        } catch (Exception e) {
-            Actor actor = new Actor("", "SYSTEM");
-            Entity entity = new Entity(eventId, "REDIS_IDEMPOTENCY");
-            logService.storeLog(actor, "REDIS_UPDATE", entity, "Failed to update redis cache so skipping", ERROR);
-            log.warn("Redis unavailable for marking processed (eventId={}). Skipping.", eventId);
-        }
+    private void recordSuccess(NotificationRequestEvent event, String type, Notification notification) {
+        // Providers may have recorded a more specific terminal status (SKIPPED, FAILED_UNREGISTERED)
+        String status = "PENDING".equals(notification.getStatus()) ? "SENT" : notification.getStatus();
+        updateStatus(notification, status, notification.getErrorMessage());
+        publishAnalytics(event, status, notification.getErrorMessage());
+        meterRegistry.counter("notification.sent", "type", type).increment();
+
+        // Enriched log: show who received what via which provider
+        String title = event.params() != null ? event.params().getOrDefault("title", "N/A") : "N/A";
+        String body = event.params() != null ? event.params().getOrDefault("body", "") : "";
+        String bodyPreview = body.length() > 60 ? body.substring(0, 60) + "..." : body;
+
+        Actor actor = new Actor(event.recipient(), event.recipient());
+        Entity entity = new Entity(notification.getId(), type + " → " + event.recipient());
+        String details = String.format("[%s] Sent to %s | Title: \"%s\" | Body: \"%s\" | Template: %s | EventId: %s",
+                type, event.recipient(), title, bodyPreview,
+                event.templateName() != null ? event.templateName() : "none",
+                event.eventId());
+        logService.storeLog(actor, event.type() + NOTIFICATION, entity, details, INFO);
     }
 
-    private boolean canSend(String recipient, String type) {
+    private void recordFailure(NotificationRequestEvent event, String type, Notification notification, Exception e) {
+        String title = event.params() != null ? event.params().getOrDefault("title", "N/A") : "N/A";
+        Actor actor = new Actor(event.recipient(), event.recipient());
+        Entity entity = new Entity(notification.getId(), type + " → " + event.recipient());
+        String details = String.format("[%s] FAILED for %s | Title: \"%s\" | Error: %s | EventId: %s",
+                type, event.recipient(), title,
+                e.getMessage() != null ? e.getMessage() : "Unknown error",
+                event.eventId());
+        logService.storeLog(actor, event.type() + NOTIFICATION, entity, details, ERROR);
+
+        updateStatus(notification, "FAILED", e.getMessage());
         try {
-            String key = "rate:notif:" + recipient + ":" + type;
-            String val = redisTemplate.opsForValue().get(key);
-            long count = val == null ? 0 : Long.parseLong(val);
-            if (count >= 5)
-                return false;
-            redisTemplate.opsForValue().increment(key);
-            redisTemplate.expire(key, 60, TimeUnit.SECONDS);
-        } catch (Exception e) {
-            log.warn("Redis unavailable for rate limiting ({}/{}). Allowing send.", recipient, type);
+            publishAnalytics(event, "FAILED", e.getMessage());
+        } catch (Exception analyticsEx) {
+            logService.storeLog(actor, "ANALYTICS_EVENT", entity, "Failed to publish analytics: " + analyticsEx.getMessage(), ERROR);
+            log.error("Failed to publish failure analytics for event {}", event.eventId(), analyticsEx);
         }
-        return true;
+        meterRegistry.counter("notification.failed", "type", type).increment();
     }
 
-    private Notification createNotification(NotificationRequestEvent event, String type) {
+    /**
+     * @param retryCount failed attempts so far; a retried delivery starts where the previous one stopped
+     */
+    private Notification createNotification(NotificationRequestEvent event, String type, int retryCount) {
         Notification n = new Notification();
         n.setEventId(event.eventId());
         n.setUserId(event.userId());
@@ -252,7 +479,7 @@ public class NotificationProcessingService {
         n.setRecipient(event.recipient());
         n.setTemplateName(event.templateName());
         n.setStatus("PENDING");
-        n.setRetryCount(0);
+        n.setRetryCount(retryCount);
         n.setMetadata(event.metadata());
         n.setCreatedAt(Instant.now());
         n.setUpdatedAt(Instant.now());
@@ -265,7 +492,6 @@ public class NotificationProcessingService {
         if ("FAILED".equals(status))
             n.setRetryCount(n.getRetryCount() + 1);
         n.setUpdatedAt(Instant.now());
-        notificationRepository.save(n);
     }
 
     private void publishAnalytics(NotificationRequestEvent event, String status, String error) {
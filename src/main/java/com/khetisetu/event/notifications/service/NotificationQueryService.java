@@ -1,15 +1,22 @@
 package com.khetisetu.event.notifications.service;
 
+import com.khetisetu.event.notifications.dto.CursorPage;
 import com.khetisetu.event.notifications.model.Notification;
 import com.khetisetu.event.notifications.repository.NotificationRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * Service layer for notification read/write queries.
@@ -21,30 +28,88 @@ import java.util.List;
 @Slf4j
 public class NotificationQueryService {
 
+    /** Upper bound of the count behind {@link CursorPage#estimatedTotal()}. */
+    static final int ESTIMATE_CAP = 1000;
+
     private final NotificationRepository notificationRepository;
+    private final UnreadCounterService unreadCounters;
+    private final MongoTemplate mongoTemplate;
 
     /**
-     * Gets paginated notifications for a user, optionally filtered by type.
+     * Gets paginated notifications for a user, optionally filtered by type. Content and metadata
+     * are not loaded; see {@link #getNotification}.
      */
     public Page<Notification> getUserNotifications(String userId, String type, Pageable pageable) {
         if (type != null && !type.isEmpty()) {
-            return notificationRepository.findByUserIdAndType(userId, type, pageable);
+            return notificationRepository.findSummariesByUserIdAndType(userId, type, pageable);
         }
-        return notificationRepository.findByUserId(userId, pageable);
+        return notificationRepository.findSummariesByUserId(userId, pageable);
     }
 
     /**
-     * Gets unread notifications for a user.
+     * Gets a user's notifications newest first, one keyset page after {@code cursor} (null for
+     * the first page). Unlike {@link #getUserNotifications} the cost does not grow with depth
+     * and nothing is counted unless asked for: {@code includeTotal} counts exactly on every page,
+     * {@code includeEstimate} counts up to {@value #ESTIMATE_CAP} on the first page only.
+     *
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    public CursorPage<Notification> scrollUserNotifications(String userId, String type, String cursor,
+                                                            int size, boolean includeTotal,
+                                                            boolean includeEstimate) {
+        Criteria filter = Criteria.where("userId").is(userId);
+        if (type != null && !type.isEmpty()) {
+            filter = filter.and("type").is(type);
+        }
+
+        boolean firstPage = cursor == null || cursor.isBlank();
+        Query query = new Query(filter);
+        if (!firstPage) {
+            CursorPage.Position after = CursorPage.Position.decode(cursor);
+            query.addCriteria(new Criteria().orOperator(
+                    Criteria.where("createdAt").lt(after.time()),
+                    Criteria.where("createdAt").is(after.time()).and("id").lt(after.id())));
+        }
+        query.with(Sort.by(Sort.Order.desc("createdAt"), Sort.Order.desc("id"))).limit(size + 1);
+        query.fields().exclude("content").exclude("metadata");
+
+        List<Notification> content = mongoTemplate.find(query, Notification.class);
+        boolean hasNext = content.size() > size;
+        String nextCursor = null;
+        if (hasNext) {
+            content = content.subList(0, size);
+            Notification last = content.get(content.size() - 1);
+            nextCursor = new CursorPage.Position(last.getCreatedAt(), last.getId()).encode();
+        }
+
+        Long total = includeTotal ? mongoTemplate.count(new Query(filter), Notification.class) : null;
+        Long estimate = null;
+        if (includeEstimate && firstPage) {
+            estimate = total != null ? total
+                    : mongoTemplate.count(new Query(filter).limit(ESTIMATE_CAP), Notification.class);
+        }
+        return new CursorPage<>(content, nextCursor, hasNext, total, estimate);
+    }
+
+    /**
+     * Gets unread notifications for a user, without content and metadata.
      */
     public List<Notification> getUnreadNotifications(String userId) {
-        return notificationRepository.findByUserIdAndIsReadFalse(userId);
+        return notificationRepository.findUnreadSummariesByUserId(userId);
+    }
+
+    /**
+     * Gets a single notification with its full content.
+     */
+    public Optional<Notification> getNotification(String notificationId) {
+        return notificationRepository.findById(notificationId);
     }
 
     /**
-     * Gets unread notification count for a user.
+     * Gets unread notification count for a user, served from the {@link UnreadCounterService}.
      */
     public Long getUnreadCount(String userId) {
-        return notificationRepository.countByUserIdAndIsReadFalse(userId);
+        return unreadCounters.getUnreadCount(userId);
     }
 
     /**
@@ -57,21 +122,25 @@ public class NotificationQueryService {
             notification.setRead(true);
             notification.setUpdatedAt(Instant.now());
             notificationRepository.save(notification);
+            unreadCounters.onRead(notification.getUserId());
             log.info("Marked notification {} as read for user {}", notificationId, notification.getUserId());
         }
         return notification;
     }
 
     /**
-     * Marks all notifications as read for a user.
+     * Marks all notifications as read for a user with a single server-side update.
+     *
+     * @return the number of notifications that were unread
      */
-    public void markAllAsRead(String userId) {
-        var unreadNotifications = notificationRepository.findByUserIdAndIsReadFalse(userId);
-        unreadNotifications.forEach(n -> {
-            n.setRead(true);
-            n.setUpdatedAt(Instant.now());
-        });
-        notificationRepository.saveAll(unreadNotifications);
-        log.info("Marked {} notifications as read for user {}", unreadNotifications.size(), userId);
+    public long markAllAsRead(String userId) {
+        long modified = mongoTemplate.updateMulti(
+                        Query.query(Criteria.where("userId").is(userId).and("isRead").is(false)),
+                        new Update().set("isRead", true).set("updatedAt", Instant.now()),
+                        Notification.class)
+                .getModifiedCount();
+        unreadCounters.onAllRead(userId);
+        log.info("Marked {} notifications as read for user {}", modified, userId);
+        return modified;
     }
 }
@@ -0,0 +1,220 @@
+package com.khetisetu.event.notifications.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.khetisetu.event.notifications.model.NotificationTemplate;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.stereotype.Component;
+import org.thymeleaf.TemplateEngine;
+import org.thymeleaf.context.Context;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.time.Year;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Startup-loaded registry of all notification templates.
+ *
+ * <p>Every {@code templates/{lang}/notification_templates.json} is parsed once into an immutable
+ * {@code lang -> name -> template} map, with subject and content compiled into
+ * {@link CompiledTemplate}s, so lookups (including misses) never touch the classpath again. The Thymeleaf email templates under {@code templates/{lang}/} are parsed
+ * into the engine's template cache at startup and again on {@link #warmup()}, so the first emails
+ * after a deploy don't pay for parsing. Renders are timed in {@code notification.template.render}.</p>
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class NotificationTemplateRegistry {
+
+    private static final String TEMPLATE_ROOT = "templates/";
+    private static final String DEFINITIONS_FILE = "notification_templates.json";
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter
+            .ofPattern("dd MMM yyyy, hh:mm a")
+            .withZone(ZoneId.systemDefault());
+
+    private final ObjectMapper objectMapper;
+    private final TemplateEngine templateEngine;
+    private final MeterRegistry meterRegistry;
+
+    private final ResourcePatternResolver resourceResolver = new PathMatchingResourcePatternResolver();
+
+    // lang -> template name -> entry; replaced wholesale, never mutated
+    private volatile Map<String, Map<String, Entry>> definitions = Map.of();
+    // "lang/name" of every HTML email template found on the classpath
+    private volatile Set<String> htmlTemplates = Set.of();
+
+    /**
+     * A template definition together with its compiled subject and content.
+     */
+    public record Entry(NotificationTemplate definition, CompiledTemplate subject, CompiledTemplate content) {
+
+        static Entry of(NotificationTemplate definition) {
+            return new Entry(definition,
+                    CompiledTemplate.compile(definition.getSubject()),
+                    CompiledTemplate.compile(definition.getContent()));
+        }
+    }
+
+    /**
+     * Result of a {@link #warmup()}: how many templates were loaded and how long it took.
+     */
+    public record WarmupResult(int definitions, int htmlTemplates, int htmlFailures, long durationMs) {
+    }
+
+    @PostConstruct
+    void init() {
+        WarmupResult result = warmup();
+        log.info("Template registry loaded {} definitions and {} HTML templates ({} failed) in {} ms",
+                result.definitions(), result.htmlTemplates(), result.htmlFailures(), result.durationMs());
+    }
+
+    /**
+     * Reloads all template definitions and parses every HTML email template into Thymeleaf's
+     * template cache. Safe to call at any time; lookups keep using the previous snapshot until
+     * the new one is complete.
+     */
+    public synchronized WarmupResult warmup() {
+        long start = System.nanoTime();
+        definitions = loadDefinitions();
+        htmlTemplates = findHtmlTemplates();
+
+        int failures = 0;
+        for (String path : htmlTemplates) {
+            try {
+                // Parsing caches the template even if rendering fails on missing variables below
+                templateEngine.process(path, new Context(Locale.forLanguageTag(path.substring(0, path.indexOf('/')))));
+            } catch (Exception e) {
+                failures++;
+                log.debug("Warmup render of {} failed (template is still cached if it parsed): {}", path, e.getMessage());
+            }
+        }
+        int count = definitions.values().stream().mapToInt(Map::size).sum();
+        return new WarmupResult(count, htmlTemplates.size(), failures, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Returns a template in the given language, or null if there is none.
+     */
+    public Entry find(String templateName, String language) {
+        if (templateName == null || language == null) {
+            return null;
+        }
+        return definitions.getOrDefault(language, Map.of()).get(templateName);
+    }
+
+    /**
+     * Whether {@code templates/{language}/{templateName}.html} exists.
+     */
+    public boolean hasHtml(String templateName, String language) {
+        return htmlTemplates.contains(language + "/" + templateName);
+    }
+
+    /**
+     * Renders {@code templates/{language}/{templateName}.html} with the given params plus the
+     * common {@code createdDate} and {@code year} variables.
+     */
+    public String renderHtml(String templateName, String language, Map<String, String> params) {
+        return renderHtml(templateName, language, params, Instant.now());
+    }
+
+    /**
+     * Same as {@link #renderHtml(String, String, Map)}, with {@code createdDate} and {@code year}
+     * taken from the given instant.
+     */
+    public String renderHtml(String templateName, String language, Map<String, String> params, Instant renderedAt) {
+        String templatePath = language + "/" + templateName;
+        Context context = new Context(Locale.forLanguageTag(language));
+        if (params != null) {
+            params.forEach(context::setVariable);
+        }
+        context.setVariable("createdDate", DATE_FORMATTER.format(renderedAt));
+        context.setVariable("year", Year.from(renderedAt.atZone(ZoneId.systemDefault())).getValue());
+
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "success";
+        try {
+            return templateEngine.process(templatePath, context);
+        } catch (RuntimeException e) {
+            outcome = "error";
+            throw e;
+        } finally {
+            sample.stop(Timer.builder("notification.template.render")
+                    .tag("template", templateName)
+                    .tag("language", language)
+                    .tag("outcome", outcome)
+                    .description("Time to render an email template")
+                    .register(meterRegistry));
+        }
+    }
+
+    private Map<String, Map<String, Entry>> loadDefinitions() {
+        Map<String, Map<String, Entry>> loaded = new HashMap<>();
+        for (Resource resource : resources("classpath*:" + TEMPLATE_ROOT + "*/" + DEFINITIONS_FILE)) {
+            String language = languageOf(resource);
+            if (language == null) {
+                continue;
+            }
+            try (InputStream in = resource.getInputStream()) {
+                NotificationTemplate[] templates = objectMapper.readValue(in, NotificationTemplate[].class);
+                Map<String, Entry> byName = new HashMap<>();
+                for (NotificationTemplate template : templates) {
+                    if (template.getName() != null && !byName.containsKey(template.getName())) {
+                        byName.put(template.getName(), Entry.of(template));
+                    }
+                }
+                loaded.put(language, Map.copyOf(byName));
+            } catch (IOException e) {
+                log.warn("Failed to load {} for language {}: {}", DEFINITIONS_FILE, language, e.getMessage());
+            }
+        }
+        return Map.copyOf(loaded);
+    }
+
+    private Set<String> findHtmlTemplates() {
+        Set<String> paths = new TreeSet<>();
+        for (Resource resource : resources("classpath*:" + TEMPLATE_ROOT + "*/*.html")) {
+            String language = languageOf(resource);
+            String filename = resource.getFilename();
+            if (language != null && filename != null) {
+                paths.add(language + "/" + filename.substring(0, filename.length() - ".html".length()));
+            }
+        }
+        return Set.copyOf(paths);
+    }
+
+    private Resource[] resources(String pattern) {
+        try {
+            return resourceResolver.getResources(pattern);
+        } catch (IOException e) {
+            log.warn("Failed to scan templates matching {}: {}", pattern, e.getMessage());
+            return new Resource[0];
+        }
+    }
+
+    /** The {@code {lang}} directory a template resource lives in. */
+    private String languageOf(Resource resource) {
+        try {
+            String url = resource.getURL().toString();
+            int end = url.lastIndexOf('/');
+            int start = url.lastIndexOf('/', end - 1);
+            return start >= 0 ? url.substring(start + 1, end) : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.khetisetu.event.notifications.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel for items due at a given epoch millisecond.
+ *
+ * <p>Level 0 has {@code wheelSize} buckets of {@code tickMs} each; every level above covers
+ * {@code wheelSize} buckets of the whole span of the level below. An item goes to the lowest
+ * level whose span reaches its due time, and is moved down a level each time the clock enters
+ * its bucket, so adding and expiring are O(1) regardless of how many items are waiting.
+ * Items expire with tick precision: once the clock enters the tick holding their due time.</p>
+ *
+ * <p>Not thread-safe; callers synchronize.</p>
+ */
+class TimingWheel<T> {
+
+    private record Entry<T>(T item, long dueAtMs) {
+    }
+
+    private final long tickMs;
+    private final int wheelSize;
+    private final long[] levelTickMs;
+    private final List<List<Entry<T>>[]> levels;
+    private long currentTime;
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    TimingWheel(long tickMs, int wheelSize, int levelCount, long startMs) {
+        this.tickMs = tickMs;
+        this.wheelSize = wheelSize;
+        this.levelTickMs = new long[levelCount];
+        this.levels = new ArrayList<>(levelCount);
+        long tick = tickMs;
+        for (int i = 0; i < levelCount; i++) {
+            levelTickMs[i] = tick;
+            @SuppressWarnings("unchecked")
+            List<Entry<T>>[] buckets = (List<Entry<T>>[]) new List<?>[wheelSize];
+            for (int b = 0; b < wheelSize; b++) {
+                buckets[b] = new ArrayList<>();
+            }
+            levels.add(buckets);
+            tick = Math.multiplyExact(tick, wheelSize);
+        }
+        this.currentTime = startMs - Math.floorMod(startMs, tickMs);
+    }
+
+    /**
+     * Latest due time the wheel can hold, relative to its clock.
+     */
+    long horizonMs() {
+        return levelTickMs[levelTickMs.length - 1] * (wheelSize - 1);
+    }
+
+    /**
+     * Adds an item unless it is already due or beyond the horizon.
+     *
+     * @return false if the item was not added: it is due now ({@code dueAtMs} within the current
+     *         tick) or too far ahead ({@link #horizonMs()})
+     */
+    boolean add(T item, long dueAtMs) {
+        if (dueAtMs < currentTime + tickMs) {
+            return false;
+        }
+        for (int level = 0; level < levelTickMs.length; level++) {
+            long tick = levelTickMs[level];
+            if (Math.floorDiv(dueAtMs, tick) - Math.floorDiv(currentTime, tick) < wheelSize) {
+                bucket(level, dueAtMs).add(new Entry<>(item, dueAtMs));
+                size++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves the clock forward to {@code nowMs} and returns every item that became due, in due order
+     * within each tick.
+     */
+    List<T> advance(long nowMs) {
+        List<T> expired = new ArrayList<>();
+        while (currentTime + tickMs <= nowMs) {
+            currentTime += tickMs;
+            // Entering a new bucket of an upper level: move its items down, highest level first
+            for (int level = levelTickMs.length - 1; level > 0; level--) {
+                if (Math.floorMod(currentTime, levelTickMs[level]) == 0) {
+                    List<Entry<T>> bucket = bucket(level, currentTime);
+                    List<Entry<T>> moved = new ArrayList<>(bucket);
+                    bucket.clear();
+                    size -= moved.size();
+                    for (Entry<T> entry : moved) {
+                        if (!add(entry.item(), entry.dueAtMs())) {
+                            expired.add(entry.item());
+                        }
+                    }
+                }
+            }
+            List<Entry<T>> due = bucket(0, currentTime);
+            if (!due.isEmpty()) {
+                due.sort((a, b) -> Long.compare(a.dueAtMs(), b.dueAtMs()));
+                due.forEach(entry -> expired.add(entry.item()));
+                size -= due.size();
+                due.clear();
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Number of items waiting in the wheel.
+     */
+    int size() {
+        return size;
+    }
+
+    private List<Entry<T>> bucket(int level, long timeMs) {
+        return levels.get(level)[(int) Math.floorMod(Math.floorDiv(timeMs, levelTickMs[level]), (long) wheelSize)];
+    }
+}
@@ -0,0 +1,234 @@
+package com.khetisetu.event.notifications.service;
+
+import com.khetisetu.event.notifications.model.Notification;
+import com.khetisetu.event.notifications.repository.NotificationRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unread-count read model for the notification inbox, kept in Redis as one counter per user.
+ *
+ * <p>A counter is created from MongoDB ({@code countByUserIdAndIsReadFalse}) the first time it is
+ * read and from then on maintained incrementally: +n when notifications are created, -1 in
+ * markAsRead, 0 in markAllAsRead. Increments and decrements only touch counters that exist, so a
+ * user whose counter expired ({@code notifications.unread-counter.ttl-seconds} after the last
+ * write) is simply recounted on the next read. A background reconciler recounts every cached
+ * counter each {@code notifications.unread-counter.reconcile-interval-ms} to repair drift
+ * (e.g. a read racing with a buffered insert). If Redis is unavailable reads fall back to MongoDB.</p>
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class UnreadCounterService {
+
+    static final String KEY_PREFIX = "notif:unread:";
+
+    /** KEYS = counters, ARGV = [ttl, delta per key...]; adds only to counters that exist. */
+    static final RedisScript<Long> ADD_IF_PRESENT_SCRIPT = RedisScript.of(
+            "local updated = 0 "
+                    + "for i, key in ipairs(KEYS) do "
+                    + "  if redis.call('EXISTS', key) == 1 then "
+                    + "    if redis.call('INCRBY', key, ARGV[i + 1]) < 0 then "
+                    + "      redis.call('DEL', key) "
+                    + "    else "
+                    + "      redis.call('EXPIRE', key, ARGV[1]) "
+                    + "    end "
+                    + "    updated = updated + 1 "
+                    + "  end "
+                    + "end "
+                    + "return updated",
+            Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final NotificationRepository notificationRepository;
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${notifications.unread-counter.ttl-seconds:86400}")
+    private long ttlSeconds = 86_400;
+
+    @Value("${notifications.unread-counter.reconcile-interval-ms:600000}")
+    private long reconcileIntervalMs = 600_000;
+
+    @Value("${notifications.unread-counter.reconcile-batch-size:500}")
+    private int reconcileBatchSize = 500;
+
+    private final ScheduledExecutorService reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "unread-counter-reconciler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @PostConstruct
+    void start() {
+        reconciler.scheduleWithFixedDelay(this::reconcile, reconcileIntervalMs, reconcileIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        reconciler.shutdownNow();
+    }
+
+    /**
+     * Unread notifications of a user: a single key lookup once the counter exists.
+     */
+    public long getUnreadCount(String userId) {
+        String key = KEY_PREFIX + userId;
+        try {
+            String cached = redisTemplate.opsForValue().get(key);
+            if (cached != null) {
+                return Long.parseLong(cached);
+            }
+        } catch (Exception e) {
+            log.warn("Unread counter lookup failed for {}, counting in MongoDB: {}", userId, e.getMessage());
+            return countInMongo(userId);
+        }
+
+        long count = countInMongo(userId);
+        try {
+            // Keep a counter someone else initialized (and maybe updated) meanwhile
+            redisTemplate.opsForValue().setIfAbsent(key, String.valueOf(count), Duration.ofSeconds(ttlSeconds));
+        } catch (Exception e) {
+            log.warn("Failed to cache unread counter for {}: {}", userId, e.getMessage());
+        }
+        return count;
+    }
+
+    /**
+     * Counts newly created notifications, one round trip for the whole batch.
+     */
+    public void onCreated(List<Notification> notifications) {
+        Map<String, Long> deltas = new LinkedHashMap<>();
+        for (Notification n : notifications) {
+            if (n.getUserId() != null && !n.isRead()) {
+                deltas.merge(n.getUserId(), 1L, Long::sum);
+            }
+        }
+        add(deltas);
+    }
+
+    /**
+     * A notification went from unread to read.
+     */
+    public void onRead(String userId) {
+        if (userId != null) {
+            add(Map.of(userId, -1L));
+        }
+    }
+
+    /**
+     * All of a user's notifications were marked as read.
+     */
+    public void onAllRead(String userId) {
+        try {
+            redisTemplate.opsForValue().set(KEY_PREFIX + userId, "0", Duration.ofSeconds(ttlSeconds));
+        } catch (Exception e) {
+            log.warn("Failed to reset unread counter for {}: {}", userId, e.getMessage());
+            evict(userId);
+        }
+    }
+
+    /**
+     * Recounts every cached counter in MongoDB, one aggregation per batch of users.
+     */
+    void reconcile() {
+        int repaired = 0;
+        int checked = 0;
+        ScanOptions options = ScanOptions.scanOptions().match(KEY_PREFIX + "*").count(reconcileBatchSize).build();
+        try (Cursor<String> keys = redisTemplate.scan(options)) {
+            List<String> userIds = new ArrayList<>(reconcileBatchSize);
+            while (keys.hasNext()) {
+                userIds.add(keys.next().substring(KEY_PREFIX.length()));
+                if (userIds.size() == reconcileBatchSize || !keys.hasNext()) {
+                    repaired += reconcile(userIds);
+                    checked += userIds.size();
+                    userIds.clear();
+                }
+            }
+        } catch (Exception e) {
+            log.error("Unread counter reconciliation failed: {}", e.getMessage());
+        }
+        if (repaired > 0) {
+            log.info("Reconciled unread counters: {} of {} repaired", repaired, checked);
+        }
+    }
+
+    private int reconcile(List<String> userIds) {
+        Map<String, Long> actual = new HashMap<>();
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where("userId").in(userIds).and("isRead").is(false)),
+                Aggregation.group("userId").count().as("count"));
+        for (Document row : mongoTemplate.aggregate(aggregation, Notification.class, Document.class)) {
+            actual.put(row.getString("_id"), ((Number) row.get("count")).longValue());
+        }
+
+        List<String> keys = userIds.stream().map(id -> KEY_PREFIX + id).toList();
+        List<String> cached = redisTemplate.opsForValue().multiGet(keys);
+        int repaired = 0;
+        for (int i = 0; i < userIds.size(); i++) {
+            String expected = String.valueOf(actual.getOrDefault(userIds.get(i), 0L));
+            String current = cached != null ? cached.get(i) : null;
+            if (current != null && !current.equals(expected)) {
+                // Only fix counters that still exist; a concurrent update is fixed next round
+                redisTemplate.opsForValue().setIfPresent(keys.get(i), expected, Duration.ofSeconds(ttlSeconds));
+                repaired++;
+            }
+        }
+        return repaired;
+    }
+
+    private void add(Map<String, Long> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        List<String> keys = new ArrayList<>(deltas.size());
+        Object[] args = new Object[deltas.size() + 1];
+        args[0] = String.valueOf(ttlSeconds);
+        int i = 1;
+        for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+            keys.add(KEY_PREFIX + delta.getKey());
+            args[i++] = String.valueOf(delta.getValue());
+        }
+        try {
+            redisTemplate.execute(ADD_IF_PRESENT_SCRIPT, keys, args);
+        } catch (Exception e) {
+            log.warn("Failed to update {} unread counters: {}", keys.size(), e.getMessage());
+            // A counter that missed an update must not be served any more
+            deltas.keySet().forEach(this::evict);
+        }
+    }
+
+    private void evict(String userId) {
+        try {
+            redisTemplate.delete(KEY_PREFIX + userId);
+        } catch (Exception e) {
+            log.debug("Failed to evict unread counter for {}: {}", userId, e.getMessage());
+        }
+    }
+
+    private long countInMongo(String userId) {
+        Long count = notificationRepository.countByUserIdAndIsReadFalse(userId);
+        return count != null ? count : 0L;
+    }
+}
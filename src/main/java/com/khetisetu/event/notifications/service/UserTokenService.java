@@ -1,26 +1,96 @@
 package com.khetisetu.event.notifications.service;
 
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
-import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.LinkedHashSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Reads and maintains users' FCM tokens in the shared {@code users} collection.
+ *
+ * <p>Token lookups are cached per user: a bounded, access-ordered local cache with a TTL
+ * ({@code push.token-cache.*}) and, optionally, a Redis tier shared by all instances
+ * ({@code push.token-cache.redis.*}). Users without tokens are cached too. {@link #invalidateToken}
+ * evicts the user from both tiers and queues the token for a batched cleanup, and {@link #prefetch} loads many users with one {@code $in}
+ * query. Tokens a user registers on the main backend become visible once the entry expires.</p>
+ */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class UserTokenService {
 
+    private static final String REDIS_KEY = "fcm:tokens:%s";
+    private static final String REDIS_SEPARATOR = "\n";
+    private static final String USERS = "users";
+    /** Web Push endpoint of Firebase-issued subscriptions; legacy clients stored the token only here. */
+    private static final String FCM_ENDPOINT_PREFIX = "https://fcm.googleapis.com/fcm/send/";
+
     private final MongoTemplate mongoTemplate;
+    private final StringRedisTemplate redisTemplate;
+
+    @Value("${push.token-cache.max-size:50000}")
+    private int cacheMaxSize = 50_000;
+
+    @Value("${push.token-cache.ttl-seconds:300}")
+    private long cacheTtlSeconds = 300;
+
+    @Value("${push.token-cache.redis.enabled:false}")
+    private boolean redisEnabled;
+
+    @Value("${push.token-cache.redis.ttl-seconds:900}")
+    private long redisTtlSeconds = 900;
+
+    @Value("${push.token-cleanup.interval-ms:1000}")
+    private long cleanupIntervalMs = 1000;
+
+    @Value("${push.token-cleanup.batch-size:500}")
+    private int cleanupBatchSize = 500;
+
+    /** userId -> stale tokens waiting to be removed; guarded by itself. */
+    private final Map<String, Set<String>> pendingInvalidations = new LinkedHashMap<>();
+    private final Object cleanupLock = new Object();
+    private final ScheduledExecutorService cleaner = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "fcm-token-cleaner");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** userId -> tokens; access-ordered so the least recently used user is evicted first. */
+    private final LinkedHashMap<String, CachedTokens> cache = new LinkedHashMap<>(1024, 0.75f, true);
+
+    private record CachedTokens(List<String> tokens, long expiresAtMillis) {
+    }
 
     /**
      * Returns ALL FCM tokens for a user across all their devices.
@@ -28,50 +98,198 @@ public class UserTokenService {
      * `pushSubscription` field.
      */
     public List<String> getFcmTokens(String userId) {
-        Set<String> tokens = new LinkedHashSet<>(); // Deduplicate
+        List<String> cached = getCached(userId);
+        if (cached != null) {
+            return cached;
+        }
+        cached = getFromRedis(List.of(userId)).get(userId);
+        if (cached != null) {
+            putLocal(userId, cached);
+            return cached;
+        }
 
         try {
             Query query = new Query(Criteria.where("_id").is(userId));
             query.fields().include("pushSubscription").include("pushSubscriptions");
-            Map<String, Object> user = mongoTemplate.findOne(query, Map.class, "users");
-
-            if (user == null)
-                return List.of();
-
-            // 1. Read from new pushSubscriptions list
-            Object subsList = user.get("pushSubscriptions");
-            if (subsList instanceof List) {
-                int idx = 0;
-                for (Object item : (List<?>) subsList) {
-                    String token = extractTokenFromSubscription(item);
-                    if (token != null) {
-                        tokens.add(token);
-                        log.info("[FCM DEBUG] User {} pushSubscriptions[{}] token: {}... (len={})",
-                                userId, idx, token.substring(0, Math.min(20, token.length())), token.length());
-                    }
-                    idx++;
+            Map<String, Object> user = mongoTemplate.findOne(query, Map.class, USERS);
+
+            List<String> tokens = user == null ? List.of() : withoutPendingInvalidations(userId, extractTokens(userId, user));
+            cache(Map.of(userId, tokens));
+            return tokens;
+        } catch (Exception e) {
+            log.error("Failed to fetch tokens for user {}: {}", userId, e.getMessage());
+            return List.of();
+        }
+    }
+
+    /**
+     * Loads the tokens of every given user that is not cached yet, using one Redis MGET and one
+     * {@code $in} query on {@code users}, so the following {@link #getFcmTokens} calls are served
+     * from the cache.
+     */
+    public void prefetch(Collection<String> userIds) {
+        Set<String> missing = new LinkedHashSet<>();
+        for (String userId : userIds) {
+            if (userId != null && getCached(userId) == null) {
+                missing.add(userId);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        getFromRedis(missing).forEach((userId, tokens) -> {
+            putLocal(userId, tokens);
+            missing.remove(userId);
+        });
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        try {
+            Query query = new Query(Criteria.where("_id").in(missing));
+            query.fields().include("pushSubscription").include("pushSubscriptions");
+            List<Document> users = mongoTemplate.find(query, Document.class, USERS);
+
+            Map<String, List<String>> loaded = new HashMap<>();
+            for (Document user : users) {
+                String userId = String.valueOf(user.get("_id"));
+                loaded.put(userId, withoutPendingInvalidations(userId, extractTokens(userId, user)));
+            }
+            // Users that don't exist are cached as having no tokens
+            missing.forEach(userId -> loaded.putIfAbsent(userId, List.of()));
+            cache(loaded);
+            log.debug("Prefetched FCM tokens for {} users ({} found)", missing.size(), users.size());
+        } catch (Exception e) {
+            log.error("Failed to prefetch tokens for {} users: {}", missing.size(), e.getMessage());
+        }
+    }
+
+    private List<String> extractTokens(String userId, Map<String, Object> user) {
+        Set<String> tokens = new LinkedHashSet<>(); // Deduplicate
+
+        // 1. Read from new pushSubscriptions list
+        Object subsList = user.get("pushSubscriptions");
+        if (subsList instanceof List) {
+            for (Object item : (List<?>) subsList) {
+                String token = extractTokenFromSubscription(item);
+                if (token != null) {
+                    tokens.add(token);
                 }
             }
+        }
+
+        // 2. Fallback: read from legacy single pushSubscription
+        Object sub = user.get("pushSubscription");
+        String legacyToken = extractTokenFromSubscription(sub);
+        if (legacyToken != null) {
+            tokens.add(legacyToken);
+        }
+
+        if (tokens.isEmpty()) {
+            log.debug("User {} has no FCM tokens", userId);
+        } else {
+            log.debug("User {} has {} unique FCM tokens", userId, tokens.size());
+        }
+        return List.copyOf(tokens);
+    }
 
-            // 2. Fallback: read from legacy single pushSubscription
-            Object sub = user.get("pushSubscription");
-            String legacyToken = extractTokenFromSubscription(sub);
-            if (legacyToken != null) {
-                tokens.add(legacyToken);
-                log.info("[FCM DEBUG] User {} legacy pushSubscription token: {}... (len={})",
-                        userId, legacyToken.substring(0, Math.min(20, legacyToken.length())), legacyToken.length());
+    private List<String> getCached(String userId) {
+        synchronized (cache) {
+            CachedTokens entry = cache.get(userId);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAtMillis() < System.currentTimeMillis()) {
+                cache.remove(userId);
+                return null;
             }
+            return entry.tokens();
+        }
+    }
 
-            if (tokens.isEmpty()) {
-                log.warn("[FCM DEBUG] User {} has NO FCM tokens in DB at all", userId);
-            } else {
-                log.info("[FCM DEBUG] User {} total unique tokens to send: {}", userId, tokens.size());
+    private void putLocal(String userId, List<String> tokens) {
+        long expiresAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(cacheTtlSeconds);
+        synchronized (cache) {
+            cache.put(userId, new CachedTokens(tokens, expiresAt));
+            if (cache.size() > cacheMaxSize) {
+                Iterator<String> eldest = cache.keySet().iterator();
+                while (cache.size() > cacheMaxSize && eldest.hasNext()) {
+                    eldest.next();
+                    eldest.remove();
+                }
             }
+        }
+    }
+
+    private void cache(Map<String, List<String>> tokensByUser) {
+        tokensByUser.forEach(this::putLocal);
+        if (!redisEnabled || tokensByUser.isEmpty()) {
+            return;
+        }
+        try {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                tokensByUser.forEach((userId, tokens) -> connection.stringCommands().setEx(
+                        String.format(REDIS_KEY, userId).getBytes(StandardCharsets.UTF_8),
+                        redisTtlSeconds,
+                        String.join(REDIS_SEPARATOR, tokens).getBytes(StandardCharsets.UTF_8)));
+                return null;
+            });
         } catch (Exception e) {
-            log.error("Failed to fetch tokens for user {}: {}", userId, e.getMessage());
+            log.warn("Redis unavailable for caching tokens of {} users. Skipping.", tokensByUser.size());
+        }
+    }
+
+    private Map<String, List<String>> getFromRedis(Collection<String> userIds) {
+        if (!redisEnabled || userIds.isEmpty()) {
+            return Map.of();
+        }
+        try {
+            List<String> ids = List.copyOf(userIds);
+            List<String> values = redisTemplate.opsForValue()
+                    .multiGet(ids.stream().map(id -> String.format(REDIS_KEY, id)).toList());
+            Map<String, List<String>> found = new HashMap<>();
+            for (int i = 0; values != null && i < ids.size() && i < values.size(); i++) {
+                String value = values.get(i);
+                if (value != null) {
+                    List<String> tokens = value.isEmpty() ? List.of() : List.of(value.split(REDIS_SEPARATOR));
+                    found.put(ids.get(i), withoutPendingInvalidations(ids.get(i), tokens));
+                }
+            }
+            return found;
+        } catch (Exception e) {
+            log.warn("Redis unavailable for reading tokens of {} users. Falling back to MongoDB.", userIds.size());
+            return Map.of();
+        }
+    }
+
+    /**
+     * Drops the tokens still queued for removal: until the $pull is applied, {@code users} (and
+     * another instance's Redis entry) may still hold them.
+     */
+    private List<String> withoutPendingInvalidations(String userId, List<String> tokens) {
+        Set<String> stale;
+        synchronized (pendingInvalidations) {
+            Set<String> pending = pendingInvalidations.get(userId);
+            if (pending == null || tokens.isEmpty()) {
+                return tokens;
+            }
+            stale = Set.copyOf(pending);
         }
+        return tokens.stream().filter(token -> !stale.contains(token)).toList();
+    }
 
-        return new ArrayList<>(tokens);
+    private void evict(String userId) {
+        synchronized (cache) {
+            cache.remove(userId);
+        }
+        if (redisEnabled) {
+            try {
+                redisTemplate.delete(String.format(REDIS_KEY, userId));
+            } catch (Exception e) {
+                log.warn("Redis unavailable for evicting tokens of user {}. Skipping.", userId);
+            }
+        }
     }
 
     @SuppressWarnings("unchecked")
@@ -104,7 +322,7 @@ public class UserTokenService {
         // device silently never receives anything. If only an endpoint is present,
         // the client must re-register a real FCM token via getToken().
         if (subMap.containsKey("endpoint")) {
-            log.warn("[FCM DEBUG] Subscription has a Web Push endpoint but no FCM token — skipping. "
+            log.debug("Subscription has a Web Push endpoint but no FCM token — skipping. "
                     + "Client must re-register via Firebase getToken().");
         }
 
@@ -112,63 +330,103 @@ public class UserTokenService {
     }
 
     /**
-     * Removes a specific stale token from both pushSubscriptions list
-     * and the legacy pushSubscription field.
-     * Handles all 3 token storage formats:
-     * 1. token field directly
-     * 2. embedded in endpoint URL (fcm.googleapis.com/fcm/send/{token})
-     * 3. keys.fcm field
+     * Queues a stale token for removal and stops handing it out immediately: the user's cache
+     * entry is evicted and every reload filters out queued tokens. The token is removed from
+     * MongoDB by the next {@link #flushInvalidations()}, together with every other token queued
+     * in the meantime.
      */
     public void invalidateToken(String userId, String staleToken) {
-        try {
-            String tokenPrefix = staleToken.substring(0, Math.min(10, staleToken.length()));
-            long totalRemoved = 0;
-
-            Query userQuery = new Query(Criteria.where("_id").is(userId));
-
-            // Strategy 1: pull from pushSubscriptions[] where token field matches
-            var result1 = mongoTemplate.updateFirst(userQuery,
-                    new Update().pull("pushSubscriptions",
-                            new org.bson.Document("token", staleToken)),
-                    "users");
-            totalRemoved += result1.getModifiedCount();
-
-            // Strategy 2: pull from pushSubscriptions[] where endpoint URL ends with the
-            // token (legacy data only — current clients store the token directly)
-            var result2 = mongoTemplate.updateFirst(userQuery,
-                    new Update().pull("pushSubscriptions",
-                            new org.bson.Document("endpoint",
-                                    new org.bson.Document("$regex",
-                                            ".*" + java.util.regex.Pattern.quote(staleToken) + "$"))),
-                    "users");
-            totalRemoved += result2.getModifiedCount();
-
-            // Strategy 3: pull from pushSubscriptions[] where keys.fcm matches
-            var result3 = mongoTemplate.updateFirst(userQuery,
-                    new Update().pull("pushSubscriptions",
-                            new org.bson.Document("keys.fcm", staleToken)),
-                    "users");
-            totalRemoved += result3.getModifiedCount();
-
-            // Strategy 4: unset legacy pushSubscription if its token matches (any format)
-            Criteria legacyCriteria = Criteria.where("_id").is(userId).orOperator(
-                    Criteria.where("pushSubscription.token").is(staleToken),
-                    Criteria.where("pushSubscription.endpoint")
-                            .regex(".*" + java.util.regex.Pattern.quote(staleToken) + "$"),
-                    Criteria.where("pushSubscription.keys.fcm").is(staleToken));
-            var result4 = mongoTemplate.updateFirst(new Query(legacyCriteria),
-                    new Update().unset("pushSubscription"), "users");
-            totalRemoved += result4.getModifiedCount();
-
-            if (totalRemoved > 0) {
-                log.info("Successfully removed stale FCM token for user {} (token: {}..., {} document updates)",
-                        userId, tokenPrefix, totalRemoved);
-            } else {
-                log.warn("Failed to remove stale FCM token for user {} (token: {}...) — token not found in any format. "
-                        + "Manual DB cleanup may be needed.", userId, tokenPrefix);
+        if (userId == null || staleToken == null || staleToken.isBlank()) {
+            return;
+        }
+        evict(userId);
+        int pending;
+        synchronized (pendingInvalidations) {
+            pendingInvalidations.computeIfAbsent(userId, k -> new LinkedHashSet<>()).add(staleToken);
+            pending = pendingInvalidations.size();
+        }
+        if (pending >= cleanupBatchSize && !cleaner.isShutdown()) {
+            cleaner.execute(this::flushInvalidations);
+        }
+    }
+
+    /**
+     * Removes every queued stale token with a single unordered bulkWrite: per user, one
+     * {@code $pull} from {@code pushSubscriptions} matching any of the user's stale tokens, and
+     * one {@code $unset} of the legacy {@code pushSubscription} if it holds one of them.
+     *
+     * <p>Tokens are matched exactly on {@code token}, {@code keys.fcm} and the canonical FCM Web
+     * Push {@code endpoint}, so no regex scan is needed. Tokens stay queued (and filtered out of
+     * cache loads) until the write succeeds; the users' cache entries are then evicted again so
+     * an entry loaded while the write was in flight is not served for its whole TTL.</p>
+     */
+    public void flushInvalidations() {
+        synchronized (cleanupLock) {
+            Map<String, Set<String>> batch;
+            synchronized (pendingInvalidations) {
+                if (pendingInvalidations.isEmpty()) {
+                    return;
+                }
+                batch = new LinkedHashMap<>();
+                pendingInvalidations.forEach((userId, tokens) -> batch.put(userId, Set.copyOf(tokens)));
             }
-        } catch (Exception e) {
-            log.error("Failed to invalidate token for user {}: {}", userId, e.getMessage(), e);
+
+            List<WriteModel<Document>> models = new ArrayList<>(batch.size() * 2);
+            batch.forEach((userId, tokens) -> {
+                List<String> staleTokens = List.copyOf(tokens);
+                List<String> endpoints = staleTokens.stream().map(t -> FCM_ENDPOINT_PREFIX + t).toList();
+                Bson user = Filters.eq("_id", ObjectId.isValid(userId) ? new ObjectId(userId) : userId);
+
+                models.add(new UpdateOneModel<>(user, Updates.pull("pushSubscriptions", Filters.or(
+                        Filters.in("token", staleTokens),
+                        Filters.in("keys.fcm", staleTokens),
+                        Filters.in("endpoint", endpoints)))));
+                models.add(new UpdateOneModel<>(Filters.and(user, Filters.or(
+                        Filters.in("pushSubscription.token", staleTokens),
+                        Filters.in("pushSubscription.keys.fcm", staleTokens),
+                        Filters.in("pushSubscription.endpoint", endpoints))),
+                        Updates.unset("pushSubscription")));
+            });
+
+            try {
+                BulkWriteResult result = mongoTemplate.getCollection(USERS)
+                        .bulkWrite(models, new BulkWriteOptions().ordered(false));
+                int tokens = batch.values().stream().mapToInt(Set::size).sum();
+                log.info("Removed {} stale FCM tokens of {} users ({} documents modified)",
+                        tokens, batch.size(), result.wasAcknowledged() ? result.getModifiedCount() : -1);
+            } catch (Exception e) {
+                log.error("Failed to remove stale FCM tokens of {} users, will retry: {}",
+                        batch.size(), e.getMessage());
+                return;
+            }
+            synchronized (pendingInvalidations) {
+                batch.forEach((userId, tokens) -> {
+                    // Tokens invalidated while the write was in flight stay queued
+                    Set<String> pending = pendingInvalidations.get(userId);
+                    pending.removeAll(tokens);
+                    if (pending.isEmpty()) {
+                        pendingInvalidations.remove(userId);
+                    }
+                });
+            }
+            batch.keySet().forEach(this::evict);
+        }
+    }
+
+    @PostConstruct
+    void startCleaner() {
+        cleaner.scheduleWithFixedDelay(this::flushInvalidations,
+                cleanupIntervalMs, cleanupIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stopCleaner() {
+        cleaner.shutdown();
+        try {
+            cleaner.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        flushInvalidations();
     }
 }
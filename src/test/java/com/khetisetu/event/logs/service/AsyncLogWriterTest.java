@@ -0,0 +1,170 @@
+package com.khetisetu.event.logs.service;
+
+import com.khetisetu.event.logs.service.AsyncLogWriter.OverflowPolicy;
+import com.khetisetu.event.notifications.model.logs.Log;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertManyOptions;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class AsyncLogWriterTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+    @Mock
+    private MongoCollection<Document> collection;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        MongoCustomConversions conversions = new MongoCustomConversions(List.of());
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+        converter.setCustomConversions(conversions);
+        converter.afterPropertiesSet();
+        lenient().when(mongoTemplate.getConverter()).thenReturn(converter);
+        lenient().when(mongoTemplate.getCollection("logs")).thenReturn(collection);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flush_ShouldPersistQueuedEntriesInBatches() {
+        // Arrange (flusher thread not started, so nothing is written until flush)
+        AsyncLogWriter writer = writer(100, 2, OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(writer.submit(entry("A" + i)));
+        }
+
+        // Act
+        writer.flush();
+
+        // Assert
+        ArgumentCaptor<List<Document>> captor = ArgumentCaptor.forClass(List.class);
+        verify(collection, times(3)).insertMany(captor.capture(), any(InsertManyOptions.class));
+        assertEquals(List.of(2, 2, 1), captor.getAllValues().stream().map(List::size).toList());
+        assertEquals(0, writer.pending());
+        assertEquals(5.0, meterRegistry.get("logs.writer.written").counter().count());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void submit_ShouldEvictOldestAndCountDrop_WhenFull() {
+        // Arrange
+        AsyncLogWriter writer = writer(2, 10, OverflowPolicy.DROP_OLDEST);
+        List<String> written = new ArrayList<>();
+        when(collection.insertMany(anyList(), any(InsertManyOptions.class))).thenAnswer(i -> {
+            ((List<Document>) i.getArgument(0)).forEach(d -> written.add(d.getString("action")));
+            return null;
+        });
+
+        // Act
+        writer.submit(entry("A1"));
+        writer.submit(entry("A2"));
+        boolean accepted = writer.submit(entry("A3"));
+        writer.flush();
+
+        // Assert
+        assertTrue(accepted);
+        assertEquals(List.of("A2", "A3"), written);
+        assertEquals(1.0, meterRegistry.get("logs.writer.dropped").tag("reason", "overflow").counter().count());
+    }
+
+    @Test
+    void submit_ShouldDropNewEntry_WhenBlockTimesOut() {
+        // Arrange
+        AsyncLogWriter writer = writer(1, 10, OverflowPolicy.BLOCK);
+        writer.submit(entry("A1"));
+
+        // Act
+        boolean accepted = writer.submit(entry("A2"));
+
+        // Assert
+        assertFalse(accepted);
+        assertEquals(1, writer.pending());
+        assertEquals(1.0, meterRegistry.get("logs.writer.dropped").tag("reason", "overflow").counter().count());
+    }
+
+    @Test
+    void flush_ShouldCountWriteErrorsAsDrops() {
+        // Arrange
+        AsyncLogWriter writer = writer(10, 10, OverflowPolicy.DROP_OLDEST);
+        when(collection.insertMany(anyList(), any(InsertManyOptions.class))).thenThrow(new RuntimeException("Mongo down"));
+        writer.submit(entry("A1"));
+        writer.submit(entry("A2"));
+
+        // Act
+        assertDoesNotThrow(writer::flush);
+
+        // Assert
+        assertEquals(2.0, meterRegistry.get("logs.writer.dropped").tag("reason", "write_error").counter().count());
+    }
+
+    @Test
+    void insertNow_ShouldSkipOnlyRejectedDocuments() {
+        // Arrange
+        AsyncLogWriter writer = writer(10, 10, OverflowPolicy.DROP_OLDEST);
+        BulkWriteError duplicate = new BulkWriteError(11000, "E11000 duplicate key", new BsonDocument(), 1);
+        when(collection.insertMany(anyList(), any(InsertManyOptions.class))).thenThrow(new MongoBulkWriteException(
+                BulkWriteResult.acknowledged(2, 0, 0, 0, List.of(), List.of()),
+                List.of(duplicate), null, new ServerAddress(), Set.of()));
+        List<Log> batch = List.of(entry("A1"), entry("A2"), entry("A3"));
+
+        // Act
+        int rejected = writer.insertNow(batch);
+
+        // Assert
+        assertEquals(1, rejected);
+        assertEquals(2.0, meterRegistry.get("logs.writer.written").counter().count());
+        assertEquals(1.0, meterRegistry.get("logs.writer.dropped").tag("reason", "rejected").counter().count());
+        assertNotNull(batch.get(0).getId(), "Ids should be assigned before the insert");
+    }
+
+    @Test
+    void insertNow_ShouldRethrowWhenMongoIsUnavailable() {
+        // Arrange
+        AsyncLogWriter writer = writer(10, 10, OverflowPolicy.DROP_OLDEST);
+        when(collection.insertMany(anyList(), any(InsertManyOptions.class))).thenThrow(new RuntimeException("Mongo down"));
+
+        // Act & Assert
+        assertThrows(RuntimeException.class, () -> writer.insertNow(List.of(entry("A1"))));
+    }
+
+    private AsyncLogWriter writer(int capacity, int batchSize, OverflowPolicy policy) {
+        return new AsyncLogWriter(mongoTemplate, meterRegistry, capacity, batchSize, 200, policy, 5, 10);
+    }
+
+    private Log entry(String action) {
+        Log entry = new Log();
+        entry.setAction(action);
+        entry.setLevel("INFO");
+        return entry;
+    }
+}
@@ -0,0 +1,134 @@
+package com.khetisetu.event.logs.service;
+
+import com.khetisetu.event.notifications.dto.CursorPage;
+import com.khetisetu.event.notifications.model.logs.Log;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class LogQueryServiceTest {
+
+    private static final Instant T = Instant.parse("2026-03-01T10:00:00Z");
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    private LogQueryService logQueryService;
+
+    @BeforeEach
+    void setUp() {
+        logQueryService = new LogQueryService(mongoTemplate);
+    }
+
+    @Test
+    void searchAfter_ShouldSeekPastCursorWithoutCounting() {
+        String cursor = new CursorPage.Position(T, "65a000000000000000000020").encode();
+        when(mongoTemplate.find(any(Query.class), eq(Log.class), eq("logs")))
+                .thenReturn(List.of(log("65a000000000000000000019", T), log("65a000000000000000000018", T.minusSeconds(1)),
+                        log("65a000000000000000000017", T.minusSeconds(2))));
+
+        // An estimate is only computed on the first page
+        CursorPage<Log> page = logQueryService.searchAfter(null, null, List.of("ERROR"), null, null,
+                null, null, cursor, 2, false, true);
+
+        assertEquals(2, page.content().size());
+        assertTrue(page.hasNext());
+        assertEquals(new CursorPage.Position(T.minusSeconds(1), "65a000000000000000000018"),
+                CursorPage.Position.decode(page.nextCursor()));
+        assertNull(page.total());
+        assertNull(page.estimatedTotal());
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(query.capture(), eq(Log.class), eq("logs"));
+        assertEquals(3, query.getValue().getLimit());
+        assertEquals(0, query.getValue().getSkip());
+        assertEquals(new Document("timestamp", -1).append("id", -1), query.getValue().getSortObject());
+        List<?> and = (List<?>) query.getValue().getQueryObject().get("$and");
+        assertEquals(new Document("$and", List.of(new Document("level", new Document("$in", List.of("ERROR"))))), and.get(0));
+        assertEquals(new Document("$or", List.of(
+                new Document("timestamp", new Document("$lt", T)),
+                new Document("timestamp", T).append("id", new Document("$lt", "65a000000000000000000020")))),
+                and.get(1));
+        verify(mongoTemplate, never()).count(any(Query.class), anyString());
+        verify(mongoTemplate, never()).estimatedCount(anyString());
+    }
+
+    @Test
+    void searchAfter_ShouldCapEstimateOfFilteredFirstPage() {
+        when(mongoTemplate.find(any(Query.class), eq(Log.class), eq("logs"))).thenReturn(List.of());
+        when(mongoTemplate.count(any(Query.class), eq("logs"))).thenReturn(10_000L);
+
+        CursorPage<Log> page = logQueryService.searchAfter(null, null, LogQueryService.DEFAULT_LEVELS, "timeout", null,
+                null, null, null, 20, false, true);
+
+        assertNull(page.total());
+        assertEquals(10_000L, page.estimatedTotal());
+        ArgumentCaptor<Query> count = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).count(count.capture(), eq("logs"));
+        assertEquals(LogQueryService.ESTIMATE_CAP, count.getValue().getLimit());
+    }
+
+    @Test
+    void searchAfter_ShouldNotCountUnlessAsked() {
+        when(mongoTemplate.find(any(Query.class), eq(Log.class), eq("logs"))).thenReturn(List.of());
+
+        CursorPage<Log> page = logQueryService.searchAfter(null, null, LogQueryService.DEFAULT_LEVELS, "timeout", null,
+                null, null, null, 20, false, false);
+
+        assertNull(page.total());
+        assertNull(page.estimatedTotal());
+        verify(mongoTemplate, never()).count(any(Query.class), anyString());
+    }
+
+    @Test
+    void searchAfter_ShouldUseCollectionEstimateWhenOnlyDefaultLevelsAreFiltered() {
+        when(mongoTemplate.find(any(Query.class), eq(Log.class), eq("logs"))).thenReturn(List.of());
+        when(mongoTemplate.estimatedCount("logs")).thenReturn(5_000_000L);
+
+        // What the controller passes when no filter is given
+        CursorPage<Log> page = logQueryService.searchAfter(null, null, LogQueryService.DEFAULT_LEVELS, null, null,
+                null, null, null, 20, false, true);
+
+        assertFalse(page.hasNext());
+        assertNull(page.nextCursor());
+        assertEquals(5_000_000L, page.estimatedTotal());
+        verify(mongoTemplate, never()).count(any(Query.class), anyString());
+    }
+
+    @Test
+    void searchAfter_ShouldCountExactTotalOnRequest() {
+        when(mongoTemplate.find(any(Query.class), eq(Log.class), eq("logs"))).thenReturn(List.of(log("a", T)));
+        when(mongoTemplate.count(any(Query.class), eq("logs"))).thenReturn(1L);
+
+        CursorPage<Log> page = logQueryService.searchAfter(List.of("USER"), null, List.of("INFO"), null, "actor-1",
+                null, null, null, 20, true, false);
+
+        assertEquals(1L, page.total());
+        assertNull(page.estimatedTotal());
+        ArgumentCaptor<Query> count = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).count(count.capture(), eq("logs"));
+        assertEquals(0, count.getValue().getLimit());
+    }
+
+    private static Log log(String id, Instant timestamp) {
+        Log log = new Log();
+        log.setId(id);
+        log.setTimestamp(timestamp);
+        log.setLevel("INFO");
+        return log;
+    }
+}
@@ -0,0 +1,166 @@
+package com.khetisetu.event.notifications.config;
+
+import com.khetisetu.event.agnexus.memory.ConversationMessageRepository;
+import com.khetisetu.event.agnexus.memory.ConversationRepository;
+import com.khetisetu.event.agnexus.rag.KnowledgeRepository;
+import com.khetisetu.event.notifications.repository.NotificationRepository;
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import de.flapdoodle.embed.mongo.distribution.Version;
+import de.flapdoodle.embed.mongo.transitions.Mongod;
+import de.flapdoodle.embed.mongo.transitions.RunningMongodProcess;
+import de.flapdoodle.reverse.TransitionWalker;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.TestFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs every declared repository query of the primary database against an embedded MongoDB
+ * with the indexes of {@link PrimaryMongoConfig#ensureIndexes}, explains each command it sends
+ * and fails on any collection scan. A query added without a matching index fails here.
+ *
+ * <p>Like the other embedded-MongoDB tests it runs on every build and needs a real mongod,
+ * which flapdoodle downloads on first use (or finds in {@code ~/.embedmongo}). Offline builds
+ * can leave it out with {@code -DexcludedGroups=embedded-mongo}.</p>
+ */
+@Tag("embedded-mongo")
+class RepositoryQueryPlanTest {
+
+    private static final List<Class<?>> REPOSITORIES = List.of(
+            NotificationRepository.class,
+            ConversationRepository.class,
+            ConversationMessageRepository.class,
+            KnowledgeRepository.class);
+
+    private static final Set<String> EXPLAINABLE = Set.of("find", "count", "aggregate", "delete", "distinct");
+
+    /** A command as sent; the event's own document is only valid during the callback. */
+    private record Sent(String database, String name, BsonDocument command) {
+    }
+
+    private static final List<Sent> commands = new CopyOnWriteArrayList<>();
+
+    private static TransitionWalker.ReachedState<RunningMongodProcess> mongod;
+    private static MongoClient client;
+    private static MongoRepositoryFactory repositories;
+
+    @BeforeAll
+    static void startMongo() {
+        mongod = Mongod.instance().start(Version.Main.V6_0);
+        var address = mongod.current().getServerAddress();
+        CommandListener listener = new CommandListener() {
+            @Override
+            public void commandStarted(CommandStartedEvent event) {
+                commands.add(new Sent(event.getDatabaseName(), event.getCommandName(), event.getCommand().clone()));
+            }
+        };
+        client = MongoClients.create(MongoClientSettings.builder()
+                .applyConnectionString(new ConnectionString("mongodb://" + address.getHost() + ":" + address.getPort()))
+                .addCommandListener(listener)
+                .build());
+        MongoTemplate template = new MongoTemplate(client, "khetisetu");
+        PrimaryMongoConfig.ensureIndexes(template);
+        repositories = new MongoRepositoryFactory(template);
+    }
+
+    @AfterAll
+    static void stopMongo() {
+        if (client != null) {
+            client.close();
+        }
+        if (mongod != null) {
+            mongod.close();
+        }
+    }
+
+    @TestFactory
+    Stream<DynamicTest> everyRepositoryQuery_ShouldUseAnIndex() {
+        List<DynamicTest> tests = new ArrayList<>();
+        for (Class<?> type : REPOSITORIES) {
+            Object repository = repositories.getRepository(type);
+            Arrays.stream(type.getDeclaredMethods())
+                    .filter(m -> !m.isDefault() && !Modifier.isStatic(m.getModifiers()))
+                    .sorted(Comparator.comparing(Method::getName))
+                    .forEach(m -> tests.add(DynamicTest.dynamicTest(type.getSimpleName() + "." + m.getName(),
+                            () -> assertNoCollectionScan(repository, m))));
+        }
+        return tests.stream();
+    }
+
+    private static void assertNoCollectionScan(Object repository, Method method) throws Exception {
+        commands.clear();
+        method.invoke(repository, sampleArguments(method));
+        List<Sent> sent = commands.stream()
+                .filter(c -> EXPLAINABLE.contains(c.name()))
+                .toList();
+        assertFalse(sent.isEmpty(), "No query sent by " + method.getName());
+
+        for (Sent command : sent) {
+            BsonDocument query = command.command();
+            query.keySet().removeIf(key -> key.startsWith("$") || key.equals("lsid") || key.equals("txnNumber"));
+            Document plan = client.getDatabase(command.database()).runCommand(
+                    new BsonDocument("explain", query).append("verbosity", new BsonString("queryPlanner")));
+            assertFalse(containsStage(plan, "COLLSCAN"),
+                    () -> method.getName() + " scans the collection: " + query.toJson() + "\n" + plan.toJson());
+        }
+    }
+
+    private static Object[] sampleArguments(Method method) {
+        Class<?>[] types = method.getParameterTypes();
+        Object[] args = new Object[types.length];
+        for (int i = 0; i < types.length; i++) {
+            Class<?> type = types[i];
+            if (type == String.class) {
+                args[i] = "sample";
+            } else if (Collection.class.isAssignableFrom(type)) {
+                args[i] = List.of("sample-1", "sample-2");
+            } else if (type == Pageable.class) {
+                args[i] = PageRequest.of(0, 20);
+            } else if (type.isEnum()) {
+                args[i] = type.getEnumConstants()[0];
+            } else {
+                fail("No sample argument for " + type.getName() + " in " + method.getName());
+            }
+        }
+        return args;
+    }
+
+    private static boolean containsStage(Object node, String stage) {
+        if (node instanceof Document document) {
+            if (stage.equals(document.get("stage"))) {
+                return true;
+            }
+            return document.values().stream().anyMatch(value -> containsStage(value, stage));
+        }
+        if (node instanceof Collection<?> values) {
+            return values.stream().anyMatch(value -> containsStage(value, stage));
+        }
+        return false;
+    }
+}
@@ -0,0 +1,234 @@
+package com.khetisetu.event.notifications.consumer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class NotificationPipelineTest {
+
+    private static final TopicPartition TP = new TopicPartition("notifications", 0);
+
+    @Mock
+    private KafkaListenerEndpointRegistry listenerRegistry;
+
+    @Mock
+    private RetryTopicRouter retryRouter;
+
+    @Mock
+    private Consumer<String, String> consumer;
+
+    private NotificationPipeline pipeline;
+
+    @AfterEach
+    void tearDown() {
+        if (pipeline != null) {
+            pipeline.stop();
+        }
+    }
+
+    private NotificationPipeline pipeline(int capacity) {
+        return pipeline(capacity, 2);
+    }
+
+    private NotificationPipeline pipeline(int capacity, int workers) {
+        return pipeline(capacity, workers, 5000);
+    }
+
+    private NotificationPipeline pipeline(int capacity, int workers, long shutdownTimeoutMs) {
+        pipeline = new NotificationPipeline(listenerRegistry, retryRouter, new SimpleMeterRegistry(),
+                workers, capacity, 100, 10, shutdownTimeoutMs);
+        return pipeline;
+    }
+
+    private static ConsumerRecord<String, String> record(long offset, String recipient) {
+        return new ConsumerRecord<>(TP.topic(), TP.partition(), offset, null, recipient);
+    }
+
+    private void awaitDrained() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pipeline.inFlight() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, pipeline.inFlight());
+    }
+
+    @Test
+    void dispatch_ShouldCommitOnlyAfterProcessing() throws Exception {
+        pipeline(100).start();
+        when(consumer.assignment()).thenReturn(Set.of(TP));
+
+        pipeline.dispatch("direct", List.of(record(0, "u1"), record(1, "u2")), v -> v, records -> List.of());
+        awaitDrained();
+        pipeline.commitCompleted(consumer);
+
+        verify(consumer).commitSync(Map.of(TP, new OffsetAndMetadata(2)));
+        verifyNoInteractions(retryRouter);
+    }
+
+    @Test
+    void dispatch_ShouldHandOffFailedRecordsBeforeCompleting() throws Exception {
+        pipeline(100).start();
+        when(consumer.assignment()).thenReturn(Set.of(TP));
+        when(retryRouter.localRetryDelay(any())).thenReturn(null);
+        when(retryRouter.route(any())).thenReturn(true);
+
+        ConsumerRecord<String, String> bad = record(0, "u1");
+        pipeline.dispatch("direct", List.of(bad, record(1, "u1")), v -> v,
+                records -> records.stream().filter(r -> r == bad).toList());
+        awaitDrained();
+        pipeline.commitCompleted(consumer);
+
+        verify(retryRouter).route(bad);
+        verify(consumer).commitSync(Map.of(TP, new OffsetAndMetadata(2)));
+    }
+
+    @Test
+    void dispatch_ShouldRetryFailedRecordsLocallyWithoutTiers() throws Exception {
+        pipeline(100).start();
+        when(consumer.assignment()).thenReturn(Set.of(TP));
+        when(retryRouter.localRetryDelay(any())).thenReturn(Duration.ofMillis(50), (Duration) null);
+        List<Integer> attempts = new CopyOnWriteArrayList<>();
+
+        pipeline.dispatch("direct", List.of(record(0, "u1")), v -> v, records -> {
+            attempts.add(RetryTopicRouter.attemptOf(records.get(0)));
+            return attempts.size() == 1 ? records : List.of();
+        });
+        Thread.sleep(20);
+        assertEquals(1, pipeline.inFlight());
+        awaitDrained();
+        pipeline.commitCompleted(consumer);
+
+        assertEquals(List.of(0, 1), attempts);
+        verify(retryRouter, never()).route(any());
+        verify(consumer).commitSync(Map.of(TP, new OffsetAndMetadata(1)));
+    }
+
+    @Test
+    void dispatch_ShouldKeepPerRecipientOrder() throws Exception {
+        pipeline(1000).start();
+        List<Long> seen = new CopyOnWriteArrayList<>();
+
+        for (long offset = 0; offset < 50; offset++) {
+            pipeline.dispatch("direct", List.of(record(offset, "same-user")), v -> v, records -> {
+                records.forEach(r -> seen.add(r.offset()));
+                return List.of();
+            });
+        }
+        awaitDrained();
+
+        assertEquals(50, seen.size());
+        for (int i = 0; i < seen.size(); i++) {
+            assertEquals(i, seen.get(i));
+        }
+    }
+
+    @Test
+    void dispatch_ShouldNeverProcessTwoRecordsOfOneKeyTogether() throws Exception {
+        pipeline(1000, 1);
+        List<List<ConsumerRecord<String, String>>> calls = new CopyOnWriteArrayList<>();
+        // Dispatch before the lane starts so everything lands in one lane batch
+        pipeline.dispatch("direct", List.of(record(0, "u1"), record(1, "u2"), record(2, "u1"), record(3, "u1")),
+                v -> v, records -> {
+                    calls.add(List.copyOf(records));
+                    return List.of();
+                });
+        pipeline.start();
+        awaitDrained();
+
+        assertEquals(List.of(List.of(0L, 1L), List.of(2L), List.of(3L)),
+                calls.stream().map(c -> c.stream().map(ConsumerRecord::offset).toList()).toList());
+    }
+
+    @Test
+    void dispatch_ShouldProcessKeysOfOnePartitionInParallel() throws Exception {
+        pipeline(1000, 2).start();
+        // "a" and "b" hash to different lanes; each waits for the other to start
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        List<Boolean> overlapped = new CopyOnWriteArrayList<>();
+
+        pipeline.dispatch("direct", List.of(record(0, "a"), record(1, "b")), v -> v, records -> {
+            bothStarted.countDown();
+            try {
+                overlapped.add(bothStarted.await(5, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return List.of();
+        });
+        awaitDrained();
+
+        assertEquals(List.of(true, true), overlapped);
+    }
+
+    @Test
+    void stop_ShouldWaitForAllLanesWithinOneSharedDeadline() throws Exception {
+        pipeline(1000, 2, 300).start();
+        // "a" and "b" hash to different lanes, both stuck until the end of the test
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        pipeline.dispatch("direct", List.of(record(0, "a"), record(1, "b")), v -> v, records -> {
+            bothStarted.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return List.of();
+        });
+        assertTrue(bothStarted.await(5, TimeUnit.SECONDS));
+
+        long started = System.nanoTime();
+        pipeline.stop();
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        int leftInFlight = pipeline.inFlight();
+        release.countDown();
+
+        // One 300 ms budget for both lanes, not 300 ms each
+        assertTrue(elapsedMs >= 250 && elapsedMs < 550, "stop took " + elapsedMs + " ms");
+        assertEquals(2, leftInFlight);
+    }
+
+    @Test
+    void dispatch_ShouldPauseListenersWhenFullAndResumeWhenDrained() throws Exception {
+        MessageListenerContainer container = mock(MessageListenerContainer.class);
+        when(listenerRegistry.getListenerContainer("direct")).thenReturn(container);
+        CountDownLatch release = new CountDownLatch(1);
+        pipeline(2).start();
+
+        pipeline.dispatch("direct", List.of(record(0, "u1"), record(1, "u2")), v -> v, records -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return List.of();
+        });
+        verify(container).pause();
+
+        release.countDown();
+        awaitDrained();
+        verify(container, timeout(1000)).resume();
+    }
+}
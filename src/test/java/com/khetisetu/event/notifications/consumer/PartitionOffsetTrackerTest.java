@@ -0,0 +1,54 @@
+package com.khetisetu.event.notifications.consumer;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PartitionOffsetTrackerTest {
+
+    private final TopicPartition tp = new TopicPartition("notifications", 0);
+    private final PartitionOffsetTracker tracker = new PartitionOffsetTracker();
+
+    @Test
+    void readyToCommit_ShouldStopAtLowestInFlightOffset() {
+        PartitionOffsetTracker.Partition partition = tracker.register(tp, 10);
+        tracker.register(tp, 11);
+        tracker.register(tp, 12);
+
+        partition.complete(10);
+        partition.complete(12);
+        assertEquals(Map.of(tp, new OffsetAndMetadata(11)), tracker.readyToCommit(List.of(tp)));
+
+        partition.complete(11);
+        assertEquals(Map.of(tp, new OffsetAndMetadata(13)), tracker.readyToCommit(List.of(tp)));
+        assertEquals(0, tracker.inFlight());
+    }
+
+    @Test
+    void readyToCommit_ShouldSkipAlreadyCommittedPositions() {
+        PartitionOffsetTracker.Partition partition = tracker.register(tp, 5);
+        partition.complete(5);
+
+        tracker.markCommitted(tracker.readyToCommit(List.of(tp)));
+
+        assertTrue(tracker.readyToCommit(List.of(tp)).isEmpty());
+    }
+
+    @Test
+    void forget_ShouldIgnoreCompletionsOfRevokedPartition() {
+        PartitionOffsetTracker.Partition old = tracker.register(tp, 7);
+        tracker.forget(List.of(tp));
+
+        tracker.register(tp, 20);
+        old.complete(7);
+
+        // The new assignment still waits for offset 20
+        assertEquals(Map.of(tp, new OffsetAndMetadata(20)), tracker.readyToCommit(List.of(tp)));
+        assertEquals(1, tracker.inFlight());
+    }
+}
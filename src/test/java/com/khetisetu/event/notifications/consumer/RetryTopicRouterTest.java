@@ -0,0 +1,190 @@
+package com.khetisetu.event.notifications.consumer;
+
+import com.khetisetu.event.notifications.dto.NotificationEvent;
+import com.khetisetu.event.notifications.dto.NotificationRequestEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.MessageListenerContainer;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class RetryTopicRouterTest {
+
+    @Mock
+    private KafkaTemplate<String, Object> kafkaTemplate;
+
+    @Mock
+    private DlqHandler dlqHandler;
+
+    @Mock
+    private KafkaListenerEndpointRegistry listenerRegistry;
+
+    @Mock
+    private Consumer<String, NotificationRequestEvent> consumer;
+
+    private RetryTopicRouter router;
+
+    @BeforeEach
+    void setUp() {
+        router = new RetryTopicRouter(kafkaTemplate, dlqHandler, listenerRegistry, new SimpleMeterRegistry(),
+                "5s,30s,5m", "1s,2s", 1000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        router.shutdown();
+    }
+
+    private static NotificationRequestEvent event() {
+        return NotificationRequestEvent.builder().eventId("evt-1").recipient("user-1").type("PUSH").build();
+    }
+
+    private static <V> ConsumerRecord<String, V> record(String topic, long offset, V value, Integer attempt, Long dueAt) {
+        ConsumerRecord<String, V> record = new ConsumerRecord<>(topic, 0, offset, "user-1", value);
+        if (attempt != null) {
+            record.headers().add(RetryTopicRouter.ATTEMPT_HEADER, ByteBuffer.allocate(4).putInt(attempt).array());
+        }
+        if (dueAt != null) {
+            record.headers().add(RetryTopicRouter.DUE_AT_HEADER, ByteBuffer.allocate(8).putLong(dueAt).array());
+        }
+        return record;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void route_ShouldPublishToNextTierWithAttemptHeader() {
+        when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(CompletableFuture.completedFuture(null));
+
+        assertTrue(router.route(record("notification-requests-retry-5s", 3, event(), 1, 0L)));
+
+        ArgumentCaptor<ProducerRecord<String, Object>> sent = ArgumentCaptor.forClass(ProducerRecord.class);
+        verify(kafkaTemplate).send(sent.capture());
+        assertEquals("notification-requests-retry-30s", sent.getValue().topic());
+        assertEquals("user-1", sent.getValue().key());
+        assertEquals(2, ByteBuffer.wrap(sent.getValue().headers().lastHeader(RetryTopicRouter.ATTEMPT_HEADER).value()).getInt());
+        long dueAt = ByteBuffer.wrap(sent.getValue().headers().lastHeader(RetryTopicRouter.DUE_AT_HEADER).value()).getLong();
+        assertTrue(dueAt >= System.currentTimeMillis() + 29_000);
+        verifyNoInteractions(dlqHandler);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void route_ShouldConvertDirectEventsToRequests() {
+        when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(CompletableFuture.completedFuture(null));
+        NotificationEvent direct = new NotificationEvent("PUSH", "user-1", "tpl", null, "en", null);
+
+        assertTrue(router.route(record("notifications", 0, direct, null, null)));
+
+        ArgumentCaptor<ProducerRecord<String, Object>> sent = ArgumentCaptor.forClass(ProducerRecord.class);
+        verify(kafkaTemplate).send(sent.capture());
+        assertEquals("notification-requests-retry-5s", sent.getValue().topic());
+        NotificationRequestEvent retried = assertInstanceOf(NotificationRequestEvent.class, sent.getValue().value());
+        assertEquals("user-1", retried.recipient());
+        assertNotNull(retried.eventId());
+    }
+
+    @Test
+    void route_ShouldDeadLetterAfterLastTier() {
+        ConsumerRecord<String, NotificationRequestEvent> exhausted = record("notification-requests-retry-5m", 0, event(), 3, 0L);
+        when(dlqHandler.forward(exhausted)).thenReturn(true);
+
+        assertTrue(router.route(exhausted));
+
+        verify(dlqHandler).forward(exhausted);
+        verifyNoInteractions(kafkaTemplate);
+    }
+
+    @Test
+    void route_ShouldDeadLetterRightAwayWithoutTiers() {
+        RetryTopicRouter noTiers = new RetryTopicRouter(kafkaTemplate, dlqHandler, listenerRegistry,
+                new SimpleMeterRegistry(), "", "1s,2s", 1000);
+        ConsumerRecord<String, NotificationRequestEvent> failed = record("notification-requests", 0, event(), null, null);
+        when(dlqHandler.forward(failed)).thenReturn(true);
+
+        assertTrue(noTiers.topics().isEmpty());
+        assertTrue(noTiers.route(failed));
+
+        verify(dlqHandler).forward(failed);
+        verifyNoInteractions(kafkaTemplate);
+        noTiers.shutdown();
+    }
+
+    @Test
+    void localRetryDelay_ShouldRetryInProcessOnlyWithoutTiersAndUntilDelaysRunOut() {
+        RetryTopicRouter noTiers = new RetryTopicRouter(kafkaTemplate, dlqHandler, listenerRegistry,
+                new SimpleMeterRegistry(), "", "1s,2s", 1000);
+
+        assertEquals(Duration.ofSeconds(1), noTiers.localRetryDelay(record("notification-requests", 0, event(), null, null)));
+        assertEquals(Duration.ofSeconds(2), noTiers.localRetryDelay(record("notification-requests", 0, event(), 1, 0L)));
+        assertNull(noTiers.localRetryDelay(record("notification-requests", 0, event(), 2, 0L)));
+        assertNull(router.localRetryDelay(record("notification-requests", 0, event(), null, null)));
+        noTiers.shutdown();
+    }
+
+    @Test
+    void nextAttempt_ShouldBumpAttemptAndDueAtHeaders() {
+        ConsumerRecord<String, NotificationRequestEvent> failed = record("notification-requests", 7, event(), 1, 0L);
+        long before = System.currentTimeMillis();
+
+        ConsumerRecord<String, NotificationRequestEvent> next = RetryTopicRouter.nextAttempt(failed, Duration.ofSeconds(30));
+
+        assertEquals(2, RetryTopicRouter.attemptOf(next));
+        assertEquals(1, RetryTopicRouter.attemptOf(failed));
+        assertEquals(7, next.offset());
+        assertSame(failed.value(), next.value());
+        assertEquals(2, next.headers().toArray().length);
+        long dueAt = ByteBuffer.wrap(next.headers().lastHeader(RetryTopicRouter.DUE_AT_HEADER).value()).getLong();
+        assertTrue(dueAt >= before + 30_000);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void route_ShouldDeadLetterWhenRetryTopicUnavailable() {
+        when(kafkaTemplate.send(any(ProducerRecord.class)))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("topic quota")));
+        ConsumerRecord<String, NotificationRequestEvent> failed = record("notification-requests", 0, event(), null, null);
+        when(dlqHandler.forward(failed)).thenReturn(true);
+
+        assertTrue(router.route(failed));
+        verify(dlqHandler).forward(failed);
+    }
+
+    @Test
+    void releaseDue_ShouldHoldBackPartitionFromFirstRecordNotDue() {
+        MessageListenerContainer container = mock(MessageListenerContainer.class);
+        when(listenerRegistry.getListenerContainer("retries")).thenReturn(container);
+        String topic = "notification-requests-retry-30s";
+        long now = System.currentTimeMillis();
+        var due = record(topic, 10, event(), 1, now - 1000);
+        var early = record(topic, 11, event(), 1, now + 60_000);
+        var later = record(topic, 12, event(), 1, now + 60_500);
+
+        List<ConsumerRecord<String, NotificationRequestEvent>> released =
+                router.releaseDue("retries", List.of(due, early, later), consumer);
+
+        assertEquals(List.of(due), released);
+        TopicPartition tp = new TopicPartition(topic, 0);
+        verify(consumer).seek(tp, 11);
+        verify(container).pausePartition(tp);
+    }
+}
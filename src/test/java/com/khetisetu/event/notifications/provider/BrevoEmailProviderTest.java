@@ -0,0 +1,112 @@
+package com.khetisetu.event.notifications.provider;
+
+import com.khetisetu.event.notifications.provider.EmailSender.OutgoingEmail;
+import com.khetisetu.event.notifications.provider.EmailSender.SendResult;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs against a local HTTP stub of the Brevo transactional endpoint.
+ */
+class BrevoEmailProviderTest {
+
+    private HttpServer stub;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final List<JsonNode> requests = new CopyOnWriteArrayList<>();
+    private BrevoEmailProvider provider;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.createContext("/v3/smtp/email", this::handle);
+        stub.start();
+
+        provider = new BrevoEmailProvider();
+        ReflectionTestUtils.setField(provider, "API_KEY", "test-key");
+        ReflectionTestUtils.setField(provider, "baseUrl", "http://127.0.0.1:" + stub.getAddress().getPort() + "/v3");
+    }
+
+    @AfterEach
+    void tearDown() {
+        stub.stop(0);
+    }
+
+    // Accepts anything except recipients at invalid.test; batches get one message id per version
+    private void handle(HttpExchange exchange) throws IOException {
+        JsonNode payload = mapper.readTree(exchange.getRequestBody());
+        requests.add(payload);
+        String response;
+        int status = 201;
+        if (payload.toString().contains("@invalid.test")) {
+            status = 400;
+            response = "{\"code\":\"invalid_parameter\",\"message\":\"email is not valid\"}";
+        } else if (payload.has("messageVersions")) {
+            ArrayNode ids = mapper.createArrayNode();
+            for (int i = 0; i < payload.get("messageVersions").size(); i++) {
+                ids.add("<msg-" + i + "@brevo>");
+            }
+            response = mapper.createObjectNode().set("messageIds", ids).toString();
+        } else {
+            response = "{\"messageId\":\"<single@brevo>\"}";
+        }
+        byte[] body = response.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Test
+    void sendBatch_ShouldSendOneRequestWithMessageVersions() {
+        List<OutgoingEmail> emails = List.of(
+                new OutgoingEmail("a@example.com", "Hello", "<p>Hi a</p>", "Hi a"),
+                new OutgoingEmail("b@example.com", "Hello", "<p>Hi a</p>", "Hi a"),
+                new OutgoingEmail("c@example.com", "Hello", "<p>Hi c</p>", "Hi c"));
+
+        List<SendResult> results = provider.sendBatch("noreply@khetisetu.com", "Kheti Setu", emails);
+
+        assertEquals(1, requests.size());
+        JsonNode payload = requests.get(0);
+        assertEquals("<p>Hi a</p>", payload.get("htmlContent").asText());
+        JsonNode versions = payload.get("messageVersions");
+        assertEquals(3, versions.size());
+        assertEquals("b@example.com", versions.get(1).get("to").get(0).get("email").asText());
+        // Only the differing body is repeated per version
+        assertFalse(versions.get(1).has("htmlContent"));
+        assertEquals("<p>Hi c</p>", versions.get(2).get("htmlContent").asText());
+
+        assertEquals(List.of("<msg-0@brevo>", "<msg-1@brevo>", "<msg-2@brevo>"),
+                results.stream().map(SendResult::messageId).toList());
+        assertTrue(results.stream().allMatch(SendResult::isSent));
+    }
+
+    @Test
+    void sendBatch_ShouldIsolateRejectedRecipient() {
+        List<OutgoingEmail> emails = List.of(
+                new OutgoingEmail("a@example.com", "Hello", "<p>Hi</p>", "Hi"),
+                new OutgoingEmail("bad@invalid.test", "Hello", "<p>Hi</p>", "Hi"));
+
+        List<SendResult> results = provider.sendBatch("noreply@khetisetu.com", "Kheti Setu", emails);
+
+        // One rejected batch, then one request per recipient
+        assertEquals(3, requests.size());
+        assertTrue(results.get(0).isSent());
+        assertFalse(results.get(1).isSent());
+    }
+}
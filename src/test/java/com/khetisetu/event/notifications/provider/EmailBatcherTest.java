@@ -0,0 +1,101 @@
+package com.khetisetu.event.notifications.provider;
+
+import com.khetisetu.event.notifications.provider.EmailSender.OutgoingEmail;
+import com.khetisetu.event.notifications.provider.EmailSender.SendResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EmailBatcherTest {
+
+    private final List<List<OutgoingEmail>> batches = new CopyOnWriteArrayList<>();
+    private EmailBatcher batcher;
+
+    private final EmailSender sender = new EmailSender() {
+        @Override
+        public void sendEmail(String fromEmail, String fromName, String toEmail, String subject, String htmlBody) {
+        }
+
+        @Override
+        public List<SendResult> sendBatch(String fromEmail, String fromName, List<OutgoingEmail> emails) {
+            batches.add(List.copyOf(emails));
+            List<SendResult> results = new ArrayList<>();
+            for (OutgoingEmail email : emails) {
+                results.add(email.toEmail().startsWith("bad")
+                        ? SendResult.failed(new IllegalArgumentException("bad address"))
+                        : SendResult.sent("id-" + email.toEmail()));
+            }
+            return results;
+        }
+
+        @Override
+        public int maxBatchSize() {
+            return 1000;
+        }
+
+        @Override
+        public String getProviderName() {
+            return "STUB";
+        }
+    };
+
+    @AfterEach
+    void tearDown() {
+        batcher.close();
+    }
+
+    private static OutgoingEmail email(String to) {
+        return new OutgoingEmail(to, "subject", "<p>body</p>", "body");
+    }
+
+    @Test
+    void submit_ShouldSendEmailsOfOneKeyTogetherAfterWindow() throws Exception {
+        batcher = new EmailBatcher(sender, 100, 1000, 1);
+        EmailBatcher.Key key = new EmailBatcher.Key("noreply@khetisetu.com", "Kheti Setu", "job_created_email");
+        EmailBatcher.Key otherTemplate = new EmailBatcher.Key("noreply@khetisetu.com", "Kheti Setu", "welcome_email");
+
+        CompletableFuture<SendResult> a = batcher.submit(key, email("a@example.com"));
+        CompletableFuture<SendResult> bad = batcher.submit(key, email("bad@example.com"));
+        CompletableFuture<SendResult> c = batcher.submit(otherTemplate, email("c@example.com"));
+
+        assertEquals("id-a@example.com", a.get(2, TimeUnit.SECONDS).messageId());
+        assertFalse(bad.get(2, TimeUnit.SECONDS).isSent());
+        assertTrue(c.get(2, TimeUnit.SECONDS).isSent());
+        assertEquals(2, batches.size());
+    }
+
+    @Test
+    void submit_ShouldSendAsSoonAsBatchIsFull() throws Exception {
+        batcher = new EmailBatcher(sender, 60_000, 2, 1);
+        EmailBatcher.Key key = new EmailBatcher.Key("noreply@khetisetu.com", "Kheti Setu", "job_created_email");
+
+        CompletableFuture<SendResult> a = batcher.submit(key, email("a@example.com"));
+        CompletableFuture<SendResult> b = batcher.submit(key, email("b@example.com"));
+
+        assertTrue(a.get(2, TimeUnit.SECONDS).isSent());
+        assertTrue(b.get(2, TimeUnit.SECONDS).isSent());
+        assertEquals(1, batches.size());
+        assertEquals(2, batches.get(0).size());
+    }
+
+    @Test
+    void submit_ShouldFailWithoutThrowingAfterClose() throws Exception {
+        batcher = new EmailBatcher(sender, 100, 1000, 1);
+        EmailBatcher.Key key = new EmailBatcher.Key("noreply@khetisetu.com", "Kheti Setu", "job_created_email");
+        batcher.close();
+
+        SendResult result = batcher.submit(key, email("a@example.com")).get(2, TimeUnit.SECONDS);
+
+        assertFalse(result.isSent());
+        assertInstanceOf(RejectedExecutionException.class, result.failure());
+        assertTrue(batches.isEmpty());
+    }
+}
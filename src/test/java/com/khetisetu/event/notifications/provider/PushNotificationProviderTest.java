@@ -1,5 +1,7 @@
 package com.khetisetu.event.notifications.provider;
 
+import com.google.api.core.ApiFutures;
+import com.google.api.core.SettableApiFuture;
 import com.google.firebase.messaging.*;
 import com.khetisetu.event.notifications.service.NotificationTemplateService;
 import com.khetisetu.event.notifications.dto.NotificationRequestEvent;
@@ -16,6 +18,7 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -39,7 +42,7 @@ class PushNotificationProviderTest {
     @BeforeEach
     void setUp() {
         meterRegistry = new SimpleMeterRegistry();
-        provider = new PushNotificationProvider(userTokenService, templateService, meterRegistry);
+        provider = new PushNotificationProvider(userTokenService, templateService, meterRegistry, 4);
     }
 
     @Test
@@ -84,11 +87,11 @@ class PushNotificationProviderTest {
             when(batchResponse.getFailureCount()).thenReturn(0);
             when(batchResponse.getResponses()).thenReturn(List.of(successResp, successResp));
 
-            when(fm.sendEachForMulticast(any(MulticastMessage.class))).thenReturn(batchResponse);
+            when(fm.sendEachForMulticastAsync(any(MulticastMessage.class))).thenReturn(ApiFutures.immediateFuture(batchResponse));
 
             provider.send(event, notif);
 
-            verify(fm, times(1)).sendEachForMulticast(any(MulticastMessage.class));
+            verify(fm, times(1)).sendEachForMulticastAsync(any(MulticastMessage.class));
             assertEquals(2.0, meterRegistry.counter("push.send", "result", "success").count());
         }
     }
@@ -127,7 +130,7 @@ class PushNotificationProviderTest {
             when(batchResponse.getFailureCount()).thenReturn(1);
             when(batchResponse.getResponses()).thenReturn(List.of(staleResp, goodResp));
 
-            when(fm.sendEachForMulticast(any(MulticastMessage.class))).thenReturn(batchResponse);
+            when(fm.sendEachForMulticastAsync(any(MulticastMessage.class))).thenReturn(ApiFutures.immediateFuture(batchResponse));
 
             provider.send(event, notif);
 
@@ -170,7 +173,7 @@ class PushNotificationProviderTest {
             when(batchResponse.getFailureCount()).thenReturn(2);
             when(batchResponse.getResponses()).thenReturn(List.of(staleResp, staleResp));
 
-            when(fm.sendEachForMulticast(any(MulticastMessage.class))).thenReturn(batchResponse);
+            when(fm.sendEachForMulticastAsync(any(MulticastMessage.class))).thenReturn(ApiFutures.immediateFuture(batchResponse));
 
             provider.send(event, notif);
 
@@ -179,4 +182,139 @@ class PushNotificationProviderTest {
             verify(userTokenService).invalidateToken("user_123", "stale2");
         }
     }
+
+    @Test
+    void sendAll_ShouldMergeIdenticalPayloadsIntoOneMulticast() throws Exception {
+        Map<String, String> params = Map.of("title", "Mandi prices", "body", "Onion up 5%");
+        Notification first = new Notification();
+        Notification second = new Notification();
+        var requests = List.of(
+                new NotificationProvider.SendRequest(
+                        NotificationRequestEvent.builder().recipient("user_1").params(params).build(), first),
+                new NotificationProvider.SendRequest(
+                        NotificationRequestEvent.builder().recipient("user_2").params(params).build(), second));
+
+        when(userTokenService.getFcmTokens("user_1")).thenReturn(List.of("tok_1"));
+        when(userTokenService.getFcmTokens("user_2")).thenReturn(List.of("tok_2a", "tok_2b"));
+
+        try (MockedStatic<FirebaseMessaging> mockedFirebase = mockStatic(FirebaseMessaging.class)) {
+            FirebaseMessaging fm = mock(FirebaseMessaging.class);
+            mockedFirebase.when(FirebaseMessaging::getInstance).thenReturn(fm);
+
+            SendResponse okResp = mock(SendResponse.class);
+            when(okResp.isSuccessful()).thenReturn(true);
+            FirebaseMessagingException staleEx = mock(FirebaseMessagingException.class);
+            when(staleEx.getMessagingErrorCode()).thenReturn(MessagingErrorCode.UNREGISTERED);
+            SendResponse staleResp = mock(SendResponse.class);
+            when(staleResp.isSuccessful()).thenReturn(false);
+            when(staleResp.getException()).thenReturn(staleEx);
+
+            // tok_1 is stale, both of user_2's tokens succeed
+            BatchResponse batchResponse = mock(BatchResponse.class);
+            when(batchResponse.getResponses()).thenReturn(List.of(staleResp, okResp, okResp));
+            when(fm.sendEachForMulticastAsync(any(MulticastMessage.class))).thenReturn(ApiFutures.immediateFuture(batchResponse));
+
+            List<Exception> failures = provider.sendAll(requests);
+
+            verify(fm, times(1)).sendEachForMulticastAsync(any(MulticastMessage.class));
+            verify(fm, never()).sendEachAsync(anyList());
+            verify(userTokenService).invalidateToken("user_1", "tok_1");
+            assertEquals(Arrays.asList(null, null), failures);
+            assertEquals("FAILED_UNREGISTERED", first.getStatus());
+            assertNull(second.getStatus());
+            assertEquals(2.0, meterRegistry.counter("push.send", "result", "success").count());
+        }
+    }
+
+    @Test
+    void sendAll_ShouldPoolDistinctSingleTokenMessagesIntoSendEach() throws Exception {
+        Notification first = new Notification();
+        Notification second = new Notification();
+        var requests = List.of(
+                new NotificationProvider.SendRequest(NotificationRequestEvent.builder().recipient("user_1")
+                        .params(Map.of("title", "Hi Ramesh", "body", "Your order shipped")).build(), first),
+                new NotificationProvider.SendRequest(NotificationRequestEvent.builder().recipient("user_2")
+                        .params(Map.of("title", "Hi Suresh", "body", "Your order shipped")).build(), second));
+
+        when(userTokenService.getFcmTokens("user_1")).thenReturn(List.of("tok_1"));
+        when(userTokenService.getFcmTokens("user_2")).thenReturn(List.of("tok_2"));
+
+        try (MockedStatic<FirebaseMessaging> mockedFirebase = mockStatic(FirebaseMessaging.class)) {
+            FirebaseMessaging fm = mock(FirebaseMessaging.class);
+            mockedFirebase.when(FirebaseMessaging::getInstance).thenReturn(fm);
+
+            SendResponse okResp = mock(SendResponse.class);
+            when(okResp.isSuccessful()).thenReturn(true);
+            FirebaseMessagingException transientEx = mock(FirebaseMessagingException.class);
+            when(transientEx.getMessagingErrorCode()).thenReturn(MessagingErrorCode.UNAVAILABLE);
+            SendResponse failResp = mock(SendResponse.class);
+            when(failResp.isSuccessful()).thenReturn(false);
+            when(failResp.getException()).thenReturn(transientEx);
+
+            BatchResponse batchResponse = mock(BatchResponse.class);
+            when(batchResponse.getResponses()).thenReturn(List.of(okResp, failResp));
+            when(fm.sendEachAsync(anyList())).thenReturn(ApiFutures.immediateFuture(batchResponse));
+
+            List<Exception> failures = provider.sendAll(requests);
+
+            verify(fm, times(1)).sendEachAsync(anyList());
+            verify(fm, never()).sendEachForMulticastAsync(any(MulticastMessage.class));
+            assertNull(failures.get(0));
+            assertNotNull(failures.get(1), "Transient failure should be reported for the second user only");
+            assertEquals(1.0, meterRegistry.counter("push.send", "result", "transient_error").count());
+        }
+    }
+
+    @Test
+    void sendAllAsync_ShouldCompleteOnlyAfterFcmResponds() throws Exception {
+        Map<String, String> params = Map.of("title", "Hello", "body", "World");
+        Notification notif = new Notification();
+        var request = new NotificationProvider.SendRequest(
+                NotificationRequestEvent.builder().recipient("user_123").params(params).build(), notif);
+
+        when(userTokenService.getFcmTokens("user_123")).thenReturn(List.of("token1", "token2"));
+
+        try (MockedStatic<FirebaseMessaging> mockedFirebase = mockStatic(FirebaseMessaging.class)) {
+            FirebaseMessaging fm = mock(FirebaseMessaging.class);
+            mockedFirebase.when(FirebaseMessaging::getInstance).thenReturn(fm);
+
+            SettableApiFuture<BatchResponse> pending = SettableApiFuture.create();
+            when(fm.sendEachForMulticastAsync(any(MulticastMessage.class))).thenReturn(pending);
+
+            var result = provider.sendAllAsync(List.of(request));
+            assertFalse(result.isDone(), "Should not complete before FCM answers");
+
+            SendResponse okResp = mock(SendResponse.class);
+            when(okResp.isSuccessful()).thenReturn(true);
+            BatchResponse batchResponse = mock(BatchResponse.class);
+            when(batchResponse.getResponses()).thenReturn(List.of(okResp, okResp));
+            pending.set(batchResponse);
+
+            assertTrue(result.isDone());
+            assertEquals(Arrays.asList((Exception) null), result.get());
+            assertEquals(2.0, meterRegistry.counter("push.send", "result", "success").count());
+        }
+    }
+
+    @Test
+    void sendAllAsync_ShouldReportFailure_WhenFcmCallFails() throws Exception {
+        Map<String, String> params = Map.of("title", "Hello", "body", "World");
+        var request = new NotificationProvider.SendRequest(
+                NotificationRequestEvent.builder().recipient("user_123").params(params).build(), new Notification());
+
+        when(userTokenService.getFcmTokens("user_123")).thenReturn(List.of("token1", "token2"));
+
+        try (MockedStatic<FirebaseMessaging> mockedFirebase = mockStatic(FirebaseMessaging.class)) {
+            FirebaseMessaging fm = mock(FirebaseMessaging.class);
+            mockedFirebase.when(FirebaseMessaging::getInstance).thenReturn(fm);
+            when(fm.sendEachForMulticastAsync(any(MulticastMessage.class)))
+                    .thenReturn(ApiFutures.immediateFailedFuture(new IllegalStateException("FCM down")));
+
+            List<Exception> failures = provider.sendAllAsync(List.of(request)).get();
+
+            assertNotNull(failures.get(0));
+            assertEquals("FCM Send Failed", failures.get(0).getMessage());
+            assertEquals(2.0, meterRegistry.counter("push.send", "result", "transient_error").count());
+        }
+    }
 }
@@ -0,0 +1,176 @@
+package com.khetisetu.event.notifications.repository;
+
+import com.khetisetu.event.notifications.model.Notification;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class NotificationWriteBehindStoreTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+    @Mock
+    private MongoCollection<Document> collection;
+
+    private NotificationWriteBehindStore store;
+
+    @BeforeEach
+    void setUp() {
+        MongoCustomConversions conversions = new MongoCustomConversions(List.of());
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+        converter.setCustomConversions(conversions);
+        converter.afterPropertiesSet();
+        when(mongoTemplate.getCollectionName(Notification.class)).thenReturn("notifications");
+        lenient().when(mongoTemplate.getConverter()).thenReturn(converter);
+        lenient().when(mongoTemplate.getCollection("notifications")).thenReturn(collection);
+        lenient().when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class)))
+                .thenReturn(BulkWriteResult.unacknowledged());
+
+        store = new NotificationWriteBehindStore(mongoTemplate, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(store, "maxBatchSize", 500);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flush_ShouldCoalesceStatusChangeIntoPendingInsert() {
+        // Arrange
+        Notification n = notification("PENDING");
+        store.insert(n);
+        n.setStatus("SENT");
+        store.updateStatus(n);
+
+        // Act
+        store.flush();
+
+        // Assert
+        ArgumentCaptor<List<WriteModel<Document>>> captor = ArgumentCaptor.forClass(List.class);
+        verify(collection, times(1)).bulkWrite(captor.capture(), any(BulkWriteOptions.class));
+        List<WriteModel<Document>> models = captor.getValue();
+        assertEquals(1, models.size());
+        UpdateOneModel<Document> upsert = (UpdateOneModel<Document>) models.get(0);
+        assertTrue(upsert.getOptions().isUpsert());
+        Document update = (Document) upsert.getUpdate();
+        assertEquals("SENT", ((Document) update.get("$set")).get("status"));
+        Document onInsert = (Document) update.get("$setOnInsert");
+        assertEquals("usr_1", onInsert.get("recipient"));
+        assertFalse(onInsert.containsKey("status"), "Status should only be in the $set");
+        assertNotNull(n.getId(), "Id should be assigned before the record is flushed");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flush_ShouldSendTargetedSetForAlreadyFlushedRecord() {
+        // Arrange
+        Notification n = notification("PENDING");
+        store.insert(n);
+        store.flush();
+        n.setStatus("FAILED");
+        n.setErrorMessage("boom");
+        store.updateStatus(n);
+
+        // Act
+        store.flush();
+
+        // Assert
+        ArgumentCaptor<List<WriteModel<Document>>> captor = ArgumentCaptor.forClass(List.class);
+        verify(collection, times(2)).bulkWrite(captor.capture(), any(BulkWriteOptions.class));
+        List<WriteModel<Document>> second = captor.getValue();
+        assertEquals(1, second.size());
+        Document set = (Document) ((UpdateOneModel<Document>) second.get(0)).getUpdate();
+        Document fields = (Document) set.get("$set");
+        assertEquals("FAILED", fields.get("status"));
+        assertEquals("boom", fields.get("errorMessage"));
+        assertFalse(fields.containsKey("recipient"), "Only status fields should be updated");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flush_ShouldRequeueWritesWhenMongoIsUnavailable() {
+        // Arrange
+        Notification n = notification("PENDING");
+        store.insert(n);
+        when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class)))
+                .thenThrow(new RuntimeException("connection refused"))
+                .thenReturn(BulkWriteResult.unacknowledged());
+
+        // Act
+        store.flush();
+        store.flush();
+
+        // Assert: the retry is an idempotent upsert on the same _id, in case the failed
+        // flush was partly applied
+        ArgumentCaptor<List<WriteModel<Document>>> captor = ArgumentCaptor.forClass(List.class);
+        verify(collection, times(2)).bulkWrite(captor.capture(), any(BulkWriteOptions.class));
+        UpdateOneModel<Document> retried = (UpdateOneModel<Document>) captor.getValue().get(0);
+        assertTrue(retried.getOptions().isUpsert());
+        assertEquals(Filters.eq("_id", new ObjectId(n.getId())), retried.getFilter());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flush_ShouldOnlySetOnInsertWhenRetryingAnInsert() {
+        // Arrange: the first flush may have reached the server before failing
+        Notification n = notification("PENDING");
+        store.insert(n);
+        when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class)))
+                .thenThrow(new RuntimeException("connection reset"))
+                .thenReturn(BulkWriteResult.unacknowledged());
+        store.flush();
+        n.setStatus("SENT");
+        store.updateStatus(n);
+
+        // Act
+        store.flush();
+
+        // Assert: document fields are never overwritten (e.g. isRead set in between), only the
+        // delivery's own status fields are
+        ArgumentCaptor<List<WriteModel<Document>>> captor = ArgumentCaptor.forClass(List.class);
+        verify(collection, times(2)).bulkWrite(captor.capture(), any(BulkWriteOptions.class));
+        List<WriteModel<Document>> retry = captor.getValue();
+        assertEquals(1, retry.size());
+        Document update = (Document) ((UpdateOneModel<Document>) retry.get(0)).getUpdate();
+        assertEquals(Set.of("$setOnInsert", "$set"), update.keySet());
+        assertTrue(((Document) update.get("$setOnInsert")).containsKey("isRead"));
+        assertEquals("SENT", ((Document) update.get("$set")).get("status"));
+        assertFalse(((Document) update.get("$set")).containsKey("isRead"));
+    }
+
+    private Notification notification(String status) {
+        Notification n = new Notification();
+        n.setEventId("evt_1");
+        n.setUserId("usr_1");
+        n.setType("PUSH");
+        n.setRecipient("usr_1");
+        n.setStatus(status);
+        n.setRetryCount(0);
+        return n;
+    }
+}
@@ -0,0 +1,59 @@
+package com.khetisetu.event.notifications.service;
+
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.ThreadPoolBulkheadRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChannelBulkheadsTest {
+
+    private ChannelBulkheads bulkheads;
+
+    @BeforeEach
+    void setUp() {
+        bulkheads = new ChannelBulkheads(ThreadPoolBulkheadRegistry.ofDefaults());
+        ReflectionTestUtils.setField(bulkheads, "emailConcurrency", 1);
+        ReflectionTestUtils.setField(bulkheads, "queueCapacity", 1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        bulkheads.shutdown();
+        MDC.clear();
+    }
+
+    @Test
+    void submit_ShouldNotLetSaturatedEmailStarvePush() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        bulkheads.submit("EMAIL", () -> release.await(5, TimeUnit.SECONDS));
+        bulkheads.submit("EMAIL", () -> release.await(5, TimeUnit.SECONDS));
+
+        // EMAIL thread busy and its queue full: further email sends are rejected...
+        CompletableFuture<Boolean> rejected = bulkheads.submit("EMAIL", () -> true);
+        CompletionException e = assertThrows(CompletionException.class, rejected::join);
+        assertInstanceOf(BulkheadFullException.class, e.getCause());
+
+        // ...while PUSH still runs right away
+        assertEquals("sent", bulkheads.submit("PUSH", () -> "sent").get(1, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    void submit_ShouldCarryMdcToBulkheadThread() throws Exception {
+        MDC.put("eventId", "evt-1");
+
+        String seen = bulkheads.submit("PUSH", () -> MDC.get("eventId")).get(1, TimeUnit.SECONDS);
+
+        assertEquals("evt-1", seen);
+    }
+}
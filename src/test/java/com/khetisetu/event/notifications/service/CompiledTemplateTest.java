@@ -0,0 +1,46 @@
+package com.khetisetu.event.notifications.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompiledTemplateTest {
+
+    @Test
+    void render_ShouldSubstituteAllPlaceholdersInOnePass() {
+        CompiledTemplate template = CompiledTemplate.compile("New {{resourceName}} booking {{resourceId}}: {{status}}");
+
+        String result = template.render(Map.of("resourceName", "Tractor", "resourceId", "42", "status", "CONFIRMED"));
+
+        assertEquals("New Tractor booking 42: CONFIRMED", result);
+    }
+
+    @Test
+    void render_ShouldKeepPlaceholderWhenKeyIsMissingOrNull() {
+        Map<String, String> params = new HashMap<>();
+        params.put("a", null);
+
+        String result = CompiledTemplate.compile("{{a}}-{{b}}").render(params);
+
+        assertEquals("{{a}}-{{b}}", result);
+    }
+
+    @Test
+    void render_ShouldNotExpandPlaceholdersInsideValues() {
+        String result = CompiledTemplate.compile("Hi {{name}}, {{otp}}").render(Map.of("name", "{{otp}}", "otp", "1234"));
+
+        assertEquals("Hi {{otp}}, 1234", result);
+    }
+
+    @Test
+    void compile_ShouldTreatUnterminatedPlaceholderAsLiteral() {
+        CompiledTemplate template = CompiledTemplate.compile("Price {{amount}} {{unit");
+
+        assertEquals("Price 10 {{unit", template.render(Map.of("amount", "10", "unit", "kg")));
+        assertFalse(CompiledTemplate.compile("plain text").hasPlaceholders());
+        assertEquals("", CompiledTemplate.compile(null).render(Map.of()));
+    }
+}
@@ -0,0 +1,143 @@
+package com.khetisetu.event.notifications.service;
+
+import com.khetisetu.event.notifications.dto.NotificationRequestEvent;
+import com.khetisetu.event.notifications.model.ScheduledNotification;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.ZoneId;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class DeliverySchedulerTest {
+
+    private static final ZoneId IST = ZoneId.of("Asia/Kolkata");
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private KafkaTemplate<String, Object> kafkaTemplate;
+
+    @Mock
+    private BulkOperations bulkOperations;
+
+    private DeliveryScheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = new DeliveryScheduler(mongoTemplate, kafkaTemplate, new SimpleMeterRegistry(),
+                "promo_push=21:00-06:00, weekly_digest=09:00-10:00", "Asia/Kolkata", 100);
+    }
+
+    private static NotificationRequestEvent event(String eventId, String template, Instant deliverAt) {
+        return NotificationRequestEvent.builder()
+                .eventId(eventId).recipient("user-1").templateName(template).sendPush(true).deliverAt(deliverAt).build();
+    }
+
+    private static Instant ist(int hour, int minute) {
+        return ZonedDateTime.of(2025, 1, 10, hour, minute, 0, 0, IST).toInstant();
+    }
+
+    @Test
+    void holdUntil_ShouldHoldUntilQuietHoursEnd() {
+        NotificationRequestEvent promo = event("e1", "promo_push", null);
+
+        assertEquals(ist(6, 0).plusSeconds(86_400), scheduler.holdUntil(promo, ist(22, 30)));
+        assertEquals(ist(6, 0), scheduler.holdUntil(promo, ist(2, 0)));
+        assertNull(scheduler.holdUntil(promo, ist(12, 0)));
+        assertEquals(ist(10, 0), scheduler.holdUntil(event("e2", "weekly_digest", null), ist(9, 15)));
+        assertNull(scheduler.holdUntil(event("e3", "otp_email", null), ist(23, 0)));
+    }
+
+    @Test
+    void holdUntil_ShouldApplyQuietHoursAtTheRequestedDeliveryTime() {
+        assertEquals(ist(13, 0), scheduler.holdUntil(event("e1", "otp_email", ist(13, 0)), ist(12, 0)));
+        assertEquals(ist(6, 0).plusSeconds(86_400),
+                scheduler.holdUntil(event("e2", "promo_push", ist(23, 0)), ist(12, 0)));
+        assertNull(scheduler.holdUntil(event("e3", "otp_email", ist(11, 0)), ist(12, 0)), "Past deliverAt is due");
+    }
+
+    @Test
+    void scheduleAll_ShouldTreatAlreadyScheduledEventsAsScheduled() {
+        NotificationRequestEvent redelivered = event("e1", null, Instant.now().plusSeconds(3600));
+        NotificationRequestEvent rejected = event("e2", null, Instant.now().plusSeconds(3600));
+        Map<NotificationRequestEvent, Instant> held = new LinkedHashMap<>();
+        held.put(redelivered, redelivered.deliverAt());
+        held.put(rejected, rejected.deliverAt());
+
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ScheduledNotification.class)).thenReturn(bulkOperations);
+        when(bulkOperations.execute()).thenThrow(new BulkOperationException("bulk", new MongoBulkWriteException(
+                BulkWriteResult.unacknowledged(),
+                List.of(new BulkWriteError(11000, "duplicate key", new BsonDocument(), 0),
+                        new BulkWriteError(121, "validation failed", new BsonDocument(), 1)),
+                null, new ServerAddress(), Set.of())));
+
+        Set<NotificationRequestEvent> failed = scheduler.scheduleAll(held);
+
+        assertEquals(Set.of(rejected), failed);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void scan_ShouldReleaseOverdueRequestsAndDeleteThem() {
+        ScheduledNotification overdue = new ScheduledNotification();
+        overdue.setId("e1");
+        overdue.setDueAt(Instant.now().minusSeconds(60));
+        overdue.setReason("QUIET_HOURS");
+        overdue.setEvent(event("e1", "promo_push", null));
+        when(mongoTemplate.find(any(Query.class), eq(ScheduledNotification.class))).thenReturn(List.of(overdue));
+        when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(CompletableFuture.completedFuture(null));
+
+        scheduler.scan(System.currentTimeMillis());
+
+        ArgumentCaptor<ProducerRecord<String, Object>> sent = ArgumentCaptor.forClass(ProducerRecord.class);
+        verify(kafkaTemplate).send(sent.capture());
+        assertEquals("notification-requests", sent.getValue().topic());
+        assertEquals("user-1", sent.getValue().key());
+        assertNotNull(sent.getValue().headers().lastHeader(DeliveryScheduler.RELEASED_HEADER));
+        verify(mongoTemplate).remove(any(Query.class), eq(ScheduledNotification.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void tick_ShouldReleaseNearTermRequestsFromTheWheel() {
+        NotificationRequestEvent soon = event("e1", null, Instant.now().plusMillis(500));
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ScheduledNotification.class)).thenReturn(bulkOperations);
+        when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(CompletableFuture.completedFuture(null));
+
+        assertTrue(scheduler.scheduleAll(Map.of(soon, soon.deliverAt())).isEmpty());
+        scheduler.tick(System.currentTimeMillis());
+        verify(kafkaTemplate, never()).send(any(ProducerRecord.class));
+
+        scheduler.tick(soon.deliverAt().toEpochMilli() + 100);
+        verify(kafkaTemplate).send(any(ProducerRecord.class));
+        verify(mongoTemplate).remove(any(Query.class), eq(ScheduledNotification.class));
+    }
+}
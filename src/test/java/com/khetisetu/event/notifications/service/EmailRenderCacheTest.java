@@ -0,0 +1,79 @@
+package com.khetisetu.event.notifications.service;
+
+import com.khetisetu.event.notifications.model.NotificationTemplate;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class EmailRenderCacheTest {
+
+    @Mock
+    private NotificationTemplateRegistry templateRegistry;
+
+    private SimpleMeterRegistry meterRegistry;
+    private EmailRenderCache renderCache;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        renderCache = new EmailRenderCache(templateRegistry, meterRegistry, 16);
+
+        NotificationTemplate definition = new NotificationTemplate();
+        definition.setName("job_created_email");
+        definition.setPerRecipientParams(List.of("email"));
+        lenient().when(templateRegistry.find("job_created_email", "en"))
+                .thenReturn(new NotificationTemplateRegistry.Entry(definition, CompiledTemplate.EMPTY, CompiledTemplate.EMPTY));
+        lenient().when(templateRegistry.renderHtml(eq("job_created_email"), eq("en"), anyMap(), any(Instant.class)))
+                .thenAnswer(i -> {
+                    Map<String, String> params = i.getArgument(2);
+                    return "<h1>" + params.get("title") + "</h1><a href=\"/unsubscribe?email=" + params.get("email") + "\">x</a>";
+                });
+    }
+
+    @Test
+    void render_ShouldRenderOnceAndFillInPerRecipientParams() {
+        EmailRenderCache.RenderedEmail first = renderCache.render("job_created_email", "en",
+                Map.of("title", "Harvest", "email", "a@x.com"));
+        EmailRenderCache.RenderedEmail second = renderCache.render("job_created_email", "en",
+                Map.of("title", "Harvest", "email", "b&c@x.com"));
+
+        assertEquals("<h1>Harvest</h1><a href=\"/unsubscribe?email=a@x.com\">x</a>", first.html());
+        assertEquals("<h1>Harvest</h1><a href=\"/unsubscribe?email=b&amp;c@x.com\">x</a>", second.html());
+        assertEquals("Harvestx", second.text());
+        verify(templateRegistry, times(1)).renderHtml(anyString(), anyString(), anyMap(), any(Instant.class));
+        assertEquals(1.0, meterRegistry.get("email.render.cache").tag("result", "hit").counter().count());
+        assertEquals(1.0, meterRegistry.get("email.render.cache").tag("result", "miss").counter().count());
+    }
+
+    @Test
+    void render_ShouldRenderAgainWhenSharedParamsDiffer() {
+        renderCache.render("job_created_email", "en", Map.of("title", "Harvest", "email", "a@x.com"));
+        EmailRenderCache.RenderedEmail other = renderCache.render("job_created_email", "en",
+                Map.of("title", "Sowing", "email", "a@x.com"));
+
+        assertTrue(other.html().contains("Sowing"));
+        verify(templateRegistry, times(2)).renderHtml(anyString(), anyString(), anyMap(), any(Instant.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void render_ShouldKeepUndeclaredParamsInTheKey() {
+        when(templateRegistry.renderHtml(eq("otp_email"), eq("en"), anyMap(), any(Instant.class)))
+                .thenAnswer(i -> "<p>" + ((Map<String, String>) i.getArgument(2)).get("otp") + "</p>");
+
+        assertEquals("<p>1111</p>", renderCache.render("otp_email", "en", Map.of("otp", "1111")).html());
+        assertEquals("<p>2222</p>", renderCache.render("otp_email", "en", Map.of("otp", "2222")).html());
+    }
+}
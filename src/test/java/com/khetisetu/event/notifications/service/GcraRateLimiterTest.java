@@ -0,0 +1,61 @@
+package com.khetisetu.event.notifications.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class GcraRateLimiterTest {
+
+    @Mock
+    private StringRedisTemplate redisTemplate;
+
+    @Test
+    void parse_ShouldReadRatePeriodAndBurst() {
+        GcraRateLimiter.Policy policy = GcraRateLimiter.Policy.parse("otp", "3/1m+2");
+
+        assertEquals(3, policy.rate());
+        assertEquals(Duration.ofMinutes(1), policy.period());
+        assertEquals(2, policy.burst());
+        assertEquals(20_000, policy.intervalMs(), 0.001);
+        assertEquals(20_000, policy.toleranceMs(), 0.001);
+
+        assertEquals(5, GcraRateLimiter.Policy.parse("default", "5/m").burst());
+        assertThrows(IllegalArgumentException.class, () -> GcraRateLimiter.Policy.parse("bad", "five per minute"));
+    }
+
+    @Test
+    void tryAcquireAll_ShouldDecideEveryCheckInOneScriptCall() {
+        GcraRateLimiter limiter = new GcraRateLimiter(redisTemplate, 1000);
+        GcraRateLimiter.Policy policy = GcraRateLimiter.Policy.parse("default", "5/1m");
+        when(redisTemplate.execute(eq(GcraRateLimiter.BATCH_SCRIPT), eq(List.of("k1", "k2")), any(Object[].class)))
+                .thenReturn(List.of(1L, 0L));
+
+        List<Boolean> allowed = limiter.tryAcquireAll(List.of(
+                new GcraRateLimiter.Check("k1", policy), new GcraRateLimiter.Check("k2", policy)));
+
+        assertEquals(List.of(true, false), allowed);
+    }
+
+    @Test
+    void tryAcquireAll_ShouldApplyLocalLimitsWhenRedisIsDown() {
+        GcraRateLimiter limiter = new GcraRateLimiter(redisTemplate, 1000);
+        when(redisTemplate.execute(eq(GcraRateLimiter.BATCH_SCRIPT), anyList(), any(Object[].class)))
+                .thenThrow(new IllegalStateException("connection refused"));
+        // Burst of 2, then one per minute
+        GcraRateLimiter.Check check = new GcraRateLimiter.Check("rate:user-1:PUSH",
+                GcraRateLimiter.Policy.parse("default", "1/1m+2"));
+        GcraRateLimiter.Check other = new GcraRateLimiter.Check("rate:user-2:PUSH", check.policy());
+
+        assertEquals(List.of(true, true, false, true), limiter.tryAcquireAll(List.of(check, check, check, other)));
+    }
+}
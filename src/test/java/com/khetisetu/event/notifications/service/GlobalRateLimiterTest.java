@@ -0,0 +1,80 @@
+package com.khetisetu.event.notifications.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class GlobalRateLimiterTest {
+
+    @Mock
+    private StringRedisTemplate redisTemplate;
+
+    private GlobalRateLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        limiter = new GlobalRateLimiter(redisTemplate, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(limiter, "leaseSize", 10);
+    }
+
+    @Test
+    void tryAcquire_ShouldServeWholeLeaseWithOneRedisCall() {
+        when(redisTemplate.execute(eq(GlobalRateLimiter.LEASE_SCRIPT), anyList(), eq("10"), eq("300"), anyString()))
+                .thenReturn(10L);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquire("EMAIL", 300));
+        }
+
+        verify(redisTemplate, times(1)).execute(eq(GlobalRateLimiter.LEASE_SCRIPT), anyList(), any(), any(), any());
+    }
+
+    @Test
+    void tryAcquire_ShouldDenyOncePartialLeaseAtCapIsUsedUp() {
+        // Only 3 permits left under the cap, then none
+        when(redisTemplate.execute(eq(GlobalRateLimiter.LEASE_SCRIPT), anyList(), any(), any(), any()))
+                .thenReturn(3L, 0L);
+
+        assertTrue(limiter.tryAcquire("EMAIL", 300));
+        assertTrue(limiter.tryAcquire("EMAIL", 300));
+        assertTrue(limiter.tryAcquire("EMAIL", 300));
+        assertFalse(limiter.tryAcquire("EMAIL", 300));
+        // Exhaustion is remembered for a while instead of asking Redis on every email
+        assertFalse(limiter.tryAcquire("EMAIL", 300));
+
+        verify(redisTemplate, times(2)).execute(eq(GlobalRateLimiter.LEASE_SCRIPT), anyList(), any(), any(), any());
+    }
+
+    @Test
+    void releaseLeases_ShouldReturnUnusedPermits() {
+        when(redisTemplate.execute(eq(GlobalRateLimiter.LEASE_SCRIPT), anyList(), any(), any(), any()))
+                .thenReturn(10L);
+        limiter.tryAcquire("EMAIL", 300);
+        limiter.tryAcquire("EMAIL", 300);
+
+        limiter.releaseLeases();
+
+        verify(redisTemplate).execute(eq(GlobalRateLimiter.RETURN_SCRIPT),
+                argThat((List<String> keys) -> keys.get(0).startsWith("global:rate:EMAIL:")), eq("8"));
+    }
+
+    @Test
+    void tryAcquire_ShouldFailOpenWhenRedisIsDown() {
+        when(redisTemplate.execute(eq(GlobalRateLimiter.LEASE_SCRIPT), anyList(), any(), any(), any()))
+                .thenThrow(new IllegalStateException("connection refused"));
+
+        assertTrue(limiter.tryAcquire("EMAIL", 300));
+    }
+}
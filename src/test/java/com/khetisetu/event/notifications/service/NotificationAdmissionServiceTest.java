@@ -0,0 +1,58 @@
+package com.khetisetu.event.notifications.service;
+
+import com.khetisetu.event.notifications.service.NotificationAdmissionService.Admission;
+import com.khetisetu.event.notifications.service.NotificationAdmissionService.AdmissionRequest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class NotificationAdmissionServiceTest {
+
+    @Mock
+    private StringRedisTemplate redisTemplate;
+
+    private NotificationAdmissionService admissionService;
+
+    @BeforeEach
+    void setUp() {
+        admissionService = new NotificationAdmissionService(redisTemplate, new GcraRateLimiter(redisTemplate, 1000),
+                "5/1m", "PUSH=10/1m", "otp_email=3/1m+1");
+    }
+
+    @Test
+    void policyFor_ShouldPreferTemplateThenChannelThenDefault() {
+        assertEquals("otp_email", admissionService.policyFor("EMAIL", "otp_email").name());
+        assertEquals("PUSH", admissionService.policyFor("PUSH", "job_created").name());
+        assertEquals("default", admissionService.policyFor("EMAIL", "job_created").name());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void admitAll_ShouldKeepLimitingWhenRedisIsDown() {
+        when(redisTemplate.executePipelined(any(RedisCallback.class)))
+                .thenThrow(new IllegalStateException("connection refused"));
+
+        // OTP emails allow a burst of 1; marketing emails to the same user have their own default limit
+        List<Admission> admissions = admissionService.admitAll(List.of(
+                new AdmissionRequest("e1", "user@example.com", List.of("EMAIL"), "otp_email"),
+                new AdmissionRequest("e2", "user@example.com", List.of("EMAIL"), "otp_email"),
+                new AdmissionRequest("e3", "user@example.com", List.of("EMAIL"), "weekly_digest")));
+
+        assertEquals(Set.of("EMAIL"), admissions.get(0).allowedChannels());
+        assertEquals(Set.of(), admissions.get(1).allowedChannels());
+        assertEquals(Set.of("EMAIL"), admissions.get(2).allowedChannels());
+        assertFalse(admissions.get(1).duplicate());
+    }
+}
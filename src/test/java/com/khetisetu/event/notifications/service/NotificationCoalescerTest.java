@@ -0,0 +1,186 @@
+package com.khetisetu.event.notifications.service;
+
+import com.khetisetu.event.notifications.dto.NotificationRequestEvent;
+import com.khetisetu.event.notifications.model.Notification;
+import com.khetisetu.event.notifications.model.NotificationTemplate;
+import com.khetisetu.event.notifications.provider.NotificationProvider;
+import com.khetisetu.event.notifications.provider.NotificationProvider.SendRequest;
+import com.khetisetu.event.notifications.repository.NotificationWriteBehindStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class NotificationCoalescerTest {
+
+    @Mock
+    private NotificationProvider pushProvider;
+
+    @Mock
+    private NotificationProvider emailProvider;
+
+    @Mock
+    private NotificationWriteBehindStore notificationStore;
+
+    @Mock
+    private NotificationTemplateRegistry templateRegistry;
+
+    @Mock
+    private NotificationTemplateService templateService;
+
+    private NotificationCoalescer coalescer;
+
+    @BeforeEach
+    void setUp() {
+        coalescer = new NotificationCoalescer(Map.of("PUSH", pushProvider, "EMAIL", emailProvider), notificationStore,
+                templateService, templateRegistry, new SimpleMeterRegistry(), 60_000, "jobs=job_created|job_updated", "notification_digest");
+    }
+
+    private static NotificationRequestEvent event(String eventId, String template) {
+        return NotificationRequestEvent.builder()
+                .eventId(eventId).userId("user-1").recipient("user-1").templateName(template).sendPush(true).build();
+    }
+
+    private static NotificationRequestEvent emailEvent(String eventId, String template, String language) {
+        return NotificationRequestEvent.builder()
+                .eventId(eventId).userId("user-1").recipient("user-1@example.com").templateName(template)
+                .language(language).sendEmail(true).build();
+    }
+
+    private static Notification record() {
+        Notification notification = new Notification();
+        notification.setStatus("PENDING");
+        return notification;
+    }
+
+    @Test
+    void hold_ShouldSendTheFirstNotificationAndHoldTheRestOfTheWindow() {
+        assertFalse(coalescer.hold(event("e1", "job_created"), "PUSH", record()));
+
+        Notification second = record();
+        assertTrue(coalescer.hold(event("e2", "job_updated"), "PUSH", second));
+        assertEquals("COALESCED", second.getStatus());
+
+        assertFalse(coalescer.hold(event("e3", "otp_push"), "PUSH", record()), "Templates outside a group are never held");
+        assertFalse(coalescer.hold(event("e4", "job_created"), "EMAIL", record()), "Windows are per channel");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flush_ShouldSendOneDigestAndRecordItsOutcomeOnEveryHeldNotification() {
+        when(templateService.resolve(anyString(), any(), any()))
+                .thenAnswer(i -> new NotificationTemplateService.Content("Title of " + i.getArgument(0), ""));
+        when(pushProvider.sendAllAsync(anyList())).thenAnswer(i -> CompletableFuture.completedFuture(
+                new ArrayList<Exception>(Collections.nCopies(((List<?>) i.getArgument(0)).size(), null))));
+        coalescer.hold(event("e1", "job_created"), "PUSH", record());
+        Notification second = record();
+        Notification third = record();
+        coalescer.hold(event("e2", "job_created"), "PUSH", second);
+        coalescer.hold(event("e3", "job_updated"), "PUSH", third);
+
+        coalescer.flush(Long.MAX_VALUE);
+
+        ArgumentCaptor<List<SendRequest>> sent = ArgumentCaptor.forClass(List.class);
+        verify(pushProvider).sendAllAsync(sent.capture());
+        assertEquals(1, sent.getValue().size());
+        NotificationRequestEvent digest = sent.getValue().get(0).event();
+        assertEquals("notification_digest", digest.templateName());
+        assertEquals("user-1", digest.recipient());
+        assertEquals("2", digest.params().get("count"));
+        assertEquals("Title of job_created\nTitle of job_updated", digest.params().get("summary"));
+        assertEquals("SENT", second.getStatus());
+        assertEquals("SENT", third.getStatus());
+        verify(notificationStore).updateStatusAll(List.of(second, third));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flush_ShouldSendALoneHeldNotificationAsIsAndMarkFailures() {
+        when(pushProvider.sendAllAsync(anyList())).thenReturn(CompletableFuture.completedFuture(
+                List.of(new RuntimeException("FCM unavailable"))));
+        coalescer.hold(event("e1", "job_created"), "PUSH", record());
+        NotificationRequestEvent held = event("e2", "job_updated");
+        Notification second = record();
+        coalescer.hold(held, "PUSH", second);
+
+        coalescer.flush(System.currentTimeMillis());
+        verify(pushProvider, never()).sendAllAsync(anyList());
+
+        coalescer.flush(Long.MAX_VALUE);
+
+        ArgumentCaptor<List<SendRequest>> sent = ArgumentCaptor.forClass(List.class);
+        verify(pushProvider).sendAllAsync(sent.capture());
+        assertSame(held, sent.getValue().get(0).event());
+        assertEquals("FAILED", second.getStatus());
+        assertEquals("FCM unavailable", second.getErrorMessage());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flush_ShouldFallBackToEnglishDigestWhenTheLanguageHasNoDigestTemplate() {
+        when(templateService.resolve(anyString(), any(), any()))
+                .thenAnswer(i -> new NotificationTemplateService.Content("Title of " + i.getArgument(0), ""));
+        when(emailProvider.sendAllAsync(anyList())).thenAnswer(i -> CompletableFuture.completedFuture(
+                new ArrayList<Exception>(Collections.nCopies(((List<?>) i.getArgument(0)).size(), null))));
+        NotificationTemplate definition = new NotificationTemplate();
+        definition.setSubject("{{count}} updates");
+        definition.setContent("{{summary}}");
+        // hn has the digest's definition but not its HTML; mr has neither
+        when(templateRegistry.find("notification_digest", "hn"))
+                .thenReturn(NotificationTemplateRegistry.Entry.of(definition));
+        when(templateRegistry.hasHtml("notification_digest", "hn")).thenReturn(false);
+        when(templateRegistry.find("notification_digest", "mr")).thenReturn(null);
+        for (String language : List.of("hn", "mr")) {
+            coalescer.hold(emailEvent("e1-" + language, "job_created", language), "EMAIL", record());
+            coalescer.hold(emailEvent("e2-" + language, "job_updated", language), "EMAIL", record());
+            coalescer.hold(emailEvent("e3-" + language, "job_updated", language), "EMAIL", record());
+            coalescer.flush(Long.MAX_VALUE);
+        }
+
+        ArgumentCaptor<List<SendRequest>> sent = ArgumentCaptor.forClass(List.class);
+        verify(emailProvider, times(2)).sendAllAsync(sent.capture());
+        for (List<SendRequest> digests : sent.getAllValues()) {
+            assertEquals(1, digests.size());
+            assertEquals("notification_digest", digests.get(0).event().templateName());
+            assertEquals("en", digests.get(0).event().language());
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flush_ShouldKeepTheRecipientsLanguageWhenTheDigestTemplateExistsInIt() {
+        when(templateService.resolve(anyString(), any(), any()))
+                .thenAnswer(i -> new NotificationTemplateService.Content("Title of " + i.getArgument(0), ""));
+        when(emailProvider.sendAllAsync(anyList())).thenAnswer(i -> CompletableFuture.completedFuture(
+                new ArrayList<Exception>(Collections.nCopies(((List<?>) i.getArgument(0)).size(), null))));
+        NotificationTemplate definition = new NotificationTemplate();
+        definition.setSubject("{{count}} updates");
+        definition.setContent("{{summary}}");
+        when(templateRegistry.find("notification_digest", "hn"))
+                .thenReturn(NotificationTemplateRegistry.Entry.of(definition));
+        when(templateRegistry.hasHtml("notification_digest", "hn")).thenReturn(true);
+        coalescer.hold(emailEvent("e1", "job_created", "hn"), "EMAIL", record());
+        coalescer.hold(emailEvent("e2", "job_updated", "hn"), "EMAIL", record());
+        coalescer.hold(emailEvent("e3", "job_updated", "hn"), "EMAIL", record());
+
+        coalescer.flush(Long.MAX_VALUE);
+
+        ArgumentCaptor<List<SendRequest>> sent = ArgumentCaptor.forClass(List.class);
+        verify(emailProvider).sendAllAsync(sent.capture());
+        assertEquals("hn", sent.getValue().get(0).event().language());
+    }
+}
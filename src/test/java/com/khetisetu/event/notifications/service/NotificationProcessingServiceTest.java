@@ -4,21 +4,32 @@ import com.khetisetu.event.logs.service.LogService;
 import com.khetisetu.event.notifications.dto.NotificationRequestEvent;
 import com.khetisetu.event.notifications.model.Notification;
 import com.khetisetu.event.notifications.provider.NotificationProvider;
-import com.khetisetu.event.notifications.repository.NotificationRepository;
+import com.khetisetu.event.notifications.repository.NotificationWriteBehindStore;
+import com.khetisetu.event.notifications.service.NotificationAdmissionService.Admission;
+import com.khetisetu.event.notifications.service.NotificationAdmissionService.AdmissionRequest;
+import io.github.resilience4j.bulkhead.ThreadPoolBulkheadRegistry;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.ValueOperations;
+import org.mockito.stubbing.Answer;
 import org.springframework.kafka.core.KafkaTemplate;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -28,13 +39,11 @@ import static org.mockito.Mockito.*;
 class NotificationProcessingServiceTest {
 
     @Mock
-    private NotificationRepository notificationRepository;
+    private NotificationWriteBehindStore notificationStore;
     @Mock
     private KafkaTemplate<String, Object> kafkaTemplate;
     @Mock
-    private RedisTemplate<String, String> redisTemplate;
-    @Mock
-    private ValueOperations<String, String> valueOperations;
+    private NotificationAdmissionService admissionService;
     @Mock
     private MeterRegistry meterRegistry;
     @Mock
@@ -44,9 +53,17 @@ class NotificationProcessingServiceTest {
     @Mock
     private NotificationProvider emailProvider;
 
+    @Mock
+    private DeliveryScheduler deliveryScheduler;
+    @Mock
+    private NotificationCoalescer coalescer;
+    @Mock
+    private UnreadCounterService unreadCounters;
+
     @Mock
     LogService logService;
 
+    private ChannelBulkheads channelBulkheads;
     private NotificationProcessingService service;
 
     @BeforeEach
@@ -57,18 +74,32 @@ class NotificationProcessingServiceTest {
 
         doNothing().when(logService).storeLog(any(), anyString(), any(), anyString(), anyString());
 
+        channelBulkheads = new ChannelBulkheads(ThreadPoolBulkheadRegistry.ofDefaults());
         service = new NotificationProcessingService(
-                notificationRepository,
+                notificationStore,
                 providers,
                 kafkaTemplate,
-                redisTemplate,
-                meterRegistry);
+                admissionService,
+                meterRegistry,
+                channelBulkheads,
+                deliveryScheduler,
+                coalescer,
+                unreadCounters);
         service.logService = logService; // Inject mock log service
 
-        lenient().when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        lenient().when(pushProvider.sendAll(anyList())).thenCallRealMethod();
+        lenient().when(emailProvider.sendAll(anyList())).thenCallRealMethod();
+        lenient().when(pushProvider.sendAllAsync(anyList())).thenCallRealMethod();
+        lenient().when(emailProvider.sendAllAsync(anyList())).thenCallRealMethod();
+        lenient().when(admissionService.admit(any())).thenAnswer(i -> admitAll(i.getArgument(0)));
         lenient().when(meterRegistry.counter(anyString(), any(String[].class))).thenReturn(counter);
     }
 
+    @AfterEach
+    void tearDown() {
+        channelBulkheads.shutdown();
+    }
+
     @Test
     void processRequest_ShouldSendToBoth_WhenBothFlagsAreTrue() throws Exception {
         // Arrange
@@ -80,8 +111,7 @@ class NotificationProcessingServiceTest {
                 .sendEmail(true)
                 .build();
 
-        when(valueOperations.get(anyString())).thenReturn(null); // Rate limit null
-        when(notificationRepository.save(any(Notification.class))).thenAnswer(i -> i.getArguments()[0]);
+        when(notificationStore.insert(any(Notification.class))).thenAnswer(i -> i.getArguments()[0]);
 
         // Act
         service.process(event);
@@ -102,8 +132,7 @@ class NotificationProcessingServiceTest {
                 .sendEmail(true)
                 .build();
 
-        when(valueOperations.get(anyString())).thenReturn(null);
-        when(notificationRepository.save(any(Notification.class))).thenAnswer(i -> i.getArguments()[0]);
+        when(notificationStore.insert(any(Notification.class))).thenAnswer(i -> i.getArguments()[0]);
 
         // Mock PUSH failure
         doThrow(new RuntimeException("Push failed")).when(pushProvider).send(eq(event), any(Notification.class));
@@ -117,7 +146,7 @@ class NotificationProcessingServiceTest {
 
         // Verify both notifications were created and status updated
         ArgumentCaptor<Notification> captor = ArgumentCaptor.forClass(Notification.class);
-        verify(notificationRepository, atLeast(2)).save(captor.capture());
+        verify(notificationStore, times(2)).updateStatus(captor.capture());
 
         boolean hasFailedPush = captor.getAllValues().stream()
                 .anyMatch(n -> "PUSH".equals(n.getType()) && "FAILED".equals(n.getStatus()));
@@ -128,6 +157,32 @@ class NotificationProcessingServiceTest {
         assertTrue(hasSentEmail, "Should have a sent EMAIL notification record");
     }
 
+    @Test
+    void processRequest_ShouldSendChannelsConcurrently() throws Exception {
+        NotificationRequestEvent event = NotificationRequestEvent.builder()
+                .eventId("evt_123")
+                .userId("usr_456")
+                .recipient("test@example.com")
+                .sendPush(true)
+                .sendEmail(true)
+                .build();
+        when(notificationStore.insert(any(Notification.class))).thenAnswer(i -> i.getArguments()[0]);
+
+        // Each send waits for the other to start: only passes if both run at the same time
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        Answer<Void> rendezvous = i -> {
+            bothStarted.countDown();
+            assertTrue(bothStarted.await(5, TimeUnit.SECONDS), "channels were sent one after the other");
+            return null;
+        };
+        doAnswer(rendezvous).when(pushProvider).send(eq(event), any(Notification.class));
+        doAnswer(rendezvous).when(emailProvider).send(eq(event), any(Notification.class));
+
+        service.process(event);
+
+        verify(notificationStore, times(2)).updateStatus(argThat(n -> "SENT".equals(n.getStatus())));
+    }
+
     @Test
     void processRequest_ShouldRelyOnType_WhenFlagsAreMissing() throws Exception {
         // Arrange
@@ -140,8 +195,7 @@ class NotificationProcessingServiceTest {
                 .sendEmail(false)
                 .build();
 
-        when(valueOperations.get(anyString())).thenReturn(null);
-        when(notificationRepository.save(any(Notification.class))).thenAnswer(i -> i.getArguments()[0]);
+        when(notificationStore.insert(any(Notification.class))).thenAnswer(i -> i.getArguments()[0]);
 
         // Act
         service.process(event);
@@ -150,4 +204,139 @@ class NotificationProcessingServiceTest {
         verify(emailProvider, times(1)).send(eq(event), any(Notification.class));
         verify(pushProvider, never()).send(any(), any());
     }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void processBatch_ShouldReturnOnlyFailedRecords() throws Exception {
+        // Arrange
+        NotificationRequestEvent ok = NotificationRequestEvent.builder()
+                .eventId("evt_ok").userId("usr_1").recipient("usr_1").type("PUSH").build();
+        NotificationRequestEvent bad = NotificationRequestEvent.builder()
+                .eventId("evt_bad").userId("usr_2").recipient("usr_2").type("PUSH").build();
+        var okRecord = new ConsumerRecord<String, NotificationRequestEvent>("notification-requests", 0, 0L, null, ok);
+        var badRecord = new ConsumerRecord<String, NotificationRequestEvent>("notification-requests", 0, 1L, null, bad);
+
+        when(admissionService.admitAll(anyList())).thenAnswer(i -> ((List<AdmissionRequest>) i.getArgument(0))
+                .stream().map(NotificationProcessingServiceTest::admitAll).toList());
+        lenient().doThrow(new RuntimeException("Push failed")).when(pushProvider).send(eq(bad), any(Notification.class));
+
+        // Act
+        var failed = service.processBatch(List.of(okRecord, badRecord));
+
+        // Assert
+        assertEquals(List.of(badRecord), failed);
+        verify(pushProvider, times(1)).send(eq(ok), any(Notification.class));
+        verify(notificationStore, times(1)).insertAll(anyList());
+        verify(notificationStore, times(1)).updateStatusAll(anyList());
+        verify(notificationStore, never()).insert(any(Notification.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void processBatch_ShouldSendEachChannelOnItsBulkhead() throws Exception {
+        // Arrange
+        NotificationRequestEvent event = NotificationRequestEvent.builder()
+                .eventId("evt_1").userId("usr_1").recipient("usr_1").sendPush(true).sendEmail(true).build();
+        var record = new ConsumerRecord<String, NotificationRequestEvent>("notification-requests", 0, 0L, null, event);
+        when(admissionService.admitAll(anyList())).thenAnswer(i -> ((List<AdmissionRequest>) i.getArgument(0))
+                .stream().map(NotificationProcessingServiceTest::admitAll).toList());
+        Map<String, String> threads = new ConcurrentHashMap<>();
+        doAnswer(i -> threads.put("PUSH", Thread.currentThread().getName())).when(pushProvider).send(eq(event), any());
+        doAnswer(i -> threads.put("EMAIL", Thread.currentThread().getName())).when(emailProvider).send(eq(event), any());
+
+        // Act
+        var failed = service.processBatch(List.of(record));
+
+        // Assert
+        assertTrue(failed.isEmpty());
+        assertTrue(threads.get("PUSH").contains("notification-push"), threads.get("PUSH"));
+        assertTrue(threads.get("EMAIL").contains("notification-email"), threads.get("EMAIL"));
+    }
+
+    @Test
+    void processBatch_ShouldSkipDuplicatesAndAlreadyProcessedEvents() throws Exception {
+        // Arrange
+        NotificationRequestEvent first = NotificationRequestEvent.builder()
+                .eventId("evt_1").userId("usr_1").recipient("usr_1").type("EMAIL").build();
+        NotificationRequestEvent seenBefore = NotificationRequestEvent.builder()
+                .eventId("evt_2").userId("usr_2").recipient("usr_2").type("EMAIL").build();
+        var records = List.of(
+                new ConsumerRecord<String, NotificationRequestEvent>("notification-requests", 0, 0L, null, first),
+                new ConsumerRecord<String, NotificationRequestEvent>("notification-requests", 0, 1L, null, first),
+                new ConsumerRecord<String, NotificationRequestEvent>("notification-requests", 0, 2L, null, seenBefore));
+
+        when(admissionService.admitAll(anyList())).thenAnswer(i -> {
+            List<AdmissionRequest> requests = i.getArgument(0);
+            assertEquals(2, requests.size(), "In-batch duplicate should not reach Redis");
+            return List.of(admitAll(requests.get(0)), new Admission(true, Set.of()));
+        });
+
+        // Act
+        var failed = service.processBatch(records);
+
+        // Assert
+        assertTrue(failed.isEmpty());
+        verify(emailProvider, times(1)).send(eq(first), any(Notification.class));
+        verify(emailProvider, never()).send(eq(seenBefore), any(Notification.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void processBatch_ShouldHoldEventsThatAreNotDueYet() throws Exception {
+        // Arrange
+        Instant later = Instant.now().plusSeconds(3600);
+        NotificationRequestEvent now = NotificationRequestEvent.builder()
+                .eventId("evt_now").userId("usr_1").recipient("usr_1").type("PUSH").build();
+        NotificationRequestEvent scheduled = NotificationRequestEvent.builder()
+                .eventId("evt_later").userId("usr_2").recipient("usr_2").type("PUSH").deliverAt(later).build();
+        NotificationRequestEvent released = NotificationRequestEvent.builder()
+                .eventId("evt_released").userId("usr_3").recipient("usr_3").type("PUSH").build();
+        var releasedRecord = new ConsumerRecord<String, NotificationRequestEvent>("notification-requests", 0, 2L, null, released);
+        releasedRecord.headers().add(DeliveryScheduler.RELEASED_HEADER, "QUIET_HOURS".getBytes(StandardCharsets.UTF_8));
+
+        when(deliveryScheduler.holdUntil(any())).thenAnswer(i -> i.getArgument(0) == scheduled ? later : null);
+        when(admissionService.admitAll(anyList())).thenAnswer(i -> ((List<AdmissionRequest>) i.getArgument(0))
+                .stream().map(NotificationProcessingServiceTest::admitAll).toList());
+
+        // Act
+        var failed = service.processBatch(List.of(
+                new ConsumerRecord<>("notification-requests", 0, 0L, null, now),
+                new ConsumerRecord<>("notification-requests", 0, 1L, null, scheduled),
+                releasedRecord));
+
+        // Assert
+        assertTrue(failed.isEmpty());
+        verify(deliveryScheduler).scheduleAll(Map.of(scheduled, later));
+        verify(deliveryScheduler, never()).holdUntil(released);
+        verify(pushProvider).send(eq(now), any(Notification.class));
+        verify(pushProvider).send(eq(released), any(Notification.class));
+        verify(pushProvider, never()).send(eq(scheduled), any(Notification.class));
+    }
+
+    @Test
+    void process_ShouldReleaseClaimAndSkipRateLimitedChannel() throws Exception {
+        // Arrange
+        NotificationRequestEvent event = NotificationRequestEvent.builder()
+                .eventId("evt_123")
+                .userId("usr_456")
+                .recipient("test@example.com")
+                .sendPush(true)
+                .sendEmail(true)
+                .build();
+
+        doReturn(new Admission(false, Set.of("EMAIL"))).when(admissionService).admit(any());
+        when(notificationStore.insert(any(Notification.class))).thenAnswer(i -> i.getArguments()[0]);
+        doThrow(new RuntimeException("Email failed")).when(emailProvider).send(eq(event), any(Notification.class));
+
+        // Act
+        assertThrows(RuntimeException.class, () -> service.process(event));
+
+        // Assert
+        verify(pushProvider, never()).send(any(), any());
+        verify(admissionService).release("evt_123");
+    }
+
+    private static Admission admitAll(AdmissionRequest request) {
+        return new Admission(false, Set.copyOf(request.channels()));
+    }
 }
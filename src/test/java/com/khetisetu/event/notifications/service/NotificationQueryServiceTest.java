@@ -0,0 +1,149 @@
+package com.khetisetu.event.notifications.service;
+
+import com.khetisetu.event.notifications.dto.CursorPage;
+import com.khetisetu.event.notifications.model.Notification;
+import com.khetisetu.event.notifications.repository.NotificationRepository;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class NotificationQueryServiceTest {
+
+    @Mock
+    private NotificationRepository notificationRepository;
+
+    @Mock
+    private UnreadCounterService unreadCounters;
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    private NotificationQueryService queryService;
+
+    @BeforeEach
+    void setUp() {
+        queryService = new NotificationQueryService(notificationRepository, unreadCounters, mongoTemplate);
+    }
+
+    @Test
+    void markAllAsRead_ShouldUpdateServerSideAndReturnModifiedCount() {
+        when(mongoTemplate.updateMulti(any(Query.class), any(Update.class), eq(Notification.class)))
+                .thenReturn(UpdateResult.acknowledged(1200, 1200L, null));
+
+        assertEquals(1200, queryService.markAllAsRead("user-1"));
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateMulti(query.capture(), update.capture(), eq(Notification.class));
+        assertEquals(new Document("userId", "user-1").append("isRead", false), query.getValue().getQueryObject());
+        Document set = (Document) update.getValue().getUpdateObject().get("$set");
+        assertEquals(true, set.get("isRead"));
+        assertNotNull(set.get("updatedAt"));
+        verify(notificationRepository, never()).findByUserIdAndIsReadFalse(anyString());
+        verify(notificationRepository, never()).saveAll(anyList());
+        verify(unreadCounters).onAllRead("user-1");
+    }
+
+    @Test
+    void scrollUserNotifications_ShouldFetchOneExtraAndReturnCursorOfLastItem() {
+        Instant t = Instant.parse("2026-01-01T00:00:00Z");
+        List<Notification> rows = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            rows.add(notification("65a0000000000000000000" + (10 + i), t.minusSeconds(i)));
+        }
+        when(mongoTemplate.find(any(Query.class), eq(Notification.class))).thenReturn(rows);
+        when(mongoTemplate.count(any(Query.class), eq(Notification.class))).thenReturn(3L);
+
+        CursorPage<Notification> page = queryService.scrollUserNotifications("user-1", null, null, 2, false, true);
+
+        assertEquals(2, page.content().size());
+        assertTrue(page.hasNext());
+        assertEquals(new CursorPage.Position(t.minusSeconds(1), rows.get(1).getId()),
+                CursorPage.Position.decode(page.nextCursor()));
+        assertNull(page.total());
+        assertEquals(3L, page.estimatedTotal());
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(query.capture(), eq(Notification.class));
+        assertEquals(3, query.getValue().getLimit());
+        assertEquals(new Document("createdAt", -1).append("id", -1), query.getValue().getSortObject());
+        assertEquals(new Document("content", 0).append("metadata", 0), query.getValue().getFieldsObject());
+        ArgumentCaptor<Query> count = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).count(count.capture(), eq(Notification.class));
+        assertEquals(NotificationQueryService.ESTIMATE_CAP, count.getValue().getLimit());
+    }
+
+    @Test
+    void scrollUserNotifications_ShouldSeekPastCursorAndEndOnShortPage() {
+        Instant t = Instant.parse("2026-01-01T00:00:00Z");
+        String cursor = new CursorPage.Position(t, "65a000000000000000000010").encode();
+        when(mongoTemplate.find(any(Query.class), eq(Notification.class)))
+                .thenReturn(List.of(notification("65a000000000000000000009", t)));
+        when(mongoTemplate.count(any(Query.class), eq(Notification.class))).thenReturn(41L);
+
+        CursorPage<Notification> page = queryService.scrollUserNotifications("user-1", "PUSH", cursor, 20, true, true);
+
+        assertFalse(page.hasNext());
+        assertNull(page.nextCursor());
+        assertEquals(41L, page.total());
+        assertNull(page.estimatedTotal(), "Estimates are for the first page only");
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(query.capture(), eq(Notification.class));
+        Document filter = query.getValue().getQueryObject();
+        assertEquals("user-1", filter.get("userId"));
+        assertEquals("PUSH", filter.get("type"));
+        assertEquals(List.of(
+                new Document("createdAt", new Document("$lt", t)),
+                new Document("createdAt", t).append("id", new Document("$lt", "65a000000000000000000010"))),
+                filter.get("$or"));
+        // The exact count ignores the cursor
+        ArgumentCaptor<Query> count = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).count(count.capture(), eq(Notification.class));
+        assertFalse(count.getValue().getQueryObject().containsKey("$or"));
+        assertEquals(0, count.getValue().getLimit());
+    }
+
+    @Test
+    void scrollUserNotifications_ShouldNotCountUnlessAsked() {
+        when(mongoTemplate.find(any(Query.class), eq(Notification.class))).thenReturn(List.of());
+
+        CursorPage<Notification> page = queryService.scrollUserNotifications("user-1", null, null, 20, false, false);
+
+        assertNull(page.total());
+        assertNull(page.estimatedTotal());
+        verify(mongoTemplate, never()).count(any(Query.class), eq(Notification.class));
+    }
+
+    @Test
+    void scrollUserNotifications_ShouldRejectMalformedCursor() {
+        assertThrows(IllegalArgumentException.class,
+                () -> queryService.scrollUserNotifications("user-1", null, "not a cursor", 20, false, false));
+        verifyNoInteractions(mongoTemplate);
+    }
+
+    private static Notification notification(String id, Instant createdAt) {
+        Notification n = new Notification();
+        n.setId(id);
+        n.setUserId("user-1");
+        n.setCreatedAt(createdAt);
+        return n;
+    }
+}
@@ -0,0 +1,66 @@
+package com.khetisetu.event.notifications.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.thymeleaf.TemplateEngine;
+import org.thymeleaf.context.IContext;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class NotificationTemplateRegistryTest {
+
+    @Mock
+    private TemplateEngine templateEngine;
+
+    private SimpleMeterRegistry meterRegistry;
+    private NotificationTemplateRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        registry = new NotificationTemplateRegistry(new ObjectMapper(), templateEngine, meterRegistry);
+    }
+
+    @Test
+    void warmup_ShouldLoadDefinitionsAndPreparseHtmlTemplates() {
+        NotificationTemplateRegistry.WarmupResult result = registry.warmup();
+
+        NotificationTemplateRegistry.Entry otp = registry.find("otp_email", "en");
+        assertNotNull(otp);
+        assertEquals("Your OTP is {{otp}}", otp.definition().getSubject());
+        assertEquals("Your OTP is 1234", otp.subject().render(Map.of("otp", "1234")));
+        assertNull(registry.find("no_such_template", "en"));
+        assertNull(registry.find("otp_email", "xx"));
+        assertTrue(result.definitions() > 0);
+        assertTrue(result.htmlTemplates() > 0);
+        verify(templateEngine).process(eq("en/otp_email"), any(IContext.class));
+        assertTrue(registry.hasHtml("notification_digest", "en"));
+        assertFalse(registry.hasHtml("notification_digest", "hn"));
+    }
+
+    @Test
+    void renderHtml_ShouldPassParamsAndRecordRenderTime() {
+        when(templateEngine.process(anyString(), any(IContext.class))).thenAnswer(i -> {
+            IContext context = i.getArgument(1);
+            return "<p>" + context.getVariable("otp") + "</p>";
+        });
+
+        String html = registry.renderHtml("otp_email", "en", Map.of("otp", "1234"));
+
+        assertEquals("<p>1234</p>", html);
+        assertEquals(1, meterRegistry.get("notification.template.render")
+                .tag("template", "otp_email").tag("outcome", "success").timer().count());
+    }
+}
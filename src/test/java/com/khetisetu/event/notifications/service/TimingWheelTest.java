@@ -0,0 +1,52 @@
+package com.khetisetu.event.notifications.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimingWheelTest {
+
+    @Test
+    void advance_ShouldExpireItemsInTheirTick() {
+        TimingWheel<String> wheel = new TimingWheel<>(100, 8, 3, 0);
+
+        assertTrue(wheel.add("a", 250));
+        assertTrue(wheel.add("b", 120));
+        assertFalse(wheel.add("now", 50), "Items due within the current tick are not held");
+
+        assertEquals(List.of(), wheel.advance(99));
+        assertEquals(List.of("b"), wheel.advance(100));
+        assertEquals(List.of("a"), wheel.advance(300));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void advance_ShouldCascadeItemsFromUpperLevelsInDueOrder() {
+        // Levels span 0.8 s, 6.4 s and 51.2 s
+        TimingWheel<Long> wheel = new TimingWheel<>(100, 8, 3, 0);
+        List<Long> dues = List.of(45_000L, 700L, 7_300L, 900L, 30_050L, 6_400L);
+        dues.forEach(due -> assertTrue(wheel.add(due, due)));
+
+        List<Long> expired = new ArrayList<>();
+        for (long now = 0; now <= 50_000; now += 100) {
+            for (Long due : wheel.advance(now)) {
+                assertTrue(now >= due - due % 100 && now < due + 100, "Expired " + due + " at " + now);
+                expired.add(due);
+            }
+        }
+
+        assertEquals(dues.stream().sorted().toList(), expired);
+    }
+
+    @Test
+    void add_ShouldRejectItemsBeyondTheHorizon() {
+        TimingWheel<String> wheel = new TimingWheel<>(100, 8, 2, 0);
+
+        assertEquals(5_600, wheel.horizonMs());
+        assertTrue(wheel.add("edge", 5_600));
+        assertFalse(wheel.add("far", 6_400));
+    }
+}
@@ -0,0 +1,99 @@
+package com.khetisetu.event.notifications.service;
+
+import com.khetisetu.event.notifications.model.Notification;
+import com.khetisetu.event.notifications.repository.NotificationRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class UnreadCounterServiceTest {
+
+    @Mock
+    private StringRedisTemplate redisTemplate;
+
+    @Mock
+    private ValueOperations<String, String> valueOps;
+
+    @Mock
+    private NotificationRepository notificationRepository;
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    private UnreadCounterService counters;
+
+    @BeforeEach
+    void setUp() {
+        counters = new UnreadCounterService(redisTemplate, notificationRepository, mongoTemplate);
+        lenient().when(redisTemplate.opsForValue()).thenReturn(valueOps);
+    }
+
+    private static Notification notification(String userId) {
+        Notification n = new Notification();
+        n.setUserId(userId);
+        return n;
+    }
+
+    @Test
+    void getUnreadCount_ShouldServeCachedCounterWithoutMongo() {
+        when(valueOps.get("notif:unread:user-1")).thenReturn("7");
+
+        assertEquals(7, counters.getUnreadCount("user-1"));
+        verifyNoInteractions(notificationRepository);
+    }
+
+    @Test
+    void getUnreadCount_ShouldInitializeMissingCounterFromMongo() {
+        when(notificationRepository.countByUserIdAndIsReadFalse("user-1")).thenReturn(3L);
+
+        assertEquals(3, counters.getUnreadCount("user-1"));
+        verify(valueOps).setIfAbsent("notif:unread:user-1", "3", Duration.ofSeconds(86_400));
+    }
+
+    @Test
+    void getUnreadCount_ShouldFallBackToMongoWhenRedisIsDown() {
+        when(valueOps.get(anyString())).thenThrow(new IllegalStateException("connection refused"));
+        when(notificationRepository.countByUserIdAndIsReadFalse("user-1")).thenReturn(4L);
+
+        assertEquals(4, counters.getUnreadCount("user-1"));
+    }
+
+    @Test
+    void onCreated_ShouldAddPerUserDeltasInOneScriptCall() {
+        counters.onCreated(List.of(notification("user-1"), notification("user-2"), notification("user-1"),
+                notification(null)));
+
+        verify(redisTemplate).execute(UnreadCounterService.ADD_IF_PRESENT_SCRIPT,
+                List.of("notif:unread:user-1", "notif:unread:user-2"), "86400", "2", "1");
+    }
+
+    @Test
+    void onCreated_ShouldEvictCountersItCouldNotUpdate() {
+        when(redisTemplate.execute(eq(UnreadCounterService.ADD_IF_PRESENT_SCRIPT), anyList(), any(Object[].class)))
+                .thenThrow(new IllegalStateException("timeout"));
+
+        counters.onCreated(List.of(notification("user-1")));
+
+        verify(redisTemplate).delete("notif:unread:user-1");
+    }
+
+    @Test
+    void onAllRead_ShouldResetCounterToZero() {
+        counters.onAllRead("user-1");
+
+        verify(valueOps).set("notif:unread:user-1", "0", Duration.ofSeconds(86_400));
+    }
+}
@@ -1,12 +1,23 @@
 package com.khetisetu.event.notifications.service;
 
+import com.mongodb.MongoClientSettings;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.redis.core.StringRedisTemplate;
 
 import java.util.HashMap;
 import java.util.List;
@@ -14,8 +25,10 @@ import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 class UserTokenServiceTest {
@@ -23,6 +36,9 @@ class UserTokenServiceTest {
     @Mock
     private MongoTemplate mongoTemplate;
 
+    @Mock
+    private StringRedisTemplate redisTemplate;
+
     @InjectMocks
     private UserTokenService userTokenService;
 
@@ -104,4 +120,117 @@ class UserTokenServiceTest {
 
         assertTrue(tokens.isEmpty());
     }
+
+    @Test
+    void getFcmTokens_ShouldServeRepeatedLookupsFromCache() {
+        when(mongoTemplate.findOne(any(Query.class), eq(Map.class), eq("users")))
+                .thenReturn(Map.of("pushSubscription", Map.of("token", "cached_token")));
+
+        userTokenService.getFcmTokens("user_123");
+        List<String> tokens = userTokenService.getFcmTokens("user_123");
+
+        assertEquals(List.of("cached_token"), tokens);
+        verify(mongoTemplate, times(1)).findOne(any(Query.class), eq(Map.class), eq("users"));
+    }
+
+    @Test
+    void invalidateToken_ShouldEvictCachedTokens() {
+        when(mongoTemplate.findOne(any(Query.class), eq(Map.class), eq("users")))
+                .thenReturn(Map.of("pushSubscription", Map.of("token", "stale_token")))
+                .thenReturn(Map.of());
+        userTokenService.getFcmTokens("user_123");
+
+        userTokenService.invalidateToken("user_123", "stale_token");
+        List<String> tokens = userTokenService.getFcmTokens("user_123");
+
+        assertTrue(tokens.isEmpty());
+        verify(mongoTemplate, times(2)).findOne(any(Query.class), eq(Map.class), eq("users"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void invalidateToken_ShouldNotServeStaleTokenReloadedBeforeFlush() {
+        Map<String, Object> user = Map.of("pushSubscriptions",
+                List.of(Map.of("token", "stale_token"), Map.of("token", "live_token")));
+        when(mongoTemplate.findOne(any(Query.class), eq(Map.class), eq("users")))
+                .thenReturn(user)
+                .thenReturn(user)
+                .thenReturn(Map.of("pushSubscriptions", List.of(Map.of("token", "live_token"))));
+        userTokenService.getFcmTokens("user_123");
+
+        userTokenService.invalidateToken("user_123", "stale_token");
+        // The $pull has not run yet: users still holds the stale token
+        assertEquals(List.of("live_token"), userTokenService.getFcmTokens("user_123"));
+
+        MongoCollection<Document> users = mock(MongoCollection.class);
+        when(mongoTemplate.getCollection("users")).thenReturn(users);
+        when(users.bulkWrite(anyList(), any(BulkWriteOptions.class))).thenReturn(BulkWriteResult.unacknowledged());
+        userTokenService.flushInvalidations();
+
+        // Evicted again after the write, reloaded from the cleaned document
+        assertEquals(List.of("live_token"), userTokenService.getFcmTokens("user_123"));
+        verify(mongoTemplate, times(3)).findOne(any(Query.class), eq(Map.class), eq("users"));
+    }
+
+    @Test
+    void prefetch_ShouldLoadAllUsersWithOneQuery() {
+        Document user1 = new Document("_id", "user_1")
+                .append("pushSubscriptions", List.of(new Document("token", "token_1")));
+        Document user2 = new Document("_id", "user_2")
+                .append("pushSubscription", new Document("token", "token_2"));
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("users"))).thenReturn(List.of(user1, user2));
+
+        userTokenService.prefetch(List.of("user_1", "user_2", "user_3"));
+
+        assertEquals(List.of("token_1"), userTokenService.getFcmTokens("user_1"));
+        assertEquals(List.of("token_2"), userTokenService.getFcmTokens("user_2"));
+        assertTrue(userTokenService.getFcmTokens("user_3").isEmpty());
+        verify(mongoTemplate, times(1)).find(any(Query.class), eq(Document.class), eq("users"));
+        verify(mongoTemplate, never()).findOne(any(Query.class), eq(Map.class), anyString());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flushInvalidations_ShouldRemoveAllQueuedTokensInOneBulkWrite() {
+        MongoCollection<Document> users = mock(MongoCollection.class);
+        when(mongoTemplate.getCollection("users")).thenReturn(users);
+        when(users.bulkWrite(anyList(), any(BulkWriteOptions.class))).thenReturn(BulkWriteResult.unacknowledged());
+
+        userTokenService.invalidateToken("user_1", "stale_1");
+        userTokenService.invalidateToken("user_1", "stale_2");
+        userTokenService.invalidateToken("user_2", "stale_3");
+        userTokenService.flushInvalidations();
+        userTokenService.flushInvalidations();
+
+        ArgumentCaptor<List<WriteModel<Document>>> captor = ArgumentCaptor.forClass(List.class);
+        verify(users, times(1)).bulkWrite(captor.capture(), any(BulkWriteOptions.class));
+        List<WriteModel<Document>> models = captor.getValue();
+        assertEquals(4, models.size(), "One $pull and one legacy $unset per user");
+
+        CodecRegistry codecs = MongoClientSettings.getDefaultCodecRegistry();
+        String pull = render(((UpdateOneModel<Document>) models.get(0)).getUpdate(), codecs);
+        assertTrue(pull.contains("stale_1") && pull.contains("stale_2"));
+        assertTrue(pull.contains("https://fcm.googleapis.com/fcm/send/stale_1"));
+        assertFalse(pull.contains("$regex"), "Stale tokens should be matched exactly");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flushInvalidations_ShouldRequeueTokensWhenMongoIsUnavailable() {
+        MongoCollection<Document> users = mock(MongoCollection.class);
+        when(mongoTemplate.getCollection("users")).thenReturn(users);
+        when(users.bulkWrite(anyList(), any(BulkWriteOptions.class)))
+                .thenThrow(new RuntimeException("connection refused"))
+                .thenReturn(BulkWriteResult.unacknowledged());
+
+        userTokenService.invalidateToken("user_1", "stale_1");
+        userTokenService.flushInvalidations();
+        userTokenService.flushInvalidations();
+
+        verify(users, times(2)).bulkWrite(anyList(), any(BulkWriteOptions.class));
+    }
+
+    private String render(Bson bson, CodecRegistry codecs) {
+        return bson.toBsonDocument(Document.class, codecs).toJson();
+    }
 }